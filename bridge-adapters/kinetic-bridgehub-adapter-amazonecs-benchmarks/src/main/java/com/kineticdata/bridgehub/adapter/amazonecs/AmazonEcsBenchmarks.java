@@ -0,0 +1,24 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler turned on, so the allocation rate (gc.alloc.rate.norm)
+ * is reported next to the timings. Takes the usual JMH command line options (for example a
+ * benchmark name pattern, -p tasks=1000 or -f 1).
+ */
+public class AmazonEcsBenchmarks {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the search and count throughput (and latency percentiles) of the adapter against the
+ * ECS stand-in server, or any other endpoint that speaks the ECS JSON API.
+ *
+ * A number of threads run a fixed mix of searches and counts (each thread steps through the mix
+ * in turn) for a warmup period and then for the measured period, after which the calls per second,
+ * the latency percentiles of each operation and the ECS call counters from the adapter metrics
+ * are printed.
+ *
+ * Options (as name=value): threads (8), warmup (5 seconds), seconds (30), endpoint (starts an
+ * embedded stand-in server if blank), any of the AmazonEcsStandInServer options for the embedded
+ * server, and property.NAME=VALUE to set adapter properties (for example
+ * "property.Mirror Mode=true").
+ */
+public class AmazonEcsLoadDriver {
+
+    /** The operations each thread runs, in turn */
+    private static final List<Operation> MIX = Arrays.asList(
+        new Operation("search Tasks (running in default)", false, "Tasks",
+            "cluster=default&desiredStatus=RUNNING", "taskArn,lastStatus,group,createdAt"),
+        new Operation("search Tasks (client side predicate)", false, "Tasks",
+            "cluster=cluster-1&lastStatus=RUNNING&environment[space_slug]=acme", "taskArn,lastStatus,environment[space_slug]"),
+        new Operation("search Tasks (joined task definition)", false, "Tasks",
+            "cluster=default&launchType=EC2", "taskArn,taskDefinition.family,taskDefinition.revision"),
+        new Operation("count Tasks", true, "Tasks",
+            "cluster=default&desiredStatus=RUNNING", null),
+        new Operation("count Tasks (client side predicate)", true, "Tasks",
+            "cluster=cluster-2&group^=service:core", null),
+        new Operation("search ContainerInstances", false, "ContainerInstances",
+            "cluster=default", "containerInstanceArn,ec2InstanceId,runningTasksCount"),
+        new Operation("search Clusters", false, "Clusters",
+            "", "clusterName,runningTasksCount,pendingTasksCount")
+    );
+
+    public static void main(String[] args) throws Exception {
+        Map<String,String> options = AmazonEcsStandInServer.options(args);
+        int threads = AmazonEcsStandInServer.intOption(options, "threads", 8);
+        int warmupSeconds = AmazonEcsStandInServer.intOption(options, "warmup", 5);
+        int seconds = AmazonEcsStandInServer.intOption(options, "seconds", 30);
+
+        AmazonEcsStandInServer server = null;
+        String endpoint = options.get("endpoint");
+        if (endpoint == null || endpoint.length() == 0) {
+            server = AmazonEcsStandInServer.fromOptions(options).start(0);
+            endpoint = server.getEndpoint();
+        }
+
+        Map<String,String> properties = new LinkedHashMap<String,String>();
+        properties.put(AmazonEcsAdapter.Properties.ACCESS_KEY, "AKIDEXAMPLE");
+        properties.put(AmazonEcsAdapter.Properties.SECRET_KEY, "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+        properties.put(AmazonEcsAdapter.Properties.REGION, AmazonEcsFixtures.REGION);
+        properties.put(AmazonEcsAdapter.Properties.ENDPOINT, endpoint);
+        for (Map.Entry<String,String> option : options.entrySet()) {
+            if (option.getKey().startsWith("property.")) {
+                properties.put(option.getKey().substring("property.".length()), option.getValue());
+            }
+        }
+        AmazonEcsAdapter adapter = new AmazonEcsAdapter();
+        adapter.setProperties(properties);
+        adapter.initialize();
+
+        try {
+            System.out.println("Load testing "+endpoint+" with "+threads+" threads");
+            AmazonEcsMetrics metrics = new AmazonEcsMetrics();
+            run(adapter, metrics, threads, warmupSeconds);
+            metrics.reset();
+            Map<String,Map<String,Number>> adapterBefore = adapter.getMetrics();
+            run(adapter, metrics, threads, seconds);
+            report(metrics.snapshot(), adapterBefore, adapter.getMetrics(), seconds);
+            if (server != null) {
+                System.out.println("Stand-in server: "+server.getRequests()+" requests, "+server.getThrottled()+" throttled");
+            }
+        } finally {
+            adapter.destroy();
+            if (server != null) server.stop();
+        }
+    }
+
+    /**
+     * Runs the operation mix on the threads for the number of seconds.
+     */
+    private static void run(final AmazonEcsAdapter adapter, final AmazonEcsMetrics metrics, int threads, int seconds) throws Exception {
+        final long stopAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Exception> firstError = new AtomicReference<Exception>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = offset; System.nanoTime() < stopAt; i++) {
+                            Operation operation = MIX.get(i % MIX.size());
+                            long started = System.nanoTime();
+                            boolean succeeded = false;
+                            try {
+                                operation.run(adapter);
+                                succeeded = true;
+                            } catch (BridgeError e) {
+                                firstError.compareAndSet(null, e);
+                            } finally {
+                                metrics.get(operation.name).record(started, succeeded);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "ecs-load-driver-"+t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        if (firstError.get() != null) {
+            System.out.println("First error: "+firstError.get());
+        }
+    }
+
+    private static void report(Map<String,Map<String,Number>> operations, Map<String,Map<String,Number>> adapterBefore,
+        Map<String,Map<String,Number>> adapterAfter, int seconds
+    ) {
+        long total = 0;
+        System.out.println();
+        System.out.println(String.format("%-40s %10s %8s %10s %10s %10s %10s", "operation", "calls/s", "errors", "mean ms", "p50 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String,Map<String,Number>> operation : operations.entrySet()) {
+            Map<String,Number> stats = operation.getValue();
+            long calls = stats.get("calls").longValue();
+            total += calls;
+            System.out.println(String.format("%-40s %10.1f %8d %10.2f %10.2f %10.2f %10.2f", operation.getKey(),
+                calls / (double)seconds, stats.get("errors").longValue(), stats.get("meanMillis").doubleValue(),
+                stats.get("p50Millis").doubleValue(), stats.get("p99Millis").doubleValue(), stats.get("maxMillis").doubleValue()));
+        }
+        System.out.println(String.format("%-40s %10.1f", "total", total / (double)seconds));
+
+        System.out.println();
+        System.out.println(String.format("%-40s %10s %10s %10s %10s", "ECS call", "calls/s", "throttles", "retries", "p99 ms"));
+        for (Map.Entry<String,Map<String,Number>> call : adapterAfter.entrySet()) {
+            if (!call.getKey().startsWith("ecs.")) continue;
+            Map<String,Number> before = adapterBefore.containsKey(call.getKey())
+                ? adapterBefore.get(call.getKey())
+                : new HashMap<String,Number>();
+            System.out.println(String.format("%-40s %10.1f %10d %10d %10.2f", call.getKey(),
+                delta(call.getValue(), before, "calls") / (double)seconds, delta(call.getValue(), before, "throttles"),
+                delta(call.getValue(), before, "retries"), call.getValue().get("p99Millis").doubleValue()));
+        }
+    }
+
+    private static long delta(Map<String,Number> after, Map<String,Number> before, String statistic) {
+        return after.get(statistic).longValue() - (before.containsKey(statistic) ? before.get(statistic).longValue() : 0);
+    }
+
+    /**
+     * A search or count of a structure.
+     */
+    private static class Operation {
+        private final String name;
+        private final boolean count;
+        private final String structure;
+        private final String query;
+        private final List<String> fields;
+
+        private Operation(String name, boolean count, String structure, String query, String fields) {
+            this.name = name;
+            this.count = count;
+            this.structure = structure;
+            this.query = query;
+            this.fields = fields == null ? null : new ArrayList<String>(Arrays.asList(fields.split(",")));
+        }
+
+        private void run(AmazonEcsAdapter adapter) throws BridgeError {
+            BridgeRequest request = new BridgeRequest();
+            request.setStructure(structure);
+            request.setQuery(query);
+            request.setFields(fields);
+            request.setParameters(new HashMap<String,String>());
+            request.setMetadata(new HashMap<String,String>());
+            if (count) {
+                adapter.count(request);
+            } else {
+                adapter.search(request);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Filtering described tasks by client side predicates (the record filter compacts the list it is
+ * given, so each invocation filters a fresh copy of the records - the copy benchmark is the
+ * baseline for that cost).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int tasks;
+
+    /** A top level predicate, a nested (aliased) predicate, and a mix of operators */
+    @Param({
+        "lastStatus=RUNNING",
+        "environment[space_slug]=acme",
+        "lastStatus!=STOPPED&group^=service:core&launchType=[EC2,FARGATE]"
+    })
+    public String query;
+
+    private List<Record> records;
+    private List<AmazonEcsQueryPlan.Predicate> predicates;
+
+    @Setup
+    public void setup() throws BridgeError {
+        records = new AmazonEcsFixtures().taskRecords(tasks);
+        Map<String,String> parameters = new HashMap<String,String>();
+        predicates = AmazonEcsQueryPlan.compile("Tasks", query, false)
+            .bind(new AmazonEcsQualificationParser(), parameters)
+            .getPredicates();
+    }
+
+    @Benchmark
+    public List<Record> copy() {
+        return new ArrayList<Record>(records);
+    }
+
+    @Benchmark
+    public List<Record> filter() {
+        return AmazonEcsRecordFilter.filter(new ArrayList<Record>(records), predicates);
+    }
+
+}
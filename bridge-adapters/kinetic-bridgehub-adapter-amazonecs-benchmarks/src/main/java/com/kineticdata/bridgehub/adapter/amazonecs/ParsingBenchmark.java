@@ -0,0 +1,168 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing DescribeTasks responses of different sizes, and a large task definition - building every
+ * field, building only a projection of the fields, and the json-simple parse that the adapter used
+ * to make (for comparison).
+ *
+ * The searchRecords and searchRecordTable benchmarks parse the response into the records of a
+ * search for a few fields (one of them nested), either adding the nested values to the described
+ * objects (as the adapter did before the record table) or projecting them into a record table, so
+ * the GC profiler compares what the two allocate. Running the class on its own compares what the
+ * results of the two retain:
+ *
+ *     java -cp target/benchmarks.jar com.kineticdata.bridgehub.adapter.amazonecs.ParsingBenchmark 5000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParsingBenchmark {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final List<String> SEARCH_FIELDS = Arrays.asList("taskArn", "lastStatus", "group", "environment[space_slug]");
+    /** The projection the adapter parses the search responses with */
+    private static final Set<String> SEARCH_PROJECTION = new TreeSet<String>(Arrays.asList("taskArn", "lastStatus", "group", "overrides"));
+
+    @Param({"10", "100", "1000", "10000"})
+    public int tasks;
+
+    private byte[] describeTasks;
+    private byte[] taskDefinition;
+    private Set<String> projection;
+
+    @Setup
+    public void setup() {
+        AmazonEcsFixtures fixtures = new AmazonEcsFixtures();
+        describeTasks = AmazonEcsFixtures.bytes(fixtures.describeTasksResponse(tasks));
+        taskDefinition = AmazonEcsFixtures.bytes(fixtures.describeTaskDefinitionResponse(1, 10, 200));
+        projection = new TreeSet<String>(Arrays.asList("taskArn", "lastStatus", "group", "overrides"));
+    }
+
+    @Benchmark
+    public JSONObject parse() throws IOException {
+        return AmazonEcsResponseParser.parse(new ByteArrayInputStream(describeTasks), "tasks", null);
+    }
+
+    @Benchmark
+    public JSONObject parseProjected() throws IOException {
+        return AmazonEcsResponseParser.parse(new ByteArrayInputStream(describeTasks), "tasks", projection);
+    }
+
+    @Benchmark
+    public Object parseJsonSimple() throws IOException, ParseException {
+        return new JSONParser().parse(new InputStreamReader(new ByteArrayInputStream(describeTasks), UTF8));
+    }
+
+    @Benchmark
+    public JSONObject parseLargeTaskDefinition() throws IOException {
+        return AmazonEcsResponseParser.parse(new ByteArrayInputStream(taskDefinition), "taskDefinition", null);
+    }
+
+    @Benchmark
+    public List<Record> searchRecords() throws IOException {
+        return searchRecords(describeTasks);
+    }
+
+    @Benchmark
+    public List<Record> searchRecordTable() throws IOException {
+        return searchRecordTable(describeTasks);
+    }
+
+    /** The described tasks with the values of the nested fields added to them */
+    private static List<Record> searchRecords(byte[] response) throws IOException {
+        List<Record> records = records(response);
+        for (String field : SEARCH_FIELDS) {
+            AmazonEcsFieldPath path = AmazonEcsFieldPath.compile(field);
+            if (path.isNested()) {
+                for (Record record : records) {
+                    record.getRecord().put(field, path.value(record.getRecord()));
+                }
+            }
+        }
+        return records;
+    }
+
+    /** The described tasks projected into a record table */
+    private static List<Record> searchRecordTable(byte[] response) throws IOException {
+        List<String> columns = new ArrayList<String>(SEARCH_FIELDS);
+        columns.add("cluster");
+        return AmazonEcsRecordTable.project(records(response), columns);
+    }
+
+    private static List<Record> records(byte[] response) throws IOException {
+        List tasks = (List)AmazonEcsResponseParser.parse(new ByteArrayInputStream(response), "tasks", SEARCH_PROJECTION).get("tasks");
+        List<Record> records = new ArrayList<Record>(tasks.size());
+        for (Object task : tasks) {
+            records.add(new Record((Map)task));
+        }
+        return records;
+    }
+
+    /**
+     * Reports the heap retained by the records of a search, built both ways from a DescribeTasks
+     * response with the given number of tasks (5000 by default). Each way is measured over a few
+     * results held at once, to even out the noise in the used heap.
+     */
+    public static void main(String[] args) throws IOException {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        byte[] response = AmazonEcsFixtures.bytes(new AmazonEcsFixtures().describeTasksResponse(tasks));
+        int results = 10;
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up, so the measurements don't include class loading
+            List<List<Record>> held = new ArrayList<List<Record>>();
+            long before = usedHeap();
+            for (int i = 0; i < results; i++) {
+                held.add(searchRecords(response));
+            }
+            long recordsBytes = (usedHeap() - before) / results;
+            held.clear();
+
+            before = usedHeap();
+            for (int i = 0; i < results; i++) {
+                held.add(searchRecordTable(response));
+            }
+            long tableBytes = (usedHeap() - before) / results;
+            held.clear();
+
+            if (round > 0) {
+                System.out.println("records:      "+tasks+" tasks retain "+recordsBytes / 1024+" KB");
+                System.out.println("record table: "+tasks+" tasks retain "+tableBytes / 1024+" KB");
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+}
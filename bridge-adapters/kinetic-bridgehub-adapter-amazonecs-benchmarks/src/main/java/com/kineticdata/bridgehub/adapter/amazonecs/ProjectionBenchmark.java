@@ -0,0 +1,57 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Projecting nested fields (the values the adapter adds to the records for bracketed fields) out
+ * of described tasks, and out of a large task definition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProjectionBenchmark {
+
+    @Param({"100", "10000"})
+    public int tasks;
+
+    @Param({"containers[name]", "environment[space_slug]", "containers[networkBindings][hostPort]"})
+    public String field;
+
+    private List<Record> records;
+    private Map taskDefinition;
+    private AmazonEcsFieldPath environmentPath;
+
+    @Setup
+    public void setup() {
+        AmazonEcsFixtures fixtures = new AmazonEcsFixtures();
+        records = fixtures.taskRecords(tasks);
+        taskDefinition = fixtures.taskDefinition(1, 10, 200);
+        environmentPath = AmazonEcsFieldPath.compile("containerDefinitions[environment][SETTING_199]");
+    }
+
+    @Benchmark
+    public void project(Blackhole blackhole) {
+        AmazonEcsFieldPath path = AmazonEcsFieldPath.compile(field);
+        for (Record record : records) {
+            blackhole.consume(path.value(record.getRecord()));
+        }
+    }
+
+    @Benchmark
+    public Object projectLargeTaskDefinition() {
+        return environmentPath.values(taskDefinition);
+    }
+
+}
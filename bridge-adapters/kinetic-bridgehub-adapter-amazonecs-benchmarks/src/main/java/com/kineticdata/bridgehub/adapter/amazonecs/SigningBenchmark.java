@@ -0,0 +1,59 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * SigV4 signing of the ECS calls - the Authorization header for a call (which is built for every
+ * request) and looking up the signing key (derived once a day and then cached by the signer).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SigningBenchmark {
+
+    /** The payload of a List call, and of a Describe call for a full page of Arns */
+    @Param({"list", "describe"})
+    public String payload;
+
+    private AmazonEcsSigner signer;
+    private AmazonEcsSigner.JsonTarget target;
+    private String body;
+    private String datetime;
+
+    @Setup
+    public void setup() {
+        signer = new AmazonEcsSigner("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+        target = new AmazonEcsSigner.JsonTarget(signer, "ecs."+AmazonEcsFixtures.REGION+".amazonaws.com", "/",
+            "AmazonEC2ContainerServiceV20141113", AmazonEcsFixtures.REGION, "ecs");
+        if (payload.equals("list")) {
+            body = "{\"cluster\":\"default\",\"desiredStatus\":\"RUNNING\",\"maxResults\":100}";
+        } else {
+            StringBuilder tasks = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                tasks.append(i == 0 ? "" : ",").append('"').append(AmazonEcsFixtures.taskArn(i)).append('"');
+            }
+            body = "{\"cluster\":\"default\",\"tasks\":["+tasks+"]}";
+        }
+        datetime = "20261016T120000Z";
+    }
+
+    @Benchmark
+    public String authorization() throws BridgeError {
+        return target.authorization("DescribeTasks", body, datetime);
+    }
+
+    @Benchmark
+    public byte[] signatureKey() throws BridgeError {
+        return signer.getSignatureKey(datetime.substring(0, 8), AmazonEcsFixtures.REGION, "ecs");
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeUtils;
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Sorting described tasks - BridgeUtils.sortRecords (what the adapter used to call), the compiled
+ * record sorter, and the sorter's top-K path for the first page of results. Each invocation sorts
+ * a fresh copy of the records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int tasks;
+
+    @Param({"<%=field[\"lastStatus\"]%>:ASC,<%=field[\"createdAt\"]%>:DESC", "<%=field[\"taskArn\"]%>:ASC"})
+    public String order;
+
+    private List<Record> records;
+    private Map<String,String> parsedOrder;
+
+    @Setup
+    public void setup() {
+        records = new AmazonEcsFixtures().taskRecords(tasks);
+        parsedOrder = BridgeUtils.parseOrder(order);
+    }
+
+    @Benchmark
+    public List<Record> bridgeUtilsSort() {
+        return BridgeUtils.sortRecords(parsedOrder, new ArrayList<Record>(records));
+    }
+
+    @Benchmark
+    public List<Record> sorterSort() {
+        return AmazonEcsRecordSorter.compile(parsedOrder).sort(new ArrayList<Record>(records));
+    }
+
+    @Benchmark
+    public List<Record> sorterFirstPage() {
+        return AmazonEcsRecordSorter.compile(parsedOrder).page(new ArrayList<Record>(records), 0, 25);
+    }
+
+}
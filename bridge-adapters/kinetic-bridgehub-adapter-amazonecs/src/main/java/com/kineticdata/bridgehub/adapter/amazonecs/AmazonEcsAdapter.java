@@ -11,39 +11,37 @@ import com.kineticdata.bridgehub.adapter.amazonec2.v2.AmazonEC2Adapter;
 import com.kineticdata.commons.v1.config.ConfigurableProperty;
 import com.kineticdata.commons.v1.config.ConfigurablePropertyMap;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.Date;
 import java.util.Map;
-import java.util.TimeZone;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.digest.*;
-import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.builder.CompareToBuilder;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -81,26 +79,133 @@ public class AmazonEcsAdapter implements BridgeAdapter {
         public static final String ACCESS_KEY = "Access Key";
         public static final String SECRET_KEY = "Secret Key";
         public static final String REGION = "Region";
+        public static final String ENDPOINT = "Endpoint";
         public static final String API_VERSION = "API Version";
+        public static final String CONNECT_TIMEOUT = "Connect Timeout (ms)";
+        public static final String SOCKET_TIMEOUT = "Socket Timeout (ms)";
+        public static final String MAX_CONNECTIONS = "Max Connections";
+        public static final String MAX_QUEUED_REQUESTS = "Max Queued Requests";
+        public static final String RESPONSE_THREADS = "Response Threads";
+        public static final String DESCRIBE_CONCURRENCY = "Describe Concurrency";
+        public static final String DESCRIBE_CACHE_SIZE = "Describe Cache Size";
+        public static final String DESCRIBE_CACHE_MEMORY = "Describe Cache Memory (MB)";
+        public static final String DESCRIBE_CACHE_TTL = "Describe Cache TTL (seconds)";
+        public static final String LIST_CACHE_TTL = "List Cache TTL (ms)";
+        public static final String DEFAULT_SORT = "Default Sort";
+        public static final String MIRROR_MODE = "Mirror Mode";
+        public static final String MIRROR_CLUSTERS = "Mirror Clusters";
+        public static final String MIRROR_REFRESH_INTERVAL = "Mirror Refresh Interval (seconds)";
+        public static final String MIRROR_FULL_REFRESH_CYCLES = "Mirror Full Refresh Cycles";
+        public static final String INDEXED_TASK_FIELDS = "Indexed Task Fields";
+        public static final String INDEXED_CONTAINER_INSTANCE_FIELDS = "Indexed Container Instance Fields";
+        public static final String RATE_LIMIT = "Rate Limit (requests per second)";
+        public static final String RATE_LIMIT_BURST = "Rate Limit Burst";
+        public static final String MAX_RETRIES = "Max Retries";
+        public static final String RETRY_DEADLINE = "Retry Deadline (ms)";
+        public static final String CLUSTER_FAN_OUT = "Cluster Fan Out";
+        public static final String FAN_OUT_CLUSTERS = "Fan Out Clusters";
+        public static final String FAN_OUT_CONCURRENCY = "Fan Out Concurrency";
     }
 
     private final ConfigurablePropertyMap properties = new ConfigurablePropertyMap(
         new ConfigurableProperty(Properties.ACCESS_KEY).setIsRequired(true),
         new ConfigurableProperty(Properties.SECRET_KEY).setIsRequired(true).setIsSensitive(true),
-        new ConfigurableProperty(Properties.REGION).setIsRequired(true)
+        new ConfigurableProperty(Properties.REGION).setIsRequired(true),
+        new ConfigurableProperty(Properties.ENDPOINT),
+        new ConfigurableProperty(Properties.CONNECT_TIMEOUT).setValue(String.valueOf(AmazonEcsHttpTransport.DEFAULT_CONNECT_TIMEOUT)),
+        new ConfigurableProperty(Properties.SOCKET_TIMEOUT).setValue(String.valueOf(AmazonEcsHttpTransport.DEFAULT_SOCKET_TIMEOUT)),
+        new ConfigurableProperty(Properties.MAX_CONNECTIONS).setValue(String.valueOf(AmazonEcsHttpTransport.DEFAULT_MAX_CONNECTIONS)),
+        new ConfigurableProperty(Properties.MAX_QUEUED_REQUESTS).setValue(String.valueOf(AmazonEcsHttpTransport.DEFAULT_MAX_QUEUED_REQUESTS)),
+        new ConfigurableProperty(Properties.RESPONSE_THREADS).setValue(String.valueOf(AmazonEcsWorkerPool.DEFAULT_RESPONSE_THREADS)),
+        new ConfigurableProperty(Properties.DESCRIBE_CONCURRENCY).setValue(String.valueOf(AmazonEcsWorkerPool.DEFAULT_CONCURRENCY)),
+        new ConfigurableProperty(Properties.DESCRIBE_CACHE_SIZE).setValue(String.valueOf(AmazonEcsDescribeCache.DEFAULT_MAX_ENTRIES)),
+        new ConfigurableProperty(Properties.DESCRIBE_CACHE_MEMORY).setValue(String.valueOf(AmazonEcsDescribeCache.DEFAULT_MAX_MEGABYTES)),
+        new ConfigurableProperty(Properties.DESCRIBE_CACHE_TTL).setValue(String.valueOf(AmazonEcsDescribeCache.DEFAULT_TTL_SECONDS)),
+        new ConfigurableProperty(Properties.LIST_CACHE_TTL).setValue(String.valueOf(AmazonEcsRequestCoalescer.DEFAULT_TTL_MILLIS)),
+        new ConfigurableProperty(Properties.DEFAULT_SORT).setValue("true"),
+        new ConfigurableProperty(Properties.MIRROR_MODE).setValue("false"),
+        new ConfigurableProperty(Properties.MIRROR_CLUSTERS),
+        new ConfigurableProperty(Properties.MIRROR_REFRESH_INTERVAL).setValue(String.valueOf(AmazonEcsMirror.DEFAULT_REFRESH_INTERVAL_SECONDS)),
+        new ConfigurableProperty(Properties.MIRROR_FULL_REFRESH_CYCLES).setValue(String.valueOf(AmazonEcsMirror.DEFAULT_FULL_REFRESH_CYCLES)),
+        new ConfigurableProperty(Properties.INDEXED_TASK_FIELDS).setValue(AmazonEcsRecordStore.DEFAULT_INDEXED_TASK_FIELDS),
+        new ConfigurableProperty(Properties.INDEXED_CONTAINER_INSTANCE_FIELDS).setValue(AmazonEcsRecordStore.DEFAULT_INDEXED_CONTAINER_INSTANCE_FIELDS),
+        new ConfigurableProperty(Properties.RATE_LIMIT).setValue(String.valueOf(AmazonEcsRateLimiter.DEFAULT_RATE)),
+        new ConfigurableProperty(Properties.RATE_LIMIT_BURST).setValue(String.valueOf(AmazonEcsRateLimiter.DEFAULT_BURST)),
+        new ConfigurableProperty(Properties.MAX_RETRIES).setValue(String.valueOf(AmazonEcsRateLimiter.DEFAULT_MAX_RETRIES)),
+        new ConfigurableProperty(Properties.RETRY_DEADLINE).setValue(String.valueOf(AmazonEcsRateLimiter.DEFAULT_RETRY_DEADLINE_MILLIS)),
+        new ConfigurableProperty(Properties.CLUSTER_FAN_OUT).setValue("false"),
+        new ConfigurableProperty(Properties.FAN_OUT_CLUSTERS),
+        new ConfigurableProperty(Properties.FAN_OUT_CONCURRENCY).setValue(String.valueOf(AmazonEcsWorkerPool.DEFAULT_CONCURRENCY))
     );
 
-    private String accessKey;
-    private String secretKey;
-    private String region;
-    private AmazonEC2Adapter ec2Adapter = null;
+    // One adapter instance serves every bridge request, so the state that initialize sets is
+    // volatile (a re-initialized adapter is seen by the threads already serving requests) and is
+    // never modified after it is set. Nothing about a single request is kept on the adapter.
+    private volatile String accessKey;
+    private volatile String secretKey;
+    private volatile String region;
+    private volatile String endpoint;
+    private volatile AmazonEcsHttpTransport transport;
+    private volatile AmazonEcsSigner.JsonTarget ecsTarget;
+    private volatile AmazonEcsWorkerPool workerPool;
+    /** The most Describe calls that a single describe step has in flight at once */
+    private volatile int describeConcurrency;
+    private volatile AmazonEcsDescribeCache describeCache;
+    private volatile AmazonEcsRateLimiter rateLimiter;
+    private final AmazonEcsMetrics metrics = new AmazonEcsMetrics();
+    private ObjectName metricsName;
+    private final AmazonEcsQueryPlan.Cache queryPlans = new AmazonEcsQueryPlan.Cache(AmazonEcsQueryPlan.Cache.DEFAULT_MAX_ENTRIES);
+    private final AmazonEcsRequestCoalescer<JSONObject> requestCoalescer = new AmazonEcsRequestCoalescer<JSONObject>();
+    private volatile long listCacheTtl;
+    private volatile boolean defaultSort;
+    private volatile boolean clusterFanOut;
+    private volatile List<String> fanOutClusters;
+    /** The most clusters that a fanned out search or count searches at once */
+    private volatile int fanOutConcurrency;
+    private volatile AmazonEcsMirror mirror;
+    private volatile AmazonEC2Adapter ec2Adapter = null;
+
+    /** The x-amz-target prefix for the ECS JSON API actions */
+    private static final String ECS_TARGET_PREFIX = "AmazonEC2ContainerServiceV20141113";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The structures that are listed within a cluster (and can be fanned out over every cluster) */
+    private static final List<String> CLUSTERED_STRUCTURES =
+        Collections.unmodifiableList(Arrays.asList("ContainerInstances", "Tasks"));
+
+    /** The cluster value that fans a query out over every cluster */
+    private static final String ALL_CLUSTERS = "*";
+
+    /** The page size used when counting (the most Arns ECS returns from a List call) */
+    private static final String LIST_COUNT_PAGE_SIZE = "100";
+
+    /**
+     * The most Arns that ECS accepts in a single Describe call for each structure (task definitions
+     * can only be described one at a time).
+     */
+    private static final Map<String,Integer> DESCRIBE_LIMITS = Collections.unmodifiableMap(new HashMap<String,Integer>() {{
+        put("Clusters", 100);
+        put("ContainerInstances", 100);
+        put("Tasks", 100);
+        put("TaskDefinitions", 1);
+    }});
+
+    /**
+     * The field that holds the tags of the described objects. ECS only returns the tags when they
+     * are included in the Describe call, so they are only asked for when the field is needed.
+     */
+    private static final String TAGS_FIELD = "tags";
+    private static final List<String> TAGS_INCLUDE = Collections.unmodifiableList(Arrays.asList("TAGS"));
+
+    /** The most instance ids that are passed to the EC2 adapter in a single search */
+    private static final int EC2_DESCRIBE_LIMIT = 100;
 
     /**
      * Structures that are valid to use in the bridge
      */
-    public static final List<String> VALID_STRUCTURES = Arrays.asList(new String[] {
+    public static final List<String> VALID_STRUCTURES = Collections.unmodifiableList(Arrays.asList(new String[] {
         "Clusters","ContainerInstances","Tasks","TaskDefinitions"
-    });
+    }));
 
     /*---------------------------------------------------------------------------------------------
      * SETUP METHODS
@@ -111,6 +216,125 @@ public class AmazonEcsAdapter implements BridgeAdapter {
         this.accessKey = properties.getValue(Properties.ACCESS_KEY);
         this.secretKey = properties.getValue(Properties.SECRET_KEY);
         this.region = properties.getValue(Properties.REGION);
+        // The endpoint can be overridden (for example to point the adapter at a VPC endpoint or a
+        // local stand-in server), in which case the host (and port) that is signed is taken from it
+        String endpointOverride = properties.getValue(Properties.ENDPOINT);
+        this.endpoint = endpointOverride == null || endpointOverride.trim().length() == 0
+            ? "https://ecs."+this.region+".amazonaws.com"
+            : endpointOverride.trim();
+        URI endpointUri;
+        try {
+            endpointUri = new URI(this.endpoint);
+        } catch (URISyntaxException e) {
+            throw new BridgeError("The '"+Properties.ENDPOINT+"' property is not a valid URL: "+this.endpoint, e);
+        }
+        if (endpointUri.getHost() == null) {
+            throw new BridgeError("The '"+Properties.ENDPOINT+"' property is not a valid URL: "+this.endpoint);
+        }
+        String endpointHost = endpointUri.getPort() == -1
+            ? endpointUri.getHost()
+            : endpointUri.getHost()+":"+endpointUri.getPort();
+        String endpointPath = endpointUri.getRawPath() == null || endpointUri.getRawPath().length() == 0
+            ? "/"
+            : endpointUri.getRawPath();
+        this.ecsTarget = new AmazonEcsSigner.JsonTarget(
+            new AmazonEcsSigner(this.accessKey, this.secretKey),
+            endpointHost, endpointPath, ECS_TARGET_PREFIX, this.region, "ecs"
+        );
+
+        // Replace (and release) the transport if the adapter is being re-initialized
+        AmazonEcsHttpTransport previousTransport = this.transport;
+        this.transport = new AmazonEcsHttpTransport(
+            integerProperty(Properties.CONNECT_TIMEOUT, AmazonEcsHttpTransport.DEFAULT_CONNECT_TIMEOUT),
+            integerProperty(Properties.SOCKET_TIMEOUT, AmazonEcsHttpTransport.DEFAULT_SOCKET_TIMEOUT),
+            integerProperty(Properties.MAX_CONNECTIONS, AmazonEcsHttpTransport.DEFAULT_MAX_CONNECTIONS),
+            integerProperty(Properties.MAX_QUEUED_REQUESTS, AmazonEcsHttpTransport.DEFAULT_MAX_QUEUED_REQUESTS)
+        );
+        if (previousTransport != null) previousTransport.close();
+
+        // Replace (and stop) the threads that the ECS responses are handled on
+        int responseThreads = integerProperty(Properties.RESPONSE_THREADS, AmazonEcsWorkerPool.DEFAULT_RESPONSE_THREADS);
+        if (responseThreads < 1) {
+            throw new BridgeError("The '"+Properties.RESPONSE_THREADS+"' property must be at least 1.");
+        }
+        int describeConcurrency = integerProperty(Properties.DESCRIBE_CONCURRENCY, AmazonEcsWorkerPool.DEFAULT_CONCURRENCY);
+        if (describeConcurrency < 1) {
+            throw new BridgeError("The '"+Properties.DESCRIBE_CONCURRENCY+"' property must be at least 1.");
+        }
+        this.describeConcurrency = describeConcurrency;
+        AmazonEcsWorkerPool previousWorkerPool = this.workerPool;
+        this.workerPool = new AmazonEcsWorkerPool("AmazonEcsAdapter", responseThreads);
+        if (previousWorkerPool != null) previousWorkerPool.shutdown();
+
+        this.describeCache = new AmazonEcsDescribeCache(
+            integerProperty(Properties.DESCRIBE_CACHE_SIZE, AmazonEcsDescribeCache.DEFAULT_MAX_ENTRIES),
+            integerProperty(Properties.DESCRIBE_CACHE_MEMORY, AmazonEcsDescribeCache.DEFAULT_MAX_MEGABYTES),
+            integerProperty(Properties.DESCRIBE_CACHE_TTL, AmazonEcsDescribeCache.DEFAULT_TTL_SECONDS)
+        );
+        this.listCacheTtl = integerProperty(Properties.LIST_CACHE_TTL, AmazonEcsRequestCoalescer.DEFAULT_TTL_MILLIS);
+        this.requestCoalescer.clear();
+        // The EC2 adapter is re-created (with the new properties) the next time it is needed
+        synchronized (this) {
+            this.ec2Adapter = null;
+        }
+        this.defaultSort = booleanProperty(Properties.DEFAULT_SORT, true);
+        this.clusterFanOut = booleanProperty(Properties.CLUSTER_FAN_OUT, false);
+        this.fanOutClusters = listProperty(Properties.FAN_OUT_CLUSTERS, "");
+        int fanOutConcurrency = integerProperty(Properties.FAN_OUT_CONCURRENCY, AmazonEcsWorkerPool.DEFAULT_CONCURRENCY);
+        if (fanOutConcurrency < 1) {
+            throw new BridgeError("The '"+Properties.FAN_OUT_CONCURRENCY+"' property must be at least 1.");
+        }
+        this.fanOutConcurrency = fanOutConcurrency;
+        this.rateLimiter = new AmazonEcsRateLimiter(
+            integerProperty(Properties.RATE_LIMIT, AmazonEcsRateLimiter.DEFAULT_RATE),
+            integerProperty(Properties.RATE_LIMIT_BURST, AmazonEcsRateLimiter.DEFAULT_BURST),
+            integerProperty(Properties.MAX_RETRIES, AmazonEcsRateLimiter.DEFAULT_MAX_RETRIES),
+            integerProperty(Properties.RETRY_DEADLINE, AmazonEcsRateLimiter.DEFAULT_RETRY_DEADLINE_MILLIS)
+        );
+
+        // Replace (and stop) the background mirror if mirror mode is turned on
+        AmazonEcsMirror previousMirror = this.mirror;
+        this.mirror = null;
+        if (previousMirror != null) previousMirror.stop();
+        if (booleanProperty(Properties.MIRROR_MODE, false)) {
+            int refreshInterval = integerProperty(Properties.MIRROR_REFRESH_INTERVAL, AmazonEcsMirror.DEFAULT_REFRESH_INTERVAL_SECONDS);
+            if (refreshInterval < 1) {
+                throw new BridgeError("The '"+Properties.MIRROR_REFRESH_INTERVAL+"' property must be at least 1.");
+            }
+            this.mirror = new AmazonEcsMirror(mirrorSource(), listProperty(Properties.MIRROR_CLUSTERS, ""),
+                listProperty(Properties.INDEXED_TASK_FIELDS, AmazonEcsRecordStore.DEFAULT_INDEXED_TASK_FIELDS),
+                listProperty(Properties.INDEXED_CONTAINER_INSTANCE_FIELDS, AmazonEcsRecordStore.DEFAULT_INDEXED_CONTAINER_INSTANCE_FIELDS),
+                refreshInterval,
+                integerProperty(Properties.MIRROR_FULL_REFRESH_CYCLES, AmazonEcsMirror.DEFAULT_FULL_REFRESH_CYCLES));
+            this.mirror.start();
+        }
+
+        registerMetrics();
+    }
+
+    /**
+     * Releases the pooled connections and worker threads held by the adapter. The adapter can no
+     * longer be used to make requests until it has been initialized again.
+     */
+    public void destroy() {
+        unregisterMetrics();
+        if (this.mirror != null) {
+            this.mirror.stop();
+        }
+        if (this.workerPool != null) {
+            this.workerPool.shutdown();
+        }
+        if (this.transport != null) {
+            this.transport.close();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the adapter metrics (the same values that are exposed through JMX),
+     * keyed by the metric name and then by the statistic.
+     */
+    public Map<String,Map<String,Number>> getMetrics() {
+        return metrics.snapshot();
     }
 
     @Override
@@ -139,23 +363,102 @@ public class AmazonEcsAdapter implements BridgeAdapter {
 
     @Override
     public Count count(BridgeRequest request) throws BridgeError {
-        String structure = request.getStructure();
+        final String structure = request.getStructure();
 
         if (!VALID_STRUCTURES.contains(request.getStructure())) {
             throw new BridgeError("Invalid Structure: '" + request.getStructure() + "' is not a valid structure");
         }
 
-        AmazonEcsQualificationParser parser = new AmazonEcsQualificationParser();
-        String query = parser.parse(request.getQuery(),request.getParameters());
-
-        // Build the response structure key identifier by lowercase the first letter of the structure
-        String structureKeyIdentifier = structure.substring(0, 1).toLowerCase().concat(structure.substring(1,structure.length()-1));
+        final AmazonEcsQueryPlan.Bound query = queryPlans.bind(structure, request.getQuery(), false,
+            new AmazonEcsQualificationParser(), request.getParameters());
+
+        // Count the clusters concurrently (at most Fan Out Concurrency at once) and add up the counts
+        // if the query is fanned out
+        CompletableFuture<Integer> count;
+        if (isFannedOut(structure, query)) {
+            count = fanOutClustersAsync().thenCompose(clusters -> {
+                List<Supplier<CompletableFuture<Integer>>> clusterCounts = new ArrayList<Supplier<CompletableFuture<Integer>>>();
+                for (final String cluster : clusters) {
+                    clusterCounts.add(() -> countAsync(structure, query.inCluster(cluster)));
+                }
+                return AmazonEcsWorkerPool.bounded(clusterCounts, fanOutConcurrency);
+            }).thenApply(clusterCounts -> {
+                int total = 0;
+                for (Integer clusterCount : clusterCounts) {
+                    total += clusterCount;
+                }
+                return total;
+            });
+        } else {
+            count = countAsync(structure, query);
+        }
+        return new Count(AmazonEcsWorkerPool.await(count));
+    }
 
-        // Make the call to ECS to retrieve the Arns matching the query
-        JSONObject arnsJson = ecsRequest("List"+structure,query);
-        JSONArray structureArns = (JSONArray)arnsJson.get(structureKeyIdentifier.concat("Arns"));
+    /**
+     * Counts the structure with an already bound query plan.
+     */
+    private CompletableFuture<Integer> countAsync(String structure, AmazonEcsQueryPlan.Bound query) {
+        // The query can be counted from the List calls alone if ECS evaluates every part of it,
+        // otherwise each page of Arns needs to be described and filtered (without sorting or
+        // building any of the requested fields) to be counted
+        try {
+            // The mirror doesn't describe the tags, so queries on the tags aren't answered from it
+            AmazonEcsMirror.Snapshot snapshot = mirror == null ? null : mirror.snapshot();
+            AmazonEcsRecordStore.Selection mirrored = snapshot == null || includesTags(projection(structure, Collections.<String>emptyList(), query, null))
+                ? null
+                : mirror.objects(snapshot, structure, query);
+            if (mirrored != null) {
+                // The predicates on indexed fields were already answered by the mirror's indexes
+                if (mirrored.getUnindexedPredicates().isEmpty()) {
+                    return CompletableFuture.completedFuture(mirrored.getObjects().size());
+                }
+                List<Record> records = new ArrayList<Record>(mirrored.getObjects().size());
+                for (Map object : mirrored.getObjects()) {
+                    records.add(new Record(new JSONObject(object)));
+                }
+                return leanCount(records, query, mirrored.getUnindexedPredicates());
+            } else if (query.getArns() != null) {
+                return leanCount(structure, query.getArns(), query);
+            } else {
+                // Make the calls to ECS to count the Arns matching the query (using the largest page
+                // size that ECS allows to keep the number of calls down), only keeping a page of Arns
+                // at a time
+                return countPages(structure, query, listCall(structure, query, null, LIST_COUNT_PAGE_SIZE), 0);
+            }
+        } catch (BridgeError e) {
+            return AmazonEcsWorkerPool.failed(e);
+        }
+    }
 
-        return new Count(structureArns.size());
+    /**
+     * Adds the count of each page of listed Arns to the count so far. The List call for the next
+     * page is started before the Arns from the current page are described.
+     */
+    private CompletableFuture<Integer> countPages(final String structure, final AmazonEcsQueryPlan.Bound query,
+        CompletableFuture<JSONObject> listCall, final int countSoFar
+    ) {
+        return listCall.thenCompose(unchecked(arnsJson -> {
+            String nextPageToken = (String)arnsJson.get("nextToken");
+            CompletableFuture<JSONObject> nextListCall = nextPageToken != null
+                ? listCall(structure, query, nextPageToken, LIST_COUNT_PAGE_SIZE)
+                : null;
+
+            JSONArray structureArnsJson = (JSONArray)arnsJson.get(query.getStructureKeyIdentifier().concat("Arns"));
+            CompletableFuture<Integer> pageCount;
+            if (!query.hasClientSidePredicates() || structureArnsJson.isEmpty()) {
+                pageCount = CompletableFuture.completedFuture(structureArnsJson.size());
+            } else {
+                List<String> structureArns = new ArrayList<String>();
+                for (Object o : structureArnsJson) {
+                    structureArns.add(o.toString());
+                }
+                pageCount = leanCount(structure, structureArns, query);
+            }
+            return pageCount.thenCompose(count -> nextListCall == null
+                ? CompletableFuture.completedFuture(countSoFar + count)
+                : countPages(structure, query, nextListCall, countSoFar + count));
+        }));
     }
 
     @Override
@@ -166,20 +469,11 @@ public class AmazonEcsAdapter implements BridgeAdapter {
             throw new BridgeError("Invalid Structure: '" + request.getStructure() + "' is not a valid structure");
         }
 
-        AmazonEcsQualificationParser parser = new AmazonEcsQualificationParser();
-        String query = parser.parse(request.getQuery(),request.getParameters());
-
-        // Build the response structure key identifier by lowercase the first letter of the structure
-        String structureKeyIdentifier = structure.substring(0, 1).toLowerCase().concat(structure.substring(1,structure.length()-1));
-
-        Matcher arnMatch = Pattern.compile("((?:"+structureKeyIdentifier+")?[Aa]rn=(.*?))(?:&|\\z)").matcher(query);
-        if (arnMatch.find()) {
-            String arn = arnMatch.group(2) == null ? "" : arnMatch.group(2);
-            query = query.replace(arnMatch.group(1),structureKeyIdentifier.concat("Arns=["+arn+"]"));
-        }
-
-        request.setQuery(query);
-        List<Record> records = search(request).getRecords();
+        // A retrieve plan treats a single structure Arn (for example taskArn=...) as a list of Arns
+        // to describe
+        AmazonEcsQueryPlan.Bound query = queryPlans.bind(structure, request.getQuery(), true,
+            new AmazonEcsQualificationParser(), request.getParameters());
+        List<Record> records = AmazonEcsWorkerPool.await(searchAsync(request, query)).getRecords();
 
         Record record;
         if (records.size() > 1) {
@@ -195,162 +489,391 @@ public class AmazonEcsAdapter implements BridgeAdapter {
 
     @Override
     public RecordList search(BridgeRequest request) throws BridgeError {
+        return AmazonEcsWorkerPool.await(searchAsync(request));
+    }
+
+    /**
+     * Starts the search without blocking the calling thread. The returned future completes (on one
+     * of the adapter's worker threads) with the records that search would return, or fails with the
+     * BridgeError that search would throw.
+     *
+     * None of the ECS calls made by the search tie up a thread while they wait on ECS (a response
+     * thread is only held while a response body is being received), so a few threads can serve
+     * many concurrent searches.
+     *
+     * @param request
+     * @return
+     */
+    public CompletableFuture<RecordList> searchAsync(BridgeRequest request) {
         String structure = request.getStructure();
 
         if (!VALID_STRUCTURES.contains(request.getStructure())) {
-            throw new BridgeError("Invalid Structure: '" + request.getStructure() + "' is not a valid structure");
+            return AmazonEcsWorkerPool.failed(
+                new BridgeError("Invalid Structure: '" + request.getStructure() + "' is not a valid structure"));
         }
 
-        AmazonEcsQualificationParser parser = new AmazonEcsQualificationParser();
-        String query = parser.parse(request.getQuery(),request.getParameters());
+        final long started = System.nanoTime();
+        CompletableFuture<RecordList> records;
+        try {
+            AmazonEcsQueryPlan.Bound query = queryPlans.bind(structure, request.getQuery(), false,
+                new AmazonEcsQualificationParser(), request.getParameters());
+            records = isFannedOut(structure, query)
+                ? searchClustersAsync(request, query)
+                : searchAsync(request, query);
+        } catch (BridgeError e) {
+            records = AmazonEcsWorkerPool.failed(e);
+        }
+        return records.whenComplete((result, error) -> metrics.get("search").record(started, error == null));
+    }
 
-        // Initialize the nextPageToken and pageSize variables
-        String nextPageToken = null;
-        String pageSize = request.getMetadata("pageSize") == null ? "0" : request.getMetadata("pageSize");
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
 
-        // Build the response structure key identifier by lowercase the first letter of the structure
-        String structureKeyIdentifier = structure.substring(0, 1).toLowerCase().concat(structure.substring(1,structure.length()-1));
-
-        Matcher arnsMatcher =Pattern.compile(structureKeyIdentifier+"Arns=\\[(.*?)\\]").matcher(query);
-        // Keep the list of each chunk of structureArns that were retrieved (with a max of 100)
-        // so that when the Describe call is done we don't try to describe more Arns that ECS
-        // allows in one call
-        List<List<String>> structureArnChunks = new ArrayList<List<String>>();
-        if (arnsMatcher.find()) {
-            String arns = arnsMatcher.group(1);
-            structureArnChunks.add(Arrays.asList(arns.split(",")));
-        } else {
-            // Make the call to ECS to retrieve the Arns matching the query
-            nextPageToken = request.getMetadata("pageToken");
-            do {
-                if (nextPageToken != null) {
-                    if (!query.isEmpty()) query = query.concat("&");
-                    query = query.concat("nextToken=").concat(nextPageToken);
-                }
-                if (!pageSize.equals("0")) {
-                    if (!query.isEmpty()) query = query.concat("&");
-                    query = query.concat("maxResults=").concat(pageSize);
-                }
+    /**
+     * Returns the sorter for the order of the request (or for every field if the request doesn't
+     * have an order and the default sort is turned on), or null if the records aren't sorted.
+     */
+    private AmazonEcsRecordSorter sorter(BridgeRequest request, List<String> fields) {
+        if (request.getMetadata("order") != null) {
+            // Creates a map out of order metadata
+            return AmazonEcsRecordSorter.compile(BridgeUtils.parseOrder(request.getMetadata("order")));
+        } else if (defaultSort) {
+            // name,type,desc assumes name ASC,type ASC,desc ASC
+            Map<String,String> defaultOrder = new LinkedHashMap<String,String>();
+            for (String field : fields) {
+                defaultOrder.put(field, "ASC");
+            }
+            return AmazonEcsRecordSorter.compile(defaultOrder);
+        }
+        return null;
+    }
 
-                JSONObject arnsJson = ecsRequest("List"+structure,query);
-                nextPageToken = (String)arnsJson.get("nextToken");
+    /**
+     * Returns true if the query is run in every cluster (it is for a clustered structure and either
+     * doesn't name a cluster while Cluster Fan Out is turned on, or names the * cluster).
+     */
+    private boolean isFannedOut(String structure, AmazonEcsQueryPlan.Bound query) {
+        return CLUSTERED_STRUCTURES.contains(structure) && query.getArns() == null
+            && (ALL_CLUSTERS.equals(query.getCluster()) || (clusterFanOut && query.getCluster() == null));
+    }
 
-                // Parse through and retrieve the structure Arns that match the query
-                List<String> structureArns = new ArrayList<String>();
-                JSONArray structureArnsJson = (JSONArray)arnsJson.get(structureKeyIdentifier.concat("Arns"));
-                for (Object o : structureArnsJson) {
-                    structureArns.add(o.toString());
-                }
-                structureArnChunks.add(structureArns);
-            } while (nextPageToken != null && pageSize.equals("0"));
-        }
+    /**
+     * The clusters a fanned out query is run in - the Fan Out Clusters property, or every cluster
+     * that ListClusters returns if it is blank.
+     */
+    private CompletableFuture<List<String>> fanOutClustersAsync() {
+        if (!fanOutClusters.isEmpty()) return CompletableFuture.completedFuture(fanOutClusters);
+        return listClusters(null, new ArrayList<String>());
+    }
 
-        // Retrieve the cluster from the original query to append to the describe query (if it was
-        // originally included)
-        String cluster = null;
-        if (!structure.equals("Clusters") && !structure.equals("TaskDefinitions")) {
-            Matcher m = Pattern.compile("cluster=(.*?)(?:&|\\z)").matcher(query);
-            if (m.find()) cluster = m.group(1);
+    /**
+     * Adds the clusters from the ListClusters page (and each page after it) to the clusters.
+     */
+    private CompletableFuture<List<String>> listClusters(String nextToken, final List<String> clusters) {
+        Map<String,Object> parameters = new HashMap<String,Object>();
+        parameters.put("maxResults", Integer.valueOf(LIST_COUNT_PAGE_SIZE));
+        if (nextToken != null) parameters.put("nextToken", nextToken);
+        return ecsRequestAsync("ListClusters", parameters, null, null).thenCompose(clustersJson -> {
+            for (Object arn : (JSONArray)clustersJson.get("clusterArns")) {
+                clusters.add(arn.toString());
+            }
+            String nextPageToken = (String)clustersJson.get("nextToken");
+            return nextPageToken == null
+                ? CompletableFuture.completedFuture(clusters)
+                : listClusters(nextPageToken, clusters);
+        });
+    }
+
+    /**
+     * Searches every cluster concurrently (at most Fan Out Concurrency at once) and merges the
+     * results into a single list, with each record tagged with the cluster it was found in (the
+     * cluster field).
+     *
+     * The clusters are paged independently: the page size applies to each cluster (so a page holds
+     * up to the page size times the number of clusters searched, which is the pageSize returned,
+     * and clusterPageSize is the page size of each cluster), and the page token holds the page token
+     * of each cluster that has more records, so only those clusters are searched for the next page.
+     * The records of a page are sorted, but the order only holds within the page, since each cluster
+     * resumes from its own position rather than from the last record of the merged page.
+     */
+    private CompletableFuture<RecordList> searchClustersAsync(final BridgeRequest request, final AmazonEcsQueryPlan.Bound query) throws BridgeError {
+        final int clusterPageSize;
+        try {
+            clusterPageSize = request.getMetadata("pageSize") == null ? 0 : Integer.parseInt(request.getMetadata("pageSize"));
+        } catch (NumberFormatException e) {
+            throw new BridgeError("The page size must be an integer (was '"+request.getMetadata("pageSize")+"').");
         }
+        final Map<String,String> pageTokens = request.getMetadata("pageToken") == null
+            ? null
+            : decodeClusterPageToken(request.getMetadata("pageToken"));
+        CompletableFuture<List<String>> clusters = pageTokens == null
+            ? fanOutClustersAsync()
+            : CompletableFuture.completedFuture((List<String>)new ArrayList<String>(pageTokens.keySet()));
+
+        return clusters.thenCompose(unchecked(clusterList -> {
+            List<Supplier<CompletableFuture<RecordList>>> clusterSearches = new ArrayList<Supplier<CompletableFuture<RecordList>>>();
+            for (final String cluster : clusterList) {
+                BridgeRequest clusterRequest = new BridgeRequest();
+                clusterRequest.setStructure(request.getStructure());
+                clusterRequest.setQuery(request.getQuery());
+                clusterRequest.setFields(request.getFields());
+                clusterRequest.setParameters(request.getParameters());
+                Map<String,String> clusterMetadata = request.getMetadata() == null
+                    ? new HashMap<String,String>()
+                    : new HashMap<String,String>(request.getMetadata());
+                clusterMetadata.put("pageToken", pageTokens == null ? null : pageTokens.get(cluster));
+                clusterRequest.setMetadata(clusterMetadata);
+                final AmazonEcsQueryPlan.Bound clusterQuery = query.inCluster(cluster);
+                clusterSearches.add(() -> {
+                    try {
+                        return searchAsync(clusterRequest, clusterQuery);
+                    } catch (BridgeError e) {
+                        return AmazonEcsWorkerPool.failed(e);
+                    }
+                });
+            }
+            return AmazonEcsWorkerPool.bounded(clusterSearches, fanOutConcurrency)
+                .thenApply(clusterResults -> mergeClusterResults(request, clusterList, clusterResults, clusterPageSize));
+        }));
+    }
 
+    /**
+     * Merges the records from each cluster, keeping the page token of each cluster with more.
+     */
+    private RecordList mergeClusterResults(BridgeRequest request, List<String> clusters, List<RecordList> clusterResults,
+        int clusterPageSize
+    ) {
         List<Record> records = new ArrayList<Record>();
-        for (List<String> structureArns : structureArnChunks) {
-            // Make the call to ECS retrieve the record objects for the returned Arns
-            JSONArray structureObjs;
-            if (structure.equals("TaskDefinitions")) {
-                // Make a different call for TaskDefinitions because it's List and Describe calls use
-                // different singular/plural naming defintions unlike the other structures
-                structureObjs = new JSONArray();
-                for (String taskDefinitionArn : structureArns) {
-                    JSONObject describeJson = ecsRequest("Describe"+structure.substring(0,structure.length()-1),"taskDefinition="+taskDefinitionArn);
-                    JSONObject taskDefinition = (JSONObject)describeJson.get("taskDefinition");
-                    structureObjs.add(taskDefinition);
-                }
-            } else {
-                StringBuilder describeQuery = new StringBuilder();
-                describeQuery.append(structureKeyIdentifier).append("s=[").append(StringUtils.join(structureArns,",")).append("]");
-                if (cluster != null) describeQuery.append("&cluster=").append(cluster);
-                JSONObject describeJson = ecsRequest("Describe"+structure,describeQuery.toString());
-                structureObjs = (JSONArray)describeJson.get(structureKeyIdentifier.concat("s"));
+        List<String> fields = request.getFields() == null || request.getFields().isEmpty()
+            ? null
+            : request.getFields();
+        Map<String,String> nextPageTokens = new LinkedHashMap<String,String>();
+        String mirrorStaleness = null;
+        for (int i = 0; i < clusters.size(); i++) {
+            RecordList clusterResult = clusterResults.get(i);
+            for (Record record : clusterResult.getRecords()) {
+                record.getRecord().put("cluster", clusters.get(i));
+                records.add(record);
+            }
+            if (fields == null && !clusterResult.getRecords().isEmpty()) {
+                fields = new ArrayList<String>(clusterResult.getFields());
+                if (!fields.contains("cluster")) fields.add("cluster");
             }
-            // Parse through the response JSON to build record objects
-            for (Object o : structureObjs) {
-                records.add(new Record((Map)o));
+            Map<String,String> clusterMetadata = clusterResult.getMetadata();
+            if (clusterMetadata != null && clusterMetadata.get("nextPageToken") != null) {
+                nextPageTokens.put(clusters.get(i), clusterMetadata.get("nextPageToken"));
+            }
+            if (clusterMetadata != null && clusterMetadata.get("mirrorStaleness") != null
+                && (mirrorStaleness == null || Long.parseLong(clusterMetadata.get("mirrorStaleness")) > Long.parseLong(mirrorStaleness))
+            ) {
+                mirrorStaleness = clusterMetadata.get("mirrorStaleness");
             }
         }
+        if (fields == null) fields = new ArrayList<String>();
 
-        // Get other structure fields add to the record objects if they were included in the
-        // fields list or were included as a field to query by
-        Matcher matchStructureFields = Pattern.compile("(?:\\A|&)([^&]*?\\..*?)=(?:.*?)(?:\\z|&)").matcher(query);
-        List<String> retrievalFields = new ArrayList<String>();
-        while (matchStructureFields.find()) {
-            retrievalFields.add(matchStructureFields.group(1));
-        }
+        // Each cluster's records are already sorted, so sorting the merged list only merges the runs
+        AmazonEcsRecordSorter sorter = sorter(request, fields);
+        if (sorter != null) sorter.sort(records);
+
+        Map<String,String> metadata = new LinkedHashMap<String,String>();
+        metadata.put("size",String.valueOf(records.size()));
+        // Each cluster is paged with the requested page size
+        metadata.put("pageSize",String.valueOf(clusterPageSize * clusters.size()));
+        metadata.put("clusterPageSize",String.valueOf(clusterPageSize));
+        metadata.put("nextPageToken",nextPageTokens.isEmpty() ? null : encodeClusterPageToken(nextPageTokens));
+        metadata.put("clusters",String.valueOf(clusters.size()));
+        if (mirrorStaleness != null) metadata.put("mirrorStaleness",mirrorStaleness);
+        return new RecordList(fields, records, metadata);
+    }
 
-        if ((request.getFields() != null && !request.getFields().isEmpty()) || !retrievalFields.isEmpty()) {
-            if (request.getFields() != null) retrievalFields.addAll(request.getFields());
-            records = addOtherStructureFields(retrievalFields,records,cluster);
+    /**
+     * Encodes the page token of each cluster into a single (URL safe base64 JSON) page token.
+     */
+    static String encodeClusterPageToken(Map<String,String> pageTokens) {
+        return Base64.encodeBase64URLSafeString(JSONValue.toJSONString(pageTokens).getBytes(UTF8));
+    }
+
+    /**
+     * Decodes the page token of each cluster from a page token made by encodeClusterPageToken.
+     */
+    static Map<String,String> decodeClusterPageToken(String pageToken) throws BridgeError {
+        Object decoded = JSONValue.parse(new String(Base64.decodeBase64(pageToken), UTF8));
+        if (!(decoded instanceof Map)) {
+            throw new BridgeError("The page token is not a page token of a search over every cluster (was '"+pageToken+"').");
+        }
+        Map<String,String> pageTokens = new LinkedHashMap<String,String>();
+        for (Object entry : ((Map)decoded).entrySet()) {
+            Map.Entry clusterToken = (Map.Entry)entry;
+            pageTokens.put(clusterToken.getKey().toString(), clusterToken.getValue() == null ? null : clusterToken.getValue().toString());
         }
+        return pageTokens;
+    }
 
-        // Define the fields - if not fields were passed, set they keySet of the a returned objects as
-        // the field set
-        List<String> fields = request.getFields();
-        Map<String,String> aliasedFields = new HashMap<String,String>();
-        if ((fields == null || fields.isEmpty()) && !records.isEmpty()) {
-            fields = new ArrayList<String>(records.get(0).getRecord().keySet());
-        } else {
-            for (String field : fields) {
-                String aliasedField = aliasedField(field);
-                if (!field.equals(aliasedField)) aliasedFields.put(field,aliasedField);
+    /**
+     * Searches the structure with an already bound query plan.
+     */
+    private CompletableFuture<RecordList> searchAsync(final BridgeRequest request, final AmazonEcsQueryPlan.Bound query) throws BridgeError {
+        String structure = request.getStructure();
+        String arnField = query.getStructureKeyIdentifier().concat("Arn");
+
+        // Initialize the pageSize variable
+        String pageSize = request.getMetadata("pageSize") == null ? "0" : request.getMetadata("pageSize");
+
+        // Only build the fields of the described objects that the request needs (every field is
+        // needed if the request doesn't specify the fields to return)
+        Set<String> projection = request.getFields() == null || request.getFields().isEmpty()
+            ? null
+            : projection(structure, request.getFields(), query, request.getMetadata("order"));
+
+        // Answer the query from the mirror if possible (the mirrored objects are shared, so each one
+        // is copied before the record is built up). Searches answered from the mirror are paged
+        // here, with the offset of the next page as the page token. The mirror doesn't describe the
+        // tags, so requests for the tags aren't answered from it.
+        final AmazonEcsMirror.Snapshot snapshot = mirror == null ? null : mirror.snapshot();
+        final AmazonEcsRecordStore.Selection mirrored = snapshot == null || !isOffsetToken(request.getMetadata("pageToken")) || includesTags(projection)
+            ? null
+            : mirror.objects(snapshot, structure, query);
+
+        CompletableFuture<SearchPage> described;
+        if (mirrored != null) {
+            List<Record> records = new ArrayList<Record>();
+            for (Map object : mirrored.getObjects()) {
+                records.add(new Record(new JSONObject(object)));
+            }
+            described = CompletableFuture.completedFuture(new SearchPage(records, null, false));
+        } else if (query.getArns() != null && isHydratedLazily(request, query, pageSize)) {
+            // Nothing is checked client side and the records are sorted by nothing but the Arn, so
+            // the page is picked from the Arns (as they were given) and only the Arns on the page
+            // are described
+            int limit = pageNumber("page size", pageSize);
+            int offset = request.getMetadata("pageToken") == null ? 0 : pageNumber("page token", request.getMetadata("pageToken"));
+            List<Record> arnRecords = arnRecords(arnField, new LinkedHashSet<String>(query.getArns()));
+            int total = arnRecords.size();
+            List<String> pageArns = new ArrayList<String>();
+            for (Record record : page(arnRecords, sorter(request, request.getFields()), offset, limit)) {
+                pageArns.add((String)record.getValue(arnField));
             }
+            final String nextPageToken = offset + limit < total ? String.valueOf(offset + limit) : null;
+            described = describeAsync(structure, pageArns, query.getCluster(), projection)
+                .thenApply(objects -> new SearchPage(records(objects), nextPageToken, true));
+        } else if (query.getArns() != null) {
+            described = describeAsync(structure, query.getArns(), query.getCluster(), projection)
+                .thenApply(objects -> new SearchPage(records(objects), null, false));
+        } else {
+            // Make the calls to ECS to retrieve the Arns matching the query. If the Arns are all
+            // that the request needs, they aren't described at all.
+            described = listPages(structure, query,
+                listCall(structure, query, request.getMetadata("pageToken"), pageSize), pageSize,
+                projection, isAnsweredByArns(request, query, arnField), new ArrayList<Record>());
         }
 
-        for (String field : fields) {
-            String aliasedField = aliasedFields.containsKey(field) ? aliasedFields.get(field) : field;
-            if (field.matches(NESTED_PATTERN.pattern())) {
-                // Parse the base field and subfields from the field string
-                String base = aliasedField.substring(0,aliasedField.indexOf("["));
-                Matcher matcher = NESTED_PATTERN.matcher(aliasedField);
-                List<String> subfields = new ArrayList<String>();
-                while (matcher.find()) {
-                    subfields.add(matcher.group(1));
-                }
+        return described.thenCompose(unchecked(page -> {
+            // Get other structure fields add to the record objects if they were included in the
+            // fields list or were included as a field to query by
+            List<String> retrievalFields = new ArrayList<String>(query.getStructureFields());
 
-                // Make a copy of the record to step through and put the value of the base field
-                // in the "valuesToCheck" list
-                for (Record record : records) {
-                    List valuesToCheck = new ArrayList();
-                    valuesToCheck.add(record.getValue(base));
-                    for (String subfield : subfields) {
-                        valuesToCheck = getSubfieldValues(subfield, valuesToCheck);
-                    }
+            CompletableFuture<List<Record>> joined;
+            if ((request.getFields() != null && !request.getFields().isEmpty()) || !retrievalFields.isEmpty()) {
+                if (request.getFields() != null) retrievalFields.addAll(request.getFields());
+                joined = addOtherStructureFieldsAsync(retrievalFields, page.records, query.getCluster());
+            } else {
+                joined = CompletableFuture.completedFuture(page.records);
+            }
+            return joined.thenApply(unchecked(records -> finishSearch(request, query, records, page, mirrored, snapshot)));
+        }));
+    }
 
-                    // Remove any null values are are currently in valuesToCheck
-                    valuesToCheck.removeAll(Collections.singleton(null));
-                    if (valuesToCheck.size() > 1) {
-                        record.getRecord().put(field,valuesToCheck);
-                    } else if (valuesToCheck.size() == 1) {
-                        record.getRecord().put(field,valuesToCheck.get(0));
-                    } else {
-                        record.getRecord().put(field,null);
-                    }
-                }
+    /**
+     * Adds the described objects (or the Arns) of each page of listed Arns to the records. The List
+     * call for the next page is started before the Arns from the current page are described, so
+     * that the List and Describe calls for consecutive pages overlap.
+     */
+    private CompletableFuture<SearchPage> listPages(final String structure, final AmazonEcsQueryPlan.Bound query,
+        CompletableFuture<JSONObject> listCall, final String pageSize, final Set<String> projection,
+        final boolean answeredByArns, final List<Record> records
+    ) {
+        return listCall.thenCompose(unchecked(arnsJson -> {
+            final String nextPageToken = (String)arnsJson.get("nextToken");
+            final CompletableFuture<JSONObject> nextListCall = nextPageToken != null && pageSize.equals("0")
+                ? listCall(structure, query, nextPageToken, pageSize)
+                : null;
+
+            // Parse through and retrieve the structure Arns that match the query
+            List<String> structureArns = new ArrayList<String>();
+            JSONArray structureArnsJson = (JSONArray)arnsJson.get(query.getStructureKeyIdentifier().concat("Arns"));
+            for (Object o : structureArnsJson) {
+                structureArns.add(o.toString());
             }
+            CompletableFuture<List<Record>> pageRecords = answeredByArns
+                ? CompletableFuture.completedFuture(arnRecords(query.getStructureKeyIdentifier().concat("Arn"), structureArns))
+                : describeAsync(structure, structureArns, query.getCluster(), projection).thenApply(objects -> records(objects));
+            return pageRecords.thenCompose(described -> {
+                records.addAll(described);
+                return nextListCall == null
+                    ? CompletableFuture.completedFuture(new SearchPage(records, nextPageToken, false))
+                    : listPages(structure, query, nextListCall, pageSize, projection, answeredByArns, records);
+            });
+        }));
+    }
+
+    /**
+     * Projects the retrieved (and joined) records into a record table (with the values of the
+     * nested fields), filters, sorts and pages them and builds the search result.
+     */
+    private RecordList finishSearch(BridgeRequest request, AmazonEcsQueryPlan.Bound query, List<Record> records,
+        SearchPage page, AmazonEcsRecordStore.Selection mirrored, AmazonEcsMirror.Snapshot snapshot
+    ) throws BridgeError {
+        String nextPageToken = page.nextPageToken;
+        String pageSize = request.getMetadata("pageSize") == null ? "0" : request.getMetadata("pageSize");
+        // An explicit list of Arns and the records answered from the mirror aren't paged by ECS, so
+        // the adapter pages them itself when a page size is given, with the offset of the next page
+        // as the page token
+        boolean pagedLocally = mirrored != null || query.getArns() != null;
+
+        List<AmazonEcsQueryPlan.Predicate> predicates = mirrored != null
+            ? mirrored.getUnindexedPredicates()
+            : query.getLocalPredicates();
+
+        // Define the fields - if not fields were passed, set they keySet of the a returned objects as
+        // the field set
+        List<String> fields = request.getFields();
+        AmazonEcsRecordSorter sorter;
+        if (fields == null || fields.isEmpty()) {
+            fields = records.isEmpty()
+                ? new ArrayList<String>()
+                : new ArrayList<String>(records.get(0).getRecord().keySet());
+            sorter = sorter(request, fields);
+        } else {
+            // Project the records into a record table, with the values of the nested fields (for
+            // example containers[name]) and only the other fields that are read from here on
+            sorter = sorter(request, fields);
+            records = AmazonEcsRecordTable.project(records, tableFields(fields, predicates, sorter));
         }
 
         // Filter and sort the records
-        records = filterRecords(records,query);
-        if (request.getMetadata("order") == null) {
-            // name,type,desc assumes name ASC,type ASC,desc ASC
-            Map<String,String> defaultOrder = new LinkedHashMap<String,String>();
-            for (String field : fields) {
-                defaultOrder.put(field, "ASC");
-            }
-            records = BridgeUtils.sortRecords(defaultOrder, records);
-        } else {
-            // Creates a map out of order metadata
-            Map<String,String> orderParse = BridgeUtils.parseOrder(request.getMetadata("order"));
-            records = BridgeUtils.sortRecords(orderParse, records);
+        long filterStarted = System.nanoTime();
+        records = AmazonEcsRecordFilter.filter(records, predicates);
+        metrics.get("filter").record(filterStarted, true);
+
+        long sortStarted = System.nanoTime();
+        if (page.paged) {
+            // The page was already picked (and sorted) before the records were described
+        } else if (pagedLocally && !pageSize.equals("0")) {
+            // ECS doesn't page Describe calls, so an explicit list of Arns (or the mirrored records)
+            // is paged here (the page token is the offset of the next page) and only the records up
+            // to the end of the page are sorted
+            int limit = pageNumber("page size", pageSize);
+            int offset = request.getMetadata("pageToken") == null ? 0 : pageNumber("page token", request.getMetadata("pageToken"));
+            int total = records.size();
+            records = page(records, sorter, offset, limit);
+            if (offset + limit < total) nextPageToken = String.valueOf(offset + limit);
+        } else if (sorter != null) {
+            records = sorter.sort(records);
+        }
+        // Only the searches that actually sorted the records here are timed
+        if (sorter != null && !page.paged) {
+            metrics.get("sort").record(sortStarted, true);
         }
 
         // Define the metadata
@@ -358,255 +881,835 @@ public class AmazonEcsAdapter implements BridgeAdapter {
         metadata.put("size",String.valueOf(records.size()));
         metadata.put("pageSize",pageSize);
         metadata.put("nextPageToken",nextPageToken);
+        if (mirrored != null) {
+            // How old the mirrored records could be, in milliseconds
+            metadata.put("mirrorStaleness",String.valueOf(snapshot.getStaleness()));
+        }
 
         // Returning the response
         return new RecordList(fields, records, metadata);
     }
 
-    /*----------------------------------------------------------------------------------------------
-     * HELPER METHODS
-     *--------------------------------------------------------------------------------------------*/
+    /**
+     * The fields that the record table of a search holds: the requested fields, the fields that the
+     * predicates are checked against (the top level field that a nested predicate starts from, unless
+     * the nested field was requested), the top level fields that the records are sorted by (nested
+     * fields that weren't requested aren't in the table, so they sort as null) and the
+     * cluster that a search over every cluster adds to each record.
+     */
+    private static Set<String> tableFields(List<String> fields, List<AmazonEcsQueryPlan.Predicate> predicates,
+        AmazonEcsRecordSorter sorter
+    ) {
+        Set<String> tableFields = new LinkedHashSet<String>(fields);
+        for (AmazonEcsQueryPlan.Predicate predicate : predicates) {
+            AmazonEcsFieldPath path = predicate.getPath();
+            if (!path.isNested()) {
+                tableFields.add(predicate.getField());
+            } else if (!fields.contains(predicate.getField())) {
+                tableFields.add(path.getBase());
+            }
+        }
+        if (sorter != null) {
+            for (String field : sorter.getFields()) {
+                if (!AmazonEcsFieldPath.compile(field).isNested()) tableFields.add(field);
+            }
+        }
+        tableFields.add("cluster");
+        return tableFields;
+    }
 
-    private JSONObject ecsRequest(String action, String query) throws BridgeError {
-        // Build up the request query into a JSON object
-        Map<String,Object> jsonQuery = new HashMap<String,Object>();
-        if (query != null && !query.isEmpty()) {
-            for (String part : query.split("&")) {
-                String[] keyValue = part.split("=");
-                String key = keyValue[0].trim();
-                String value = keyValue[1].trim();
-                // If the value is surrounded by [ ] it should be turned into a string list
-                if (value.startsWith("[") && value.endsWith("]")) {
-                    jsonQuery.put(key,Arrays.asList(value.substring(1,value.length()-1).split(",")));
-                } else if (key.equals("maxResults")) {
-                    jsonQuery.put(key,Integer.valueOf(value));
-                } else {
-                    jsonQuery.put(key,value);
-                }
+    /**
+     * Wraps each of the described objects in a record.
+     */
+    private static List<Record> records(List<Map> objects) {
+        List<Record> records = new ArrayList<Record>(objects.size());
+        for (Map object : objects) {
+            records.add(new Record(object));
+        }
+        return records;
+    }
+
+    /**
+     * The records retrieved for a search (before they are joined, filtered and sorted), along with
+     * the page token of the next page of ECS results.
+     */
+    private static class SearchPage {
+        private final List<Record> records;
+        private final String nextPageToken;
+        /** True if the records are already the requested page (and don't need to be paged) */
+        private final boolean paged;
+
+        private SearchPage(List<Record> records, String nextPageToken, boolean paged) {
+            this.records = records;
+            this.nextPageToken = nextPageToken;
+            this.paged = paged;
+        }
+    }
+
+    /**
+     * A step of an asynchronous call that can fail with a BridgeError.
+     */
+    private interface Step<T,R> {
+        R apply(T value) throws BridgeError;
+    }
+
+    /**
+     * Wraps the step in a function that fails the future it is applied to with the BridgeError
+     * (wrapped in a CompletionException) instead of throwing it.
+     */
+    private static <T,R> Function<T,R> unchecked(final Step<T,R> step) {
+        return value -> {
+            try {
+                return step.apply(value);
+            } catch (BridgeError e) {
+                throw new CompletionException(e);
             }
+        };
+    }
+
+    /**
+     * Returns the fields of the described objects that need to be built to answer a request: the
+     * base field of each of the requested, queried and ordered fields (for example overrides for
+     * overrides[containerOverrides][environment][x]), the Arns used to retrieve the fields from
+     * other structures (for example taskDefinitionArn for taskDefinition.family) and the Arn of the
+     * structure itself.
+     */
+    private Set<String> projection(String structure, List<String> fields, AmazonEcsQueryPlan.Bound query, String order) throws BridgeError {
+        Set<String> projection = fieldDependencies(fields);
+        projection.add(query.getStructureKeyIdentifier().concat("Arn"));
+        for (String field : query.getQueryFields()) {
+            addProjectedField(projection, field);
+        }
+        if (order != null) {
+            projection.addAll(fieldDependencies(BridgeUtils.parseOrder(order).keySet()));
         }
+        return projection;
+    }
 
-        // The headers that we want to add to the request
-        List<String> headers = new ArrayList<String>();
-        headers.add("Content-Type: application/x-amz-json-1.1");
-        headers.add("x-amz-target: AmazonEC2ContainerServiceV20141113."+action);
+    /**
+     * Returns the fields of the described objects that the fields depend on (the base field of a
+     * nested field, or the id that a field from another structure is joined on).
+     */
+    private Set<String> fieldDependencies(Collection<String> fields) {
+        Set<String> dependencies = new TreeSet<String>();
+        for (String field : fields) {
+            addProjectedField(dependencies, field);
+        }
+        return dependencies;
+    }
 
-        // Make the request using the built up url/headers and bridge properties
-        HttpResponse response = request("POST","https://ecs."+this.region+".amazonaws.com",headers,this.region,"ecs",JSONValue.toJSONString(jsonQuery),this.accessKey,this.secretKey);
-        String output;
+    /**
+     * Returns true if the Arns returned by the List calls are all that the request needs: the
+     * request only asks for (and is only ordered by) the structure Arn, and ECS evaluates the whole
+     * query.
+     */
+    private boolean isAnsweredByArns(BridgeRequest request, AmazonEcsQueryPlan.Bound query, String arnField) {
+        if (request.getFields() == null || request.getFields().isEmpty()) return false;
+        if (!query.getLocalPredicates().isEmpty() || !query.getStructureFields().isEmpty()) return false;
+        Set<String> dependencies = fieldDependencies(request.getFields());
+        if (request.getMetadata("order") != null) {
+            dependencies.addAll(fieldDependencies(BridgeUtils.parseOrder(request.getMetadata("order")).keySet()));
+        }
+        return Collections.singleton(arnField).containsAll(dependencies);
+    }
+
+    /**
+     * Returns true if a page of an explicit list of Arns can be picked before the Arns are
+     * described: the request is paged, nothing is checked client side and the records are only
+     * sorted by the structure Arn (if they are sorted at all).
+     */
+    private boolean isHydratedLazily(BridgeRequest request, AmazonEcsQueryPlan.Bound query, String pageSize) {
+        if (pageSize.equals("0")) return false;
+        if (!query.getLocalPredicates().isEmpty() || !query.getStructureFields().isEmpty()) return false;
+        boolean requestedFields = request.getFields() != null && !request.getFields().isEmpty();
+        // Without an order or requested fields, the default sort is by every described field
+        if (request.getMetadata("order") == null && defaultSort && !requestedFields) return false;
+        AmazonEcsRecordSorter sorter = sorter(request, request.getFields());
+        return sorter == null || Collections.singleton(query.getStructureKeyIdentifier().concat("Arn"))
+            .containsAll(fieldDependencies(sorter.getFields()));
+    }
+
+    /**
+     * Builds a record for each of the Arns, with the Arn as its only field.
+     */
+    private static List<Record> arnRecords(String arnField, Collection<String> arns) {
+        List<Record> records = new ArrayList<Record>(arns.size());
+        for (String arn : arns) {
+            JSONObject object = new JSONObject();
+            object.put(arnField, arn);
+            records.add(new Record(object));
+        }
+        return records;
+    }
+
+    /**
+     * Returns the records from the offset up to the limit, sorting them first if there's a sorter.
+     */
+    private static List<Record> page(List<Record> records, AmazonEcsRecordSorter sorter, int offset, int limit) {
+        if (sorter != null) return sorter.page(records, offset, limit);
+        int total = records.size();
+        return new ArrayList<Record>(records.subList(Math.min(offset, total), Math.min(offset + limit, total)));
+    }
+
+    /**
+     * Returns true if the projection needs the tags (which are only returned by ECS when they are
+     * included in the Describe call).
+     */
+    private static boolean includesTags(Set<String> projection) {
+        return projection != null && projection.contains(TAGS_FIELD);
+    }
+
+    private void addProjectedField(Set<String> projection, String field) {
+        AmazonEcsFieldPath path = AmazonEcsFieldPath.compile(field);
+        String aliasedField = path.getAliasedField();
+        int bracketIndex = aliasedField.indexOf("[");
+        if (AmazonEcsQueryPlan.isStructureField(aliasedField)) {
+            // Fields from other structures need the Arn (or instance id) to join on, and container
+            // instances are described in the cluster of the record
+            String key = aliasedField.substring(0, aliasedField.indexOf("."));
+            projection.add(joinIdField(key));
+            if (key.equals("containerInstance")) projection.add("clusterArn");
+        } else if (path.isNested()) {
+            projection.add(path.getBase());
+        } else if (bracketIndex > -1) {
+            projection.add(aliasedField.substring(0, bracketIndex));
+        } else {
+            projection.add(aliasedField);
+        }
+    }
+
+    /**
+     * Describes the Arns and returns the number of the described records that match the query.
+     * Only the other structure fields that the query filters by are retrieved and the records
+     * aren't sorted.
+     */
+    private CompletableFuture<Integer> leanCount(String structure, List<String> structureArns, final AmazonEcsQueryPlan.Bound query) throws BridgeError {
+        // Only build the fields that the query filters by
+        Set<String> projection = projection(structure, Collections.<String>emptyList(), query, null);
+        return describeAsync(structure, structureArns, query.getCluster(), projection)
+            .thenCompose(objects -> leanCount(records(objects), query, query.getLocalPredicates()));
+    }
+
+    /**
+     * Returns the number of the records that match the predicates (after adding any fields from
+     * other structures that the query filters by).
+     */
+    private CompletableFuture<Integer> leanCount(List<Record> records, AmazonEcsQueryPlan.Bound query, final List<AmazonEcsQueryPlan.Predicate> predicates) {
+        if (records.isEmpty()) return CompletableFuture.completedFuture(0);
+        CompletableFuture<List<Record>> joined = query.getStructureFields().isEmpty()
+            ? CompletableFuture.completedFuture(records)
+            : addOtherStructureFieldsAsync(new ArrayList<String>(query.getStructureFields()), records, query.getCluster());
+        return joined.thenApply(joinedRecords -> AmazonEcsRecordFilter.filter(joinedRecords, predicates).size());
+    }
+
+    /**
+     * Starts the List call for one page of the structure Arns. A query that is listed with more
+     * than one List call (one for each value of a pushed down in-list) lists the calls one after
+     * another as if they were a single List call, and its page token holds the position of the
+     * page in the calls.
+     *
+     * @param structure
+     * @param query The bound query plan
+     * @param pageToken The nextToken returned by the previous page (null for the first page)
+     * @param pageSize The maxResults for the page ("0" to use the ECS default)
+     * @return
+     * @throws BridgeError
+     */
+    private CompletableFuture<JSONObject> listCall(String structure, AmazonEcsQueryPlan.Bound query, String pageToken, String pageSize) throws BridgeError {
+        List<Map<String,Object>> listCalls = query.getListCalls();
+        if (listCalls.size() == 1) return listCall(structure, listCalls.get(0), pageToken, pageSize);
+        int limit;
         try {
-            output = EntityUtils.toString(response.getEntity());
-        } catch (IOException e) { throw new BridgeError(e); }
+            limit = Integer.parseInt(pageSize);
+        } catch (NumberFormatException e) {
+            throw new BridgeError("The page size must be an integer (was '"+pageSize+"').");
+        }
+        Object[] position = pageToken == null ? new Object[] {0, null} : decodeListCallsPageToken(pageToken, listCalls.size());
+        return listCalls(structure, query, (Integer)position[0], (String)position[1], limit, new JSONArray());
+    }
 
-        JSONObject json = (JSONObject)JSONValue.parse(output);
-        if (json.containsKey("__type")) {
-            logger.error(output);
-            StringBuilder errorMessage = new StringBuilder("Error retrieving ECS records (See logs for more details)");
-            errorMessage.append(" -- Type: ").append(json.get("__type").toString());
-            if (json.containsKey("Message")) errorMessage.append(" -- Message: ").append(json.get("Message").toString());
-            throw new BridgeError(errorMessage.toString());
+    /**
+     * Lists the page of Arns starting from the page token of the List call, adding the Arns to the
+     * Arns listed so far. A page that ends with the List call is filled from the next call (if the
+     * page has a size), and the returned nextToken holds the List call and its own page token.
+     */
+    private CompletableFuture<JSONObject> listCalls(final String structure, final AmazonEcsQueryPlan.Bound query,
+        final int call, String callPageToken, final int limit, final JSONArray arns
+    ) throws BridgeError {
+        final String arnsField = query.getStructureKeyIdentifier().concat("Arns");
+        final List<Map<String,Object>> listCalls = query.getListCalls();
+        if (call >= listCalls.size()) {
+            // None of the values can match
+            JSONObject empty = new JSONObject();
+            empty.put(arnsField, arns);
+            return CompletableFuture.completedFuture(empty);
         }
+        String callPageSize = limit == 0 ? "0" : String.valueOf(limit - arns.size());
+        return listCall(structure, listCalls.get(call), callPageToken, callPageSize).thenCompose(unchecked(callJson -> {
+            // The response is shared with identical calls, so its Arns are copied
+            arns.addAll((JSONArray)callJson.get(arnsField));
+            String nextToken = (String)callJson.get("nextToken");
+            boolean lastCall = call + 1 >= listCalls.size();
+            if (nextToken == null && !lastCall && limit > 0 && arns.size() < limit) {
+                return listCalls(structure, query, call + 1, null, limit, arns);
+            }
+            JSONObject page = new JSONObject();
+            page.put(arnsField, arns);
+            if (nextToken != null) {
+                page.put("nextToken", encodeListCallsPageToken(call, nextToken));
+            } else if (!lastCall) {
+                page.put("nextToken", encodeListCallsPageToken(call + 1, null));
+            }
+            return CompletableFuture.completedFuture(page);
+        }));
+    }
 
-        return json;
+    /**
+     * Encodes the List call and its page token into a single (URL safe base64 JSON) page token.
+     */
+    static String encodeListCallsPageToken(int call, String callPageToken) {
+        JSONArray position = new JSONArray();
+        position.add(call);
+        position.add(callPageToken);
+        return Base64.encodeBase64URLSafeString(position.toJSONString().getBytes(UTF8));
     }
 
-    private List<Record> addOtherStructureFields(List<String> fields, List<Record> records, String cluster) throws BridgeError {
-        // Build hash of arns that should be returned from other structures
-        Map<String,Map<String,Object>> complexObjects = new HashMap<String,Map<String,Object>>();
+    /**
+     * Decodes the List call (an Integer) and its page token (a String, null for its first page)
+     * from a page token returned for the query.
+     */
+    static Object[] decodeListCallsPageToken(String pageToken, int calls) throws BridgeError {
+        Object decoded = JSONValue.parse(new String(Base64.decodeBase64(pageToken), UTF8));
+        if (decoded instanceof List && ((List)decoded).size() == 2 && ((List)decoded).get(0) instanceof Number) {
+            List position = (List)decoded;
+            int call = ((Number)position.get(0)).intValue();
+            Object callPageToken = position.get(1);
+            if (call >= 0 && call < calls && (callPageToken == null || callPageToken instanceof String)) {
+                return new Object[] {call, callPageToken};
+            }
+        }
+        throw new BridgeError("The page token is not a page token of this query (was '"+pageToken+"').");
+    }
 
-        // Find any complex fields
-        Map<String,ArrayList<String>> complexFields = new HashMap<String,ArrayList<String>>();
-        Pattern pattern = Pattern.compile("(.*?)\\.(.*?)\\z");
-        for (String field : fields) {
-            Matcher m = pattern.matcher(field);
-            if (m.find()) {
-                if (complexFields.containsKey(m.group(1))) {
-                    complexFields.get(m.group(1)).add(m.group(2));
-                } else {
-                    complexFields.put(m.group(1), new ArrayList(Arrays.asList(m.group(2))));
-                    complexObjects.put(m.group(1),new HashMap<String,Object>());
-                }
+    /**
+     * Starts a single List call with the parameters.
+     */
+    private CompletableFuture<JSONObject> listCall(String structure, Map<String,Object> listParameters, String pageToken, String pageSize) throws BridgeError {
+        Map<String,Object> parameters = new HashMap<String,Object>(listParameters);
+        if (pageToken != null) {
+            parameters.put("nextToken", pageToken);
+        }
+        if (!pageSize.equals("0")) {
+            try {
+                parameters.put("maxResults", Integer.valueOf(pageSize));
+            } catch (NumberFormatException e) {
+                throw new BridgeError("The page size must be an integer (was '"+pageSize+"').");
             }
         }
+        return ecsRequestAsync("List"+structure, parameters, null, null);
+    }
+
+    /**
+     * Describes the structure Arns and waits for the described objects, only using the Describe
+     * cache if cached is true. Only used by the mirror, which refreshes on its own thread.
+     */
+    private List<Map> describe(String structure, List<String> structureArns, String cluster, Set<String> projection, boolean cached) throws BridgeError {
+        return AmazonEcsWorkerPool.await(describeAsync(structure, structureArns, cluster, projection, cached));
+    }
+
+    /**
+     * Describes the structure Arns and returns the described objects (in the same order as the
+     * Arns). Arns that are in the describe cache are served from the cache, and the remaining Arns
+     * are split into chunks of the most Arns that ECS allows in a single Describe call for the
+     * structure and the chunks are described concurrently, with at most Describe Concurrency calls in
+     * flight at once.
+     *
+     * Each of the returned objects is a copy that the caller is free to modify.
+     *
+     * @param structure
+     * @param structureArns
+     * @param cluster The cluster to include in the Describe call (null if there isn't one)
+     * @param projection The fields of the described objects to build (null to build every field)
+     * @return
+     */
+    private CompletableFuture<List<Map>> describeAsync(String structure, List<String> structureArns, String cluster, Set<String> projection) {
+        return describeAsync(structure, structureArns, cluster, projection, true);
+    }
 
-        if (!complexFields.isEmpty()) {
-            // Retrieve the arns for the complex fields that need to be called
-            Set<String> complexKeys = complexFields.keySet();
-            for (Record record :records) {
-                for (String key : complexKeys) {
-                    String arn;
-                    if (key.equals("instance")) {
-                        arn = (String)record.getValue("ec2InstanceId");
+    /**
+     * Describes the structure Arns, only using the Describe cache if cached is true (the described
+     * objects are always added to the cache).
+     */
+    private CompletableFuture<List<Map>> describeAsync(final String structure, List<String> structureArns, final String cluster, final Set<String> projection, boolean cached) {
+        // Build the response structure key identifier by lowercase the first letter of the structure
+        final String structureKeyIdentifier = AmazonEcsQueryPlan.structureKeyIdentifier(structure);
+        final String arnField = structureKeyIdentifier.concat("Arn");
+        final boolean tags = includesTags(projection);
+        final String action = structure.equals("TaskDefinitions")
+            // Make a different call for TaskDefinitions because it's List and Describe calls use
+            // different singular/plural naming defintions unlike the other structures
+            ? "DescribeTaskDefinition"
+            : "Describe"+structure;
+        int describeLimit = DESCRIBE_LIMITS.get(structure);
+
+        // Find the Arns that are cached and the ones that still need to be described
+        final Set<String> requestedArns = new LinkedHashSet<String>(structureArns);
+        final Map<String,Map> describedObjects = new HashMap<String,Map>();
+        List<String> missingArns = new ArrayList<String>();
+        for (String arn : requestedArns) {
+            Map cachedObject = cached ? describeCache.get(structure, arn, projection) : null;
+            if (cachedObject == null) {
+                missingArns.add(arn);
+            } else {
+                describedObjects.put(arn, cachedObject);
+            }
+        }
+
+        // The Describe calls are started as earlier ones complete, with at most Describe Concurrency
+        // of them in flight (task definitions are described one Arn per call)
+        List<Supplier<CompletableFuture<List<Map>>>> describeCalls = new ArrayList<Supplier<CompletableFuture<List<Map>>>>();
+        for (int i = 0; i < missingArns.size(); i += describeLimit) {
+            final List<String> chunk = missingArns.subList(i, Math.min(i + describeLimit, missingArns.size()));
+            describeCalls.add(() -> describeCall(structure, action, chunk, cluster, projection, tags));
+        }
+
+        return AmazonEcsWorkerPool.bounded(describeCalls, describeConcurrency).thenApply(describedChunks -> {
+            // Match the newly described objects up with the requested Arns (objects requested by
+            // something other than their full Arn, like a task definition family, are added at the end)
+            List<Map> unmatchedObjects = new ArrayList<Map>();
+            for (List<Map> chunkObjects : describedChunks) {
+                for (Map object : chunkObjects) {
+                    Object arn = object.get(arnField);
+                    if (arn != null && requestedArns.contains(arn.toString()) && !describedObjects.containsKey(arn.toString())) {
+                        describedObjects.put(arn.toString(), object);
                     } else {
-                        arn = (String)record.getValue(key.concat("Arn"));
+                        unmatchedObjects.add(object);
                     }
-                    if (!complexObjects.get(key).keySet().contains(arn)) complexObjects.get(key).put(arn,null);
                 }
             }
 
-            // Make the calls to the different structures and populate the complexObject field
-            // with the object corresponding to each arn
-            for (Map.Entry<String,ArrayList<String>> entry : complexFields.entrySet()) {
-                // Add the structureId to the list of fields to return
-                String structureId = entry.getKey().equals("instance") ? "instanceId" : entry.getKey().concat("Arn");
-                entry.getValue().add(structureId);
+            List<Map> objects = new ArrayList<Map>(requestedArns.size());
+            for (String arn : requestedArns) {
+                Map object = describedObjects.get(arn);
+                if (object != null) objects.add(new JSONObject(object));
+            }
+            for (Map object : unmatchedObjects) {
+                objects.add(new JSONObject(object));
+            }
+            return objects;
+        });
+    }
 
-                RecordList recordList;
-                if (entry.getKey().equals("instance")) {
-                    if (ec2Adapter == null) {
-                        ec2Adapter = new AmazonEC2Adapter();
-                        ec2Adapter.setProperties(getProperties().getValues());
-                        ec2Adapter.initialize();
-                    }
-                    BridgeRequest request = new BridgeRequest();
-                    request.setStructure("Instances");
-                    request.setFields(entry.getValue());
-                    int instanceIdCount = 1;
-                    Set<String> instanceIds = complexObjects.get(entry.getKey()).keySet();
-                    StringBuilder query = new StringBuilder();
-                    for (String instanceId : instanceIds) {
-                        query.append("InstanceId.").append(instanceIdCount).append("=");
-                        query.append(instanceId);
-                        instanceIdCount++;
-                        if (instanceIdCount != instanceIds.size()+1) query.append("&");
-                    }
-                    request.setQuery(query.toString());
-                    recordList = ec2Adapter.search(request);
-                } else {
-                    // Build structure
-                    StringBuilder structure = new StringBuilder();
-                    structure.append(entry.getKey().substring(0,1).toUpperCase());
-                    structure.append(entry.getKey().substring(1)).append("s");
-                    // Build query
-                    StringBuilder complexQuery = new StringBuilder();
-                    complexQuery.append(entry.getKey()).append("s=[");
-                    complexQuery.append(StringUtils.join(complexObjects.get(entry.getKey()).keySet(),","));
-                    complexQuery.append("]");
-                    if (cluster != null) complexQuery.append("&cluster=").append(cluster);
-                    // Build the BridgeRequest
-                    BridgeRequest request = new BridgeRequest();
-                    request.setStructure(structure.toString());
-                    request.setQuery(complexQuery.toString());
-                    request.setFields(entry.getValue());
-                    // Make the request
-                    recordList = search(request);
+    /**
+     * Makes a single Describe call for the chunk of Arns (one Arn for task definitions) and adds the
+     * described objects to the describe cache.
+     */
+    private CompletableFuture<List<Map>> describeCall(final String structure, String action, List<String> chunk,
+        String cluster, final Set<String> projection, final boolean tags
+    ) {
+        final String structureKeyIdentifier = AmazonEcsQueryPlan.structureKeyIdentifier(structure);
+        final String arnField = structureKeyIdentifier.concat("Arn");
+        Map<String,Object> parameters = new HashMap<String,Object>();
+        if (tags) parameters.put("include", TAGS_INCLUDE);
+        CompletableFuture<List<Map>> describeCall;
+        if (action.equals("DescribeTaskDefinition")) {
+            parameters.put("taskDefinition", chunk.get(0));
+            describeCall = ecsRequestAsync(action,parameters,"taskDefinition",projection).thenApply(describeJson -> {
+                // The tags of a task definition are returned next to it rather than in it (the
+                // response is shared with any identical call, so the tags go on a copy)
+                JSONObject taskDefinition = (JSONObject)describeJson.get("taskDefinition");
+                if (tags) {
+                    taskDefinition = new JSONObject(taskDefinition);
+                    taskDefinition.put(TAGS_FIELD, describeJson.get(TAGS_FIELD));
                 }
-
-                for (Record record : recordList.getRecords()) {
-                    String arn = record.getValue(structureId).toString();
-                    complexObjects.get(entry.getKey()).put(arn,record.getRecord());
+                return Collections.<Map>singletonList(taskDefinition);
+            });
+        } else {
+            parameters.put(structureKeyIdentifier.concat("s"), chunk);
+            if (cluster != null) parameters.put("cluster", cluster);
+            describeCall = ecsRequestAsync(action,parameters,structureKeyIdentifier.concat("s"),projection).thenApply(describeJson -> {
+                List<Map> objects = new ArrayList<Map>();
+                for (Object o : (JSONArray)describeJson.get(structureKeyIdentifier.concat("s"))) {
+                    objects.add((Map)o);
                 }
+                return objects;
+            });
+        }
+        return describeCall.thenApply(objects -> {
+            for (Map object : objects) {
+                describeCache.put(structure, (String)object.get(arnField), object, projection);
             }
+            return objects;
+        });
+    }
 
-            // Retrieve the objects related to the complex fields based on the corresponding Arn
-            for (Record record : records) {
-                for (Map.Entry<String,ArrayList<String>> entry : complexFields.entrySet()) {
-                    for (String complexField : entry.getValue()) {
-                        String arn = entry.getKey().equals("instance") ? record.getValue("ec2InstanceId").toString() : record.getValue(entry.getKey().concat("Arn")).toString();
-                        Map json = (Map)complexObjects.get(entry.getKey()).get(arn);
-                        record.getRecord().put(entry.getKey()+"."+complexField,json.get(complexField));
+    /**
+     * Builds the source that the mirror uses to List and Describe the mirrored objects.
+     */
+    private AmazonEcsMirror.Source mirrorSource() {
+        return new AmazonEcsMirror.Source() {
+            @Override
+            public List<String> listArns(String structure, String cluster) throws BridgeError {
+                String arnsField = AmazonEcsQueryPlan.structureKeyIdentifier(structure).concat("Arns");
+                List<String> arns = new ArrayList<String>();
+                String nextToken = null;
+                do {
+                    Map<String,Object> parameters = new HashMap<String,Object>();
+                    if (cluster != null) parameters.put("cluster", cluster);
+                    if (nextToken != null) parameters.put("nextToken", nextToken);
+                    parameters.put("maxResults", Integer.valueOf(LIST_COUNT_PAGE_SIZE));
+                    JSONObject arnsJson = ecsRequest("List"+structure, parameters);
+                    for (Object arn : (JSONArray)arnsJson.get(arnsField)) {
+                        arns.add(arn.toString());
                     }
-                }
+                    nextToken = (String)arnsJson.get("nextToken");
+                } while (nextToken != null);
+                return arns;
             }
-        }
 
-        return records;
+            @Override
+            public List<Map> describe(String structure, List<String> arns, String cluster) throws BridgeError {
+                return AmazonEcsAdapter.this.describe(structure, arns, cluster, null, false);
+            }
+        };
     }
 
-    private static final Pattern NESTED_PATTERN = Pattern.compile(".*?\\[(.*?)\\]");
-    private List getSubfieldValues(String subfield, List valuesToCheck) {
-        List subfieldValues = new ArrayList(valuesToCheck);
-        for (Object value : new ArrayList(subfieldValues)) {
-            if (value instanceof Map<?,?>) {
-                subfieldValues.remove(value);
-                subfieldValues.add(((Map)value).get(subfield));
-            } else if (value instanceof List<?>) {
-                subfieldValues.remove(value);
-                // Check if it is a list of name/value hashes
-                List nonNameValuePairObjects = new ArrayList();
-                for (Object o : (List)value) {
-                    if (o instanceof Map) {
-                        if (((Map) o).containsKey("name") && ((Map) o).containsKey("value")) {
-                            if (((Map) o).get("name").toString().equals(subfield)) {
-                                subfieldValues.add(((Map) o).get("value"));
-                            }
-                        } else {
-                            nonNameValuePairObjects.add(o);
-                            break;
-                        }
+    /**
+     * Makes the ECS call and waits for the response. Only used by the mirror, which refreshes on
+     * its own thread.
+     */
+    private JSONObject ecsRequest(String action, Map<String,Object> parameters) throws BridgeError {
+        return AmazonEcsWorkerPool.await(ecsRequestAsync(action, parameters, null, null));
+    }
+
+    /**
+     * Makes the ECS call and parses the response, only building the projected fields of the
+     * described objects in the records field of the response.
+     *
+     * @param action The ECS action (for example DescribeTasks)
+     * @param parameters The request parameters
+     * @param recordsField The response field that holds the described objects (for example tasks)
+     * @param projection The fields of the described objects to build (null to build every field)
+     * @return
+     */
+    private CompletableFuture<JSONObject> ecsRequestAsync(final String action, Map<String,Object> parameters, final String recordsField, final Set<String> projection) {
+        // Build up the request parameters into a JSON object (sorted by key so that identical
+        // requests always have the same payload)
+        final String payload = JSONValue.toJSONString(new TreeMap<String,Object>(parameters));
+
+        // Identical calls that are made at the same time share a single request, and the results
+        // of List calls are held on to for a short time (the Describe results have their own cache)
+        long ttlMillis = action.startsWith("List") ? listCacheTtl : 0;
+        String key = action+" "+payload+(projection == null ? "" : " "+projection);
+        return requestCoalescer.execute(key, ttlMillis, () -> {
+            final AmazonEcsMetrics.Metric metric = metrics.get("ecs."+action);
+            final long started = System.nanoTime();
+            return ecsAttempts(action, payload, recordsField, projection, metric, 0, 1)
+                .thenApply(unchecked(json -> {
+                    if (json.containsKey("__type")) {
+                        logger.error(json.toJSONString());
+                        StringBuilder errorMessage = new StringBuilder("Error retrieving ECS records (See logs for more details)");
+                        errorMessage.append(" -- Type: ").append(json.get("__type").toString());
+                        if (json.containsKey("Message")) errorMessage.append(" -- Message: ").append(json.get("Message").toString());
+                        throw new BridgeError(errorMessage.toString());
                     }
+                    metric.addRecords(recordCount(json, recordsField));
+                    return json;
+                }))
+                .whenComplete((json, error) -> metric.record(started, error == null));
+        });
+    }
+
+    /**
+     * Makes the attempt at the ECS call (and any retries). The rate limiter is waited for before
+     * each attempt (for however long the calls queued ahead of it take), and throttled calls and
+     * calls that failed on the AWS side are retried with a growing, jittered backoff until the retry
+     * deadline, which starts when the first attempt is made. The waits are scheduled on the worker
+     * pool's timer, so no thread is held while a call is waiting.
+     *
+     * The returned future completes with the response of the last attempt (which is an ECS error
+     * if every attempt failed).
+     */
+    private CompletableFuture<JSONObject> ecsAttempts(final String action, final String payload, final String recordsField,
+        final Set<String> projection, final AmazonEcsMetrics.Metric metric, final long deadline, final int attempt
+    ) {
+        return workerPool.delay(rateLimiter.reserve(region, action))
+            .thenCompose(ignored -> {
+                // The deadline passed in is only used by the retries
+                final long retryDeadline = attempt == 1 ? rateLimiter.deadline() : deadline;
+                return attempt(action, payload, recordsField, projection).thenCompose(json -> {
+                    Object type = json.get("__type");
+                    if (type == null) {
+                        rateLimiter.onSuccess(region, action);
+                        return CompletableFuture.completedFuture(json);
+                    }
+                    if (!AmazonEcsRateLimiter.isRetryable(type.toString())) return CompletableFuture.completedFuture(json);
+                    if (AmazonEcsRateLimiter.isThrottling(type.toString())) {
+                        rateLimiter.onThrottle(region, action);
+                        metric.throttled();
+                    }
+                    long backoff = rateLimiter.backoff(attempt, retryDeadline);
+                    if (backoff < 0) return CompletableFuture.completedFuture(json);
+                    logger.debug("Retrying the ECS "+action+" call in "+backoff+"ms (attempt "+attempt+" failed with "+type+")");
+                    metric.retried();
+                    return workerPool.delay(backoff)
+                        .thenCompose(delayed -> ecsAttempts(action, payload, recordsField, projection, metric, retryDeadline, attempt + 1));
+                });
+            });
+    }
+
+    /**
+     * Makes a single ECS call, parsing the response straight from the response stream. Throttled
+     * (429) and server error (5xx) responses that don't have a JSON body are returned as an ECS
+     * error of the matching type so that they can be retried.
+     */
+    private CompletableFuture<JSONObject> attempt(String action, String payload, final String recordsField, final Set<String> projection) {
+        final AmazonEcsMetrics.Metric metric = metrics.get("http."+action);
+        return requestAsync(action,payload,new AmazonEcsHttpTransport.ResponseHandler<JSONObject>() {
+            @Override
+            public JSONObject handleResponse(int statusCode, HttpEntity entity) throws IOException {
+                boolean retryableStatus = statusCode == 429 || statusCode >= 500;
+                if (entity == null && !retryableStatus) {
+                    throw new IOException("The ECS response (status "+statusCode+") did not include a body.");
                 }
-                // If it is not a list of name/value hashes
-                if (!nonNameValuePairObjects.isEmpty()) {
-                    subfieldValues.addAll(getSubfieldValues(subfield,nonNameValuePairObjects));
-                }
-            } else {
-                subfieldValues.remove(value);
-                break;
-            }
-        }
-        return subfieldValues;
-    }
-
-    private List<Record> filterRecords(List<Record> records, String query) {
-        String[] queryParts = query.split("&");
-
-        Set<String> fields = null;
-        if (!records.isEmpty()) fields = records.get(0).getRecord().keySet();
-        List<Record> filteredRecords = new ArrayList<Record>(records);
-        for (String part : queryParts) {
-            String[] parts = part.split("=");
-            String key = aliasedField(parts[0].trim());
-            String value = parts.length == 1 ? "" : parts[1].trim();
-
-            for (Record record : new ArrayList<Record>(filteredRecords)) {
-                if (fields.contains(key) && !value.equals(record.getValue(key))) {
-                    // If doing client side filtering on a standard field and it doesn't match
-                    filteredRecords.remove(record);
-                } else if (!fields.contains(key) && key.matches(NESTED_PATTERN.pattern())) {
-                    // Parse the base field and subfields from the field string
-                    String base = key.substring(0,key.indexOf("["));
-                    Matcher matcher = NESTED_PATTERN.matcher(key);
-                    List<String> subfields = new ArrayList<String>();
-                    while (matcher.find()) {
-                        subfields.add(matcher.group(1));
+                try {
+                    if (entity != null) {
+                        return AmazonEcsResponseParser.parse(metric.countBytes(entity.getContent()), recordsField, projection);
                     }
+                } catch (IOException e) {
+                    if (!retryableStatus) throw e;
+                }
+                JSONObject error = new JSONObject();
+                error.put("__type", statusCode == 429 ? "TooManyRequestsException" : "ServiceUnavailable");
+                error.put("Message", "The ECS call failed with status "+statusCode+".");
+                return error;
+            }
+        });
+    }
 
-                    // Make a copy of the record to step through and put the value of the base field
-                    // in the "valuesToCheck" list
-                    List valuesToCheck = Arrays.asList(record.getValue(base));
-                    for (String subfield : subfields) {
-                        valuesToCheck = getSubfieldValues(subfield, valuesToCheck);
+    /**
+     * The number of objects (or Arns for the List calls) in an ECS response.
+     */
+    private static int recordCount(JSONObject json, String recordsField) {
+        if (recordsField != null) {
+            Object records = json.get(recordsField);
+            return records instanceof List ? ((List)records).size() : (records == null ? 0 : 1);
+        }
+        for (Object entry : json.entrySet()) {
+            Map.Entry field = (Map.Entry)entry;
+            if (field.getKey().toString().endsWith("Arns") && field.getValue() instanceof List) {
+                return ((List)field.getValue()).size();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds the fields from other structures (for example taskDefinition.family or
+     * instance.PrivateIpAddress) to the records. Each structure that is joined to is retrieved
+     * concurrently, with the ids split up to the most that each Describe call accepts. The ECS
+     * structures are described through the Describe cache, so objects that were already described
+     * are re-used, and fields joined to an object that doesn't exist are null.
+     *
+     * @param fields The requested and queried fields (only the fields from other structures are used)
+     * @param records
+     * @param cluster The cluster from the query (used when a record doesn't include its clusterArn)
+     * @return
+     */
+    private CompletableFuture<List<Record>> addOtherStructureFieldsAsync(List<String> fields, List<Record> records, String cluster) {
+        final long started = System.nanoTime();
+        CompletableFuture<List<Record>> joined;
+        try {
+            joined = joinOtherStructuresAsync(fields, records, cluster);
+        } catch (BridgeError e) {
+            joined = AmazonEcsWorkerPool.failed(e);
+        }
+        return joined.whenComplete((result, error) -> metrics.get("join").record(started, error == null));
+    }
+
+    private CompletableFuture<List<Record>> joinOtherStructuresAsync(List<String> fields, final List<Record> records, String cluster) throws BridgeError {
+        // Group the fields by the structure they are joined to (for example taskDefinition => family)
+        final Map<String,Set<String>> joinFields = new LinkedHashMap<String,Set<String>>();
+        for (String field : fields) {
+            if (AmazonEcsQueryPlan.isStructureField(field)) {
+                int dotIndex = field.indexOf(".");
+                String key = field.substring(0, dotIndex);
+                if (!joinFields.containsKey(key)) joinFields.put(key, new LinkedHashSet<String>());
+                joinFields.get(key).add(field.substring(dotIndex+1));
+            }
+        }
+        if (joinFields.isEmpty() || records.isEmpty()) return CompletableFuture.completedFuture(records);
+
+        // Collect the distinct ids to join on for each structure (grouped by the cluster of the
+        // record, since container instances can only be described within their cluster)
+        final List<String> keys = new ArrayList<String>(joinFields.keySet());
+        List<CompletableFuture<Map<String,Map>>> joins = new ArrayList<CompletableFuture<Map<String,Map>>>();
+        for (final String key : keys) {
+            final Set<String> subfields = joinFields.get(key);
+            final Map<String,Set<String>> idsByCluster = new LinkedHashMap<String,Set<String>>();
+            for (Record record : records) {
+                Object id = record.getValue(joinIdField(key));
+                if (id == null) continue;
+                Object recordCluster = record.getValue("clusterArn");
+                String idCluster = key.equals("containerInstance") && recordCluster != null
+                    ? recordCluster.toString()
+                    : cluster;
+                if (!idsByCluster.containsKey(idCluster)) idsByCluster.put(idCluster, new LinkedHashSet<String>());
+                idsByCluster.get(idCluster).add(id.toString());
+            }
+            final long started = System.nanoTime();
+            CompletableFuture<Map<String,Map>> join = key.equals("instance")
+                // The EC2 adapter only makes blocking calls, so the instances are retrieved on one
+                // of the join threads rather than on a worker
+                ? workerPool.<Map<String,Map>>supplyBlocking(() -> {
+                    try {
+                        return joinInstances(subfields, idsByCluster);
+                    } catch (BridgeError e) {
+                        throw new CompletionException(e);
                     }
+                })
+                : joinStructureAsync(key, subfields, idsByCluster);
+            joins.add(join.whenComplete((joined, error) -> metrics.get("join."+key).record(started, error == null)));
+        }
 
-                    // Iterate through the list of values, and if all of them fail to match remove the record
-                    boolean valueMatch = false;
-                    for (Object valueCheck : valuesToCheck) {
-                        if (value.equals(valueCheck)) {
-                            valueMatch = true;
-                            break;
-                        }
+        return AmazonEcsWorkerPool.all(joins).thenApply(joinedObjects -> {
+            // Add the joined fields to each record (null if the joined object wasn't found)
+            for (Record record : records) {
+                for (int i = 0; i < keys.size(); i++) {
+                    String key = keys.get(i);
+                    Object id = record.getValue(joinIdField(key));
+                    Map object = id == null ? null : joinedObjects.get(i).get(id.toString());
+                    for (String subfield : joinFields.get(key)) {
+                        record.getRecord().put(key+"."+subfield, object == null ? null : object.get(subfield));
                     }
-                    if (!valueMatch) filteredRecords.remove(record);
+                }
+            }
+            return records;
+        });
+    }
+
+    /**
+     * The field of a record that holds the id of the joined object.
+     */
+    private static String joinIdField(String key) {
+        return key.equals("instance") ? "ec2InstanceId" : key.concat("Arn");
+    }
+
+    /**
+     * Describes the ECS objects that are joined to and returns the values of the joined fields for
+     * each object, keyed by the object Arn.
+     */
+    private CompletableFuture<Map<String,Map>> joinStructureAsync(String key, final Set<String> subfields, Map<String,Set<String>> idsByCluster) throws BridgeError {
+        String structure = key.substring(0,1).toUpperCase().concat(key.substring(1)).concat("s");
+        if (!VALID_STRUCTURES.contains(structure)) {
+            throw new BridgeError("Invalid Structure: '" + structure + "' is not a valid structure");
+        }
+
+        // Only build the fields that are joined (and the Arn to match them up by)
+        final String arnField = key.concat("Arn");
+        Set<String> projection = new TreeSet<String>();
+        projection.add(arnField);
+        for (String subfield : subfields) {
+            addProjectedField(projection, subfield);
+        }
+
+        List<CompletableFuture<List<Map>>> describeCalls = new ArrayList<CompletableFuture<List<Map>>>();
+        for (Map.Entry<String,Set<String>> entry : idsByCluster.entrySet()) {
+            describeCalls.add(describeAsync(structure, new ArrayList<String>(entry.getValue()), entry.getKey(), projection));
+        }
+        return AmazonEcsWorkerPool.all(describeCalls).thenCompose(describedByCluster -> {
+            List<Record> objects = new ArrayList<Record>();
+            for (List<Map> described : describedByCluster) {
+                objects.addAll(records(described));
+            }
+            // Fields that are joined from the joined structure (for example
+            // containerInstance.instance.PrivateIpAddress) are joined in turn
+            return addOtherStructureFieldsAsync(new ArrayList<String>(subfields), objects, null);
+        }).thenApply(objects -> {
+            Map<String,Map> joinedObjects = new HashMap<String,Map>();
+            for (Record object : objects) {
+                Object arn = object.getValue(arnField);
+                if (arn == null) continue;
+                Map<String,Object> values = new HashMap<String,Object>();
+                for (String subfield : subfields) {
+                    AmazonEcsFieldPath path = AmazonEcsFieldPath.compile(subfield);
+                    values.put(subfield, path.isNested()
+                        ? path.value(object.getRecord())
+                        : object.getValue(path.getAliasedField()));
+                }
+                joinedObjects.put(arn.toString(), values);
+            }
+            return joinedObjects;
+        });
+    }
+
+    /**
+     * Retrieves the EC2 instances that are joined to (through the EC2 adapter) and returns them
+     * keyed by the instance id.
+     */
+    private Map<String,Map> joinInstances(Set<String> subfields, Map<String,Set<String>> idsByCluster) throws BridgeError {
+        Set<String> instanceIds = new LinkedHashSet<String>();
+        for (Set<String> ids : idsByCluster.values()) {
+            instanceIds.addAll(ids);
+        }
+        List<String> fields = new ArrayList<String>(subfields);
+        if (!fields.contains("instanceId")) fields.add("instanceId");
+
+        Map<String,Map> joinedObjects = new HashMap<String,Map>();
+        List<String> ids = new ArrayList<String>(instanceIds);
+        for (int i = 0; i < ids.size(); i += EC2_DESCRIBE_LIMIT) {
+            StringBuilder query = new StringBuilder();
+            List<String> chunk = ids.subList(i, Math.min(i + EC2_DESCRIBE_LIMIT, ids.size()));
+            for (int j = 0; j < chunk.size(); j++) {
+                if (j > 0) query.append("&");
+                query.append("InstanceId.").append(j+1).append("=").append(chunk.get(j));
+            }
+            BridgeRequest request = new BridgeRequest();
+            request.setStructure("Instances");
+            request.setFields(fields);
+            request.setQuery(query.toString());
+            for (Record record : ec2Adapter().search(request).getRecords()) {
+                Object instanceId = record.getValue("instanceId");
+                if (instanceId != null) joinedObjects.put(instanceId.toString(), record.getRecord());
+            }
+        }
+        return joinedObjects;
+    }
+
+    /**
+     * Returns the EC2 adapter used to join instance fields, initializing it (with the ECS adapter
+     * properties) the first time it is needed. Only the first join waits on the lock, and the
+     * adapter is only published once it has been initialized.
+     */
+    private AmazonEC2Adapter ec2Adapter() throws BridgeError {
+        AmazonEC2Adapter adapter = ec2Adapter;
+        if (adapter == null) {
+            synchronized (this) {
+                adapter = ec2Adapter;
+                if (adapter == null) {
+                    adapter = new AmazonEC2Adapter();
+                    adapter.setProperties(getProperties().getValues());
+                    adapter.initialize();
+                    ec2Adapter = adapter;
                 }
             }
         }
-        return filteredRecords;
+        return adapter;
     }
 
     // With the field pattern aliases, group the part of the query that you want to be aliases/replaced.
     // For example, environment[space_slug] => overrides[containerOverrides][environment][space_slug]
     // will be grouped on environment because that is what will be replaced by the real field.
-    private static final Map<Pattern,String> FLD_PATTERN_ALIASES = new HashMap<Pattern,String>() {{
+    private static final Map<Pattern,String> FLD_PATTERN_ALIASES = Collections.unmodifiableMap(new HashMap<Pattern,String>() {{
         put(Pattern.compile("(environment)\\[.*?\\]"),"overrides[containerOverrides][environment]");
-    }};
+    }});
     /**
      * Returns the full field that is being aliased (if there is one). Echos back the passed in field
      * if it is not representing an aliased value.
      * @param fieldName A field alias
      * @return The full field path
      */
-    private String aliasedField(String fieldName) {
+    static String aliasedField(String fieldName) {
         String aliasedField = fieldName;
         // Check for complete field matches that are being aliased
 
@@ -618,193 +1721,151 @@ public class AmazonEcsAdapter implements BridgeAdapter {
         return aliasedField;
     }
 
-    private List<String> aliasedFields(List<String> fieldNames) {
-        List<String> aliasedFields = new ArrayList<String>();
-        for (String fieldName : fieldNames) {
-            aliasedFields.add(aliasedField(fieldName));
+    /**
+     * Returns the integer value of the adapter property, or the default value if the property was
+     * left blank.
+     */
+    private int integerProperty(String name, int defaultValue) throws BridgeError {
+        String value = properties.getValue(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new BridgeError("The '"+name+"' property must be an integer (was '"+value+"').");
         }
-        return aliasedFields;
     }
 
     /**
-     * This method builds and sends a request to the Amazon EC2 REST API given the inputted
-     * data and return a HttpResponse object after the call has returned. This method mainly helps with
-     * creating a proper signature for the request (documentation on the Amazon REST API signing
-     * process can be found here - http://docs.aws.amazon.com/general/latest/gr/sigv4_signing.html),
-     * but it also throws and logs an error if a 401 or 403 is retrieved on the attempted call.
-     *
-     * @param url
-     * @param headers
-     * @param region
-     * @param accessKey
-     * @param secretKey
-     * @return
-     * @throws BridgeError
+     * Returns true if the page token is blank or the offset of a page (rather than an ECS token).
      */
-    private HttpResponse request(String method, String url, List<String> headers, String region, String service, String payload, String accessKey, String secretKey) throws BridgeError {
-        // Build a datetime timestamp of the current time (in UTC). This will be sent as a header
-        // to Amazon and the datetime stamp must be within 5 minutes of the time on the
-        // recieving server or else the request will be rejected as a 403 Forbidden
-        DateFormat df = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
-        df.setTimeZone(TimeZone.getTimeZone("UTC"));
-        String datetime = df.format(new Date());
-        String date = datetime.split("T")[0];
-
-        // Create a URI from the request URL so that we can pull the host/path/query from it
-        URI uri;
-        try {
-            uri = new URI(url);
-        } catch (URISyntaxException e) {
-            throw new BridgeError("There was an error parsing the inputted url '"+url+"' into a java URI.",e);
-        }
-
-        /* BUILD CANONCIAL REQUEST (uri, query, headers, signed headers, hashed payload)*/
-
-        // Canonical URI (the part of the URL between the host and the ?. If blank, the uri is just /)
-        String canonicalUri = uri.getPath().isEmpty() ? "/" : uri.getPath();
-
-        // Canonical Query (parameter names sorted by asc and param names and values escaped
-        // and trimmed)
-        String canonicalQuery;
-        // Trim the param names and values and load the parameters into a map
-        Map<String,String> queryMap = new HashMap<String,String>();
-        if (uri.getQuery() != null) {
-            for (String parameter : uri.getQuery().split("&")) {
-                queryMap.put(parameter.split("=")[0].trim(), parameter.split("=")[1].trim());
-            }
-        }
-
-        StringBuilder queryBuilder = new StringBuilder();
-        for (String key : new TreeSet<String>(queryMap.keySet())) {
-            if (!queryBuilder.toString().isEmpty()) queryBuilder.append("&");
-            queryBuilder.append(URLEncoder.encode(key)).append("=").append(URLEncoder.encode(queryMap.get(key)));
-        }
-        canonicalQuery = queryBuilder.toString();
-
-        // Canonical Headers (lowercase and sort headers, add host and date headers if they aren't
-        // already included, then create a header string with trimmed name and values and a new line
-        // character after each header - including the last one)
-        String canonicalHeaders;
-        // Lowercase/trim each header and header value and load into a map
-        Map<String,String> headerMap = new HashMap<String,String>();
-        for (String header : headers) {
-            headerMap.put(header.split(":")[0].toLowerCase().trim(), header.split(":")[1].trim());
-        }
-        // If the date and host headers aren't already in the header map, add them
-        if (!headerMap.keySet().contains("host")) headerMap.put("host",uri.getHost());
-        if (!headerMap.keySet().contains("x-amz-date")) headerMap.put("x-amz-date",datetime);
-        // Sort the headers and append a newline to the end of each of them
-        StringBuilder headerBuilder = new StringBuilder();
-        for (String key : new TreeSet<String>(headerMap.keySet())) {
-            headerBuilder.append(key).append(":").append(headerMap.get(key)).append("\n");
-        }
-        canonicalHeaders = headerBuilder.toString();
-
-        // Signed Headers (a semicolon separated list of heads that were signed in the previous step)
-        String signedHeaders = StringUtils.join(new TreeSet<String>(headerMap.keySet()),";");
-
-        // Hashed Payload (a SHA256 hexdigest with the request payload - because the bridge only
-        // does GET requests the payload will always be an empty string)
-        String hashedPayload = DigestUtils.sha256Hex(payload);
-
-        // Canonical Request (built out of 6 parts - the request method and the previous 5 steps in order
-        // - with a newline in between each step and then a SHA256 hexdigest run on the resulting string)
-        StringBuilder requestBuilder = new StringBuilder();
-        requestBuilder.append(method).append("\n");
-        requestBuilder.append(canonicalUri).append("\n");
-        requestBuilder.append(canonicalQuery).append("\n");
-        requestBuilder.append(canonicalHeaders).append("\n");
-        requestBuilder.append(signedHeaders).append("\n");
-        requestBuilder.append(hashedPayload);
-
-        logger.debug(requestBuilder.toString());
-        // Run the resulting string through a SHA256 hexdigest
-        String canonicalRequest = DigestUtils.sha256Hex(requestBuilder.toString());
-
-        /* BUILD STRING TO SIGN (credential scope, string to sign) */
-
-        // Credential Scope (date, region, service, and terminating string [which is always aws4_request)
-        String credentialScope = String.format("%s/%s/%s/aws4_request",date,region,service);
-
-        // String to Sign (encryption method, datetime, credential scope, and canonical request)
-        StringBuilder stringToSignBuilder = new StringBuilder();
-        stringToSignBuilder.append("AWS4-HMAC-SHA256").append("\n");
-        stringToSignBuilder.append(datetime).append("\n");
-        stringToSignBuilder.append(credentialScope).append("\n");
-        stringToSignBuilder.append(canonicalRequest);
-        logger.debug(stringToSignBuilder.toString());
-        String stringToSign = stringToSignBuilder.toString();
-
-        /* CREATE THE SIGNATURE (signing key, signature) */
-
-        // Signing Key
-        byte[] signingKey;
-        try {
-            signingKey = getSignatureKey(secretKey,date,region,service);
-        } catch (Exception e) {
-            throw new BridgeError("There was a problem creating the signing key",e);
-        }
+    private static boolean isOffsetToken(String pageToken) {
+        return pageToken == null || pageToken.matches("\\d{1,9}");
+    }
 
-        // Signature
-        String signature;
+    /**
+     * Parses the page size or the page token (an offset) of a search on an explicit list of Arns.
+     */
+    private int pageNumber(String name, String value) throws BridgeError {
         try {
-            signature = Hex.encodeHexString(HmacSHA256(signingKey,stringToSign));
-        } catch (Exception e) {
-            throw new BridgeError("There was a problem creating the signature",e);
+            int number = Integer.parseInt(value.trim());
+            if (number >= 0) return number;
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
         }
+        throw new BridgeError("The "+name+" must be a non-negative integer (was '"+value+"').");
+    }
 
-        // Authorization Header (encryption method, access key, credential scope, signed headers, signature))
-        String authorization = String.format("AWS4-HMAC-SHA256 Credential=%s/%s, SignedHeaders=%s, Signature=%s",accessKey,credentialScope,signedHeaders,signature);
-
-        /* CREATE THE HTTP REQUEST */
-        HttpClient client = HttpClients.createDefault();
-        HttpRequestBase request;
-        try {
-            if (method.toLowerCase().equals("get")) {
-                request = new HttpGet(url);
-            } else if (method.toLowerCase().equals("post")) {
-                request = new HttpPost(url);
-                ((HttpPost)request).setEntity(new StringEntity(payload));
-            } else {
-                throw new BridgeError("Http Method '"+method+"' is not supported");
-            }
-        } catch (UnsupportedEncodingException e) {
-            throw new BridgeError(e);
+    /**
+     * Returns the comma separated values of the adapter property, or the default values if the
+     * property was left blank.
+     */
+    private List<String> listProperty(String name, String defaultValue) {
+        String value = properties.getValue(name);
+        if (value == null || value.trim().isEmpty()) value = defaultValue;
+        List<String> values = new ArrayList<String>();
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) values.add(part.trim());
         }
+        return Collections.unmodifiableList(values);
+    }
 
-        request.setHeader("Authorization",authorization);
-        for (Map.Entry<String,String> header : headerMap.entrySet()) {
+    /**
+     * Returns the boolean value of the adapter property, or the default value if the property was
+     * left blank.
+     */
+    private boolean booleanProperty(String name, boolean defaultValue) throws BridgeError {
+        String value = properties.getValue(name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        if (value.trim().equalsIgnoreCase("true")) return true;
+        if (value.trim().equalsIgnoreCase("false")) return false;
+        throw new BridgeError("The '"+name+"' property must be true or false (was '"+value+"').");
+    }
 
-            request.setHeader(header.getKey(),header.getValue());
+    /**
+     * This method builds, signs and sends a request to the Amazon ECS JSON API for the given action
+     * and passes the response to the handler (on one of the response threads). The signature is
+     * created by the adapter's AmazonEcsSigner (documentation on the Amazon REST API signing process
+     * can be found here - http://docs.aws.amazon.com/general/latest/gr/sigv4_signing.html), and the
+     * returned future fails with an error (which is logged) if a 401 or 403 is retrieved on the
+     * attempted call.
+     *
+     * @param action The ECS action (for example ListTasks)
+     * @param payload The JSON payload
+     * @param handler
+     * @return A future for the value returned by the handler
+     */
+    private <T> CompletableFuture<T> requestAsync(String action, String payload, final AmazonEcsHttpTransport.ResponseHandler<T> handler) {
+        if (transport == null || ecsTarget == null) {
+            return AmazonEcsWorkerPool.failed(new BridgeError("The adapter has not been initialized."));
         }
 
-        HttpResponse response;
+        // Build a datetime timestamp of the current time (in UTC). This will be sent as a header
+        // to Amazon and the datetime stamp must be within 5 minutes of the time on the
+        // recieving server or else the request will be rejected as a 403 Forbidden
+        String datetime = AmazonEcsSigner.datetime(new Date());
+        String authorization;
         try {
-            response = client.execute(request);
+            authorization = ecsTarget.authorization(action, payload, datetime);
+        } catch (BridgeError e) {
+            return AmazonEcsWorkerPool.failed(e);
+        }
 
-            if (response.getStatusLine().getStatusCode() == 401 || response.getStatusLine().getStatusCode() == 403) {
-                logger.error(EntityUtils.toString(response.getEntity()));
-                throw new BridgeError("User not authorized to access this resource. Check the logs for more details.");
+        /* CREATE THE HTTP REQUEST */
+        HttpPost request = new HttpPost(this.endpoint);
+        request.setEntity(new StringEntity(payload, UTF8));
+        request.setHeader("Content-Type", AmazonEcsSigner.JsonTarget.CONTENT_TYPE);
+        request.setHeader("X-Amz-Date", datetime);
+        request.setHeader("X-Amz-Target", ECS_TARGET_PREFIX + "." + action);
+        request.setHeader("Authorization", authorization);
+
+        final AmazonEcsMetrics.Metric metric = metrics.get("http."+action);
+        final boolean[] succeeded = new boolean[1];
+        final long started = System.nanoTime();
+        final CompletableFuture<T> response = new CompletableFuture<T>();
+        transport.execute(request, new AmazonEcsHttpTransport.ResponseHandler<T>() {
+            @Override
+            public T handleResponse(int statusCode, HttpEntity entity) throws IOException, BridgeError {
+                succeeded[0] = statusCode < 400;
+                if (statusCode == 401 || statusCode == 403) {
+                    logger.error(entity == null ? "" : EntityUtils.toString(entity, UTF8));
+                    throw new BridgeError("User not authorized to access this resource. Check the logs for more details.");
+                }
+                return handler.handleResponse(statusCode, entity);
             }
-        } catch (IOException e) { throw new BridgeError(e); }
-
+        }, workerPool.responseExecutor()).whenComplete((result, error) -> {
+            metric.record(started, error == null && succeeded[0]);
+            // Free the response thread for the next response before the search moves on
+            workerPool.completeOnWorker(response, result,
+                error == null ? null : error instanceof IOException ? new BridgeError(error) : error);
+        });
         return response;
     }
 
-    static byte[] HmacSHA256(byte[] key, String data) throws Exception {
-        String algorithm = "HmacSHA256";
-        Mac mac = Mac.getInstance(algorithm);
-        mac.init(new SecretKeySpec(key, algorithm));
-        return mac.doFinal(data.getBytes("UTF8"));
+    /**
+     * Registers the metrics MBean (once per adapter instance). The adapter keeps working if the
+     * MBean can't be registered.
+     */
+    private void registerMetrics() {
+        if (metricsName != null) return;
+        try {
+            ObjectName name = new ObjectName("com.kineticdata.bridgehub.adapter.amazonecs:type=Metrics,region="
+                + ObjectName.quote(String.valueOf(region)) + ",id=" + System.identityHashCode(this));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StandardMBean(metrics, AmazonEcsMetricsMXBean.class, true), name);
+            metricsName = name;
+        } catch (JMException e) {
+            logger.warn("Unable to register the ECS adapter metrics MBean", e);
+        }
     }
 
-    static byte[] getSignatureKey(String secretKey, String date, String region, String service) throws Exception  {
-         byte[] kSecret = ("AWS4" + secretKey).getBytes("UTF8");
-         byte[] kDate    = HmacSHA256(kSecret, date);
-         byte[] kRegion  = HmacSHA256(kDate, region);
-         byte[] kService = HmacSHA256(kRegion, service);
-         byte[] kSigning = HmacSHA256(kService, "aws4_request");
-         return kSigning;
+    private void unregisterMetrics() {
+        if (metricsName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) {
+            logger.warn("Unable to unregister the ECS adapter metrics MBean", e);
+        }
+        metricsName = null;
     }
 
 }
\ No newline at end of file
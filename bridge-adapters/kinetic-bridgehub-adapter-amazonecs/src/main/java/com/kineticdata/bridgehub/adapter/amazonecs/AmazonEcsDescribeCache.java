@@ -0,0 +1,196 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded, least recently used cache of the objects returned by the ECS Describe calls, keyed by
+ * the structure and the Arn of the described object.
+ *
+ * Task definition revisions can never change once they are registered, so they stay in the cache
+ * until they are evicted to make room for newer entries. Everything else (clusters, tasks and
+ * container instances) changes over time and is only cached for a short time to live, as are task
+ * definitions that were described with their tags, since tags can be added to and removed from a
+ * registered revision.
+ *
+ * Objects that were described with a projection (only some of their fields built) are cached along
+ * with the projection, and are only returned to callers that need a subset of those fields. The
+ * tags are only described when they are in the projection, so an object described without a
+ * projection isn't returned to callers that need the tags.
+ *
+ * The cache is bounded both by the number of objects and by their approximate size in memory, as
+ * a single task definition (with its container definitions, environment and volumes) can be many
+ * times the size of a task. The size of an object is estimated from its keys and values when it
+ * is cached.
+ *
+ * The cached objects are shared between requests, so callers must copy an object before making any
+ * changes to it.
+ */
+class AmazonEcsDescribeCache {
+
+    /** Default values used when the corresponding adapter properties are left blank. */
+    public static final int DEFAULT_MAX_ENTRIES = 5000;
+    public static final int DEFAULT_TTL_SECONDS = 10;
+    public static final int DEFAULT_MAX_MEGABYTES = 64;
+
+    /** The field that is only described when it is projected */
+    private static final String TAGS_FIELD = "tags";
+
+    /** Structures whose described objects never change for a given Arn */
+    private static final List<String> IMMUTABLE_STRUCTURES = Arrays.asList("TaskDefinitions");
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+    /** An access ordered map, so the least recently used entry is evicted first */
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+    /** The approximate size of the cached objects */
+    private long bytes;
+
+    /**
+     * @param maxEntries The most objects to keep in the cache (0 disables the cache)
+     * @param maxMegabytes The most memory (approximately) that the cached objects may take up (0
+     *   disables the cache)
+     * @param ttlSeconds How long objects of the mutable structures are cached for (0 only caches
+     *   the immutable structures)
+     */
+    public AmazonEcsDescribeCache(int maxEntries, int maxMegabytes, int ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxMegabytes * 1024L * 1024L;
+        this.ttlMillis = ttlSeconds * 1000L;
+    }
+
+    /**
+     * Returns true if objects of the structure can be cached.
+     */
+    public boolean isCacheable(String structure) {
+        return maxEntries > 0 && maxBytes > 0 && (ttlMillis > 0 || IMMUTABLE_STRUCTURES.contains(structure));
+    }
+
+    /**
+     * Returns the cached object for the Arn, or null if it isn't cached, has expired or wasn't
+     * described with all of the projected fields (including the tags).
+     *
+     * @param structure
+     * @param arn
+     * @param projection The fields that the caller needs (null if every field is needed)
+     * @return
+     */
+    public synchronized Map get(String structure, String arn, Set<String> projection) {
+        String key = key(structure, arn);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        } else if (entry.expiresAt < System.currentTimeMillis()) {
+            remove(key);
+            return null;
+        } else if (entry.projection != null && (projection == null || !entry.projection.containsAll(projection))) {
+            return null;
+        } else if (entry.projection == null && projection != null && projection.contains(TAGS_FIELD)) {
+            return null;
+        }
+        return entry.object;
+    }
+
+    /**
+     * Caches the described object under its Arn.
+     *
+     * @param structure
+     * @param arn
+     * @param object
+     * @param projection The fields that were built for the object (null if every field was built)
+     */
+    public void put(String structure, String arn, Map object, Set<String> projection) {
+        if (arn == null || !isCacheable(structure)) return;
+        boolean immutable = IMMUTABLE_STRUCTURES.contains(structure)
+            && (projection == null || !projection.contains(TAGS_FIELD));
+        if (!immutable && ttlMillis <= 0) return;
+        long size = estimateBytes(object);
+        // Objects that would take up the whole cache aren't cached at all
+        if (size > maxBytes) return;
+        long expiresAt = immutable ? Long.MAX_VALUE : System.currentTimeMillis() + ttlMillis;
+        synchronized (this) {
+            Entry previous = entries.put(key(structure, arn), new Entry(object, projection, expiresAt, size));
+            if (previous != null) bytes -= previous.bytes;
+            bytes += size;
+            Iterator<Map.Entry<String,Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries || bytes > maxBytes) {
+                bytes -= eldest.next().getValue().bytes;
+                eldest.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the approximate size (in bytes) of the cached objects.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) bytes -= entry.bytes;
+    }
+
+    /**
+     * Estimates the memory taken up by a described object (the maps, lists, strings and boxed
+     * values it is built from) on a 64 bit JVM with compressed references. The estimate is meant
+     * for bounding the cache rather than for accounting for every byte.
+     */
+    static long estimateBytes(Object value) {
+        if (value instanceof String) {
+            // The String and its backing array
+            return 56 + 2L * ((String)value).length();
+        } else if (value instanceof Map) {
+            // The map, its table and an entry for each key
+            long size = 64 + 40L * ((Map)value).size();
+            for (Object entry : ((Map)value).entrySet()) {
+                size += estimateBytes(((Map.Entry)entry).getKey()) + estimateBytes(((Map.Entry)entry).getValue());
+            }
+            return size;
+        } else if (value instanceof List) {
+            long size = 40 + 4L * ((List)value).size();
+            for (Object element : (List)value) {
+                size += estimateBytes(element);
+            }
+            return size;
+        } else if (value == null || value instanceof Boolean) {
+            // Shared instances
+            return 0;
+        }
+        return 24;
+    }
+
+    private static String key(String structure, String arn) {
+        return structure + '|' + arn;
+    }
+
+    private static class Entry {
+        private final Map object;
+        private final Set<String> projection;
+        private final long expiresAt;
+        private final long bytes;
+
+        private Entry(Map object, Set<String> projection, long expiresAt, long bytes) {
+            this.object = object;
+            this.projection = projection;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled accessor for a record field. Bracketed fields (for example
+ * containers[name] or the environment[space_slug] alias for
+ * overrides[containerOverrides][environment][space_slug]) are parsed into their base field and
+ * subfields once, and the accessor then walks the described objects without re-parsing the field.
+ *
+ * Each subfield step works the same way the adapter has always stepped through nested fields, one
+ * subfield at a time over every value the previous step led to:
+ *   - a map steps into the value of the subfield
+ *   - a list of name/value maps steps into the value of every pair whose name is the subfield
+ *   - any other list steps into the subfield of its first map that isn't a name/value pair (the
+ *     name/value pairs before that map are still checked)
+ *   - anything else (a scalar or null) is dropped and ends the step, so the values after it are
+ *     passed on to the next subfield as they are (ahead of the values the step led to)
+ */
+class AmazonEcsFieldPath {
+
+    private static final Pattern NESTED_PATTERN = Pattern.compile(".*?\\[(.*?)\\]");
+
+    /** Compiled paths are shared by every request, the map is simply cleared if it grows too big */
+    private static final int MAX_CACHED_PATHS = 1000;
+    private static final ConcurrentMap<String,AmazonEcsFieldPath> PATHS =
+        new ConcurrentHashMap<String,AmazonEcsFieldPath>();
+
+    private final String field;
+    private final String aliasedField;
+    private final String base;
+    private final String[] subfields;
+
+    private AmazonEcsFieldPath(String field, String aliasedField, String base, String[] subfields) {
+        this.field = field;
+        this.aliasedField = aliasedField;
+        this.base = base;
+        this.subfields = subfields;
+    }
+
+    /**
+     * Returns the compiled path for the field (as it was requested, before any aliases are
+     * replaced).
+     */
+    public static AmazonEcsFieldPath compile(String field) {
+        AmazonEcsFieldPath path = PATHS.get(field);
+        if (path == null) {
+            String aliasedField = AmazonEcsAdapter.aliasedField(field);
+            if (field.matches(NESTED_PATTERN.pattern())) {
+                // Parse the base field and subfields from the field string
+                List<String> subfields = new ArrayList<String>();
+                Matcher matcher = NESTED_PATTERN.matcher(aliasedField);
+                while (matcher.find()) {
+                    subfields.add(matcher.group(1));
+                }
+                path = new AmazonEcsFieldPath(field, aliasedField,
+                    aliasedField.substring(0,aliasedField.indexOf("[")), subfields.toArray(new String[0]));
+            } else {
+                path = new AmazonEcsFieldPath(field, aliasedField, aliasedField, null);
+            }
+            if (PATHS.size() >= MAX_CACHED_PATHS) PATHS.clear();
+            PATHS.putIfAbsent(field, path);
+        }
+        return path;
+    }
+
+    /** The field as it was requested */
+    public String getField() {
+        return field;
+    }
+
+    /** The field with any aliases replaced */
+    public String getAliasedField() {
+        return aliasedField;
+    }
+
+    /** The top level field of the described object that the path starts from */
+    public String getBase() {
+        return base;
+    }
+
+    /** True if the field has subfields (bracketed parts) to step through */
+    public boolean isNested() {
+        return subfields != null;
+    }
+
+    /**
+     * Returns every value that the path leads to (including nulls) in the order they are found.
+     */
+    public List values(Map object) {
+        Object value = object.get(base);
+        if (subfields == null) return Collections.singletonList(value);
+        List values = Collections.singletonList(value);
+        for (String subfield : subfields) {
+            values = step(values, subfield);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the value of the field as it is returned in a record - the non null values the path
+     * leads to as a list if there is more than one, the single value if there is one and null if
+     * there aren't any.
+     */
+    public Object value(Map object) {
+        List values = values(object);
+        Object single = null;
+        int count = 0;
+        for (Object value : values) {
+            if (value != null) {
+                single = value;
+                count++;
+            }
+        }
+        if (count > 1) {
+            List nonNullValues = new ArrayList(count);
+            for (Object value : values) {
+                if (value != null) nonNullValues.add(value);
+            }
+            return nonNullValues;
+        }
+        return single;
+    }
+
+    /**
+     * Steps each of the values into the subfield, returning the values the step leads to.
+     */
+    private static List step(List values, String subfield) {
+        List stepped = new ArrayList();
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            if (value instanceof Map) {
+                stepped.add(((Map)value).get(subfield));
+            } else if (value instanceof List) {
+                for (Object o : (List)value) {
+                    if (o instanceof Map) {
+                        Map map = (Map)o;
+                        if (map.containsKey("name") && map.containsKey("value")) {
+                            Object name = map.get("name");
+                            if (name != null && name.toString().equals(subfield)) {
+                                stepped.add(map.get("value"));
+                            }
+                        } else {
+                            // Not a list of name/value pairs, step into the first object only
+                            stepped.add(map.get(subfield));
+                            break;
+                        }
+                    }
+                }
+            } else {
+                // A scalar ends the step, the values after it aren't stepped into
+                List remaining = new ArrayList(values.subList(i+1, values.size()));
+                remaining.addAll(stepped);
+                return remaining;
+            }
+        }
+        return stepped;
+    }
+
+}
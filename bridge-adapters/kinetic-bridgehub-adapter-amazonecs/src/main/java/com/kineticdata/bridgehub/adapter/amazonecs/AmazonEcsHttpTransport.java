@@ -0,0 +1,458 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The HTTP transport used by a single AmazonEcsAdapter instance. All of the calls made by the
+ * adapter share one non-blocking client (a few I/O threads and one pooled connection manager), so
+ * connections (and their TLS sessions) are kept alive and reused between requests, and no thread is
+ * tied up while a request is waiting on ECS.
+ *
+ * The number of requests in flight is bounded by the number of connections. Requests made while
+ * every connection is busy wait in a queue (rather than in the connection pool, where they would
+ * time out) and are sent as soon as an earlier request completes. The queue is bounded too: once
+ * it is full, new requests fail right away instead of piling up behind the ones already waiting.
+ *
+ * Responses aren't buffered in full: the response handler is started (on the executor) as soon as
+ * the response headers arrive and reads the body while it is still being received, through a
+ * small buffer per request. When the handler falls behind, the I/O thread stops reading from the
+ * connection until the handler catches up.
+ */
+class AmazonEcsHttpTransport {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(AmazonEcsHttpTransport.class);
+
+    /** Default values used when the corresponding adapter properties are left blank. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS = 500;
+
+    /**
+     * AWS does not send a Keep-Alive header, so pooled connections are only held for this long
+     * before they are considered expired (AWS closes idle connections on their side after roughly
+     * a minute).
+     */
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+    /** How often expired and idle connections are closed */
+    private static final long EVICT_INTERVAL_MILLIS = 5000;
+    /** The most I/O dispatcher threads (the ECS calls are small, so a few threads go a long way) */
+    private static final int MAX_IO_THREADS = 4;
+    /** The size of the buffer between the I/O thread receiving a response and its handler */
+    static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+
+    private static final AtomicInteger TRANSPORT_COUNT = new AtomicInteger();
+
+    private final int maxInFlight;
+    private final int maxWaiting;
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient client;
+    private final ScheduledExecutorService evictor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Pending<?>> waiting = new ConcurrentLinkedQueue<Pending<?>>();
+    /** The size of the waiting queue (ConcurrentLinkedQueue.size walks the whole queue) */
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final Thread shutdownHook;
+    private volatile boolean closed = false;
+
+    /**
+     * @param connectTimeout
+     * @param socketTimeout
+     * @param maxConnections The most requests in flight at once
+     * @param maxQueuedRequests The most requests waiting for a connection at once
+     * @throws BridgeError
+     */
+    public AmazonEcsHttpTransport(int connectTimeout, int socketTimeout, int maxConnections, int maxQueuedRequests) throws BridgeError {
+        String name = "AmazonEcsHttpTransport-" + TRANSPORT_COUNT.incrementAndGet();
+        this.maxInFlight = Math.max(maxConnections, 1);
+        this.maxWaiting = Math.max(maxQueuedRequests, 0);
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSoTimeout(socketTimeout)
+            .setIoThreadCount(Math.min(MAX_IO_THREADS, Runtime.getRuntime().availableProcessors()))
+            .build();
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig, daemonThreads(name + "-io-")));
+        } catch (IOReactorException e) {
+            throw new BridgeError("Unable to start the ECS http client.", e);
+        }
+        // Every request made by the adapter goes to the same route (the ECS endpoint for the
+        // configured region), so the per route limit is the same as the total limit
+        connectionManager.setMaxTotal(maxInFlight);
+        connectionManager.setDefaultMaxPerRoute(maxInFlight);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setConnectionRequestTimeout(connectTimeout)
+            .setSocketTimeout(socketTimeout)
+            .build();
+
+        client = HttpAsyncClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(KEEP_ALIVE_STRATEGY)
+            .setThreadFactory(daemonThreads(name + "-reactor-"))
+            .build();
+        client.start();
+
+        // The non-blocking connection manager doesn't evict connections by itself
+        evictor = Executors.newSingleThreadScheduledExecutor(daemonThreads(name + "-evictor-"));
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(DEFAULT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }, EVICT_INTERVAL_MILLIS, EVICT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Make sure the pooled connections (and the I/O threads) are released if the JVM is shut
+        // down without the adapter being explicitly destroyed
+        shutdownHook = new Thread(name + "-shutdown") {
+            @Override
+            public void run() {
+                closeQuietly();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Sends the request without blocking and passes the response to the handler on the executor
+     * (never on one of the I/O threads). The returned future completes with the value returned by
+     * the handler, or with the IOException or BridgeError that the request or the handler failed
+     * with. The executor must run the handler on another thread, because the handler blocks while
+     * it waits for the rest of the response. If the executor has fewer threads than there are
+     * connections, the responses that are queued behind the running handlers simply aren't read
+     * from their connections until a thread is free.
+     *
+     * The returned future fails right away with an IOException if every connection is busy and the
+     * queue of waiting requests is full.
+     *
+     * @param request
+     * @param handler
+     * @param executor The executor that runs the handler
+     * @return
+     */
+    public <T> CompletableFuture<T> execute(HttpUriRequest request, ResponseHandler<T> handler, Executor executor) {
+        Pending<T> pending = new Pending<T>(request, handler, executor);
+        if (closed) {
+            pending.fail(new IOException("The ECS http transport has been shut down."));
+        } else if (waitingCount.incrementAndGet() > maxWaiting && inFlight.get() >= maxInFlight) {
+            waitingCount.decrementAndGet();
+            pending.fail(new IOException("Too many ECS requests are waiting to be sent ("+maxWaiting
+                +" are already waiting for one of the "+maxInFlight+" connections)."));
+        } else {
+            waiting.add(pending);
+            dispatch();
+        }
+        return pending.future;
+    }
+
+    /** The number of requests that are waiting for one of the requests in flight to complete */
+    public int getWaiting() {
+        return waitingCount.get();
+    }
+
+    /** The number of requests that have been sent and haven't completed yet */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Sends waiting requests while there is room for more requests in flight.
+     */
+    private void dispatch() {
+        while (!waiting.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) return;
+            if (!inFlight.compareAndSet(current, current + 1)) continue;
+            Pending<?> next = waiting.poll();
+            if (next == null) {
+                inFlight.decrementAndGet();
+            } else {
+                waitingCount.decrementAndGet();
+                send(next);
+            }
+        }
+    }
+
+    private <T> void send(final Pending<T> pending) {
+        try {
+            client.execute(HttpAsyncMethods.create(pending.request), new ResponseStream(pending), new FutureCallback<Void>() {
+                @Override
+                public void completed(Void result) {
+                    release();
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    release();
+                    pending.fail(e);
+                }
+
+                @Override
+                public void cancelled() {
+                    release();
+                    pending.fail(new IOException("The ECS request was cancelled."));
+                }
+            });
+        } catch (RuntimeException e) {
+            // The client has been shut down
+            release();
+            pending.fail(new IOException("The ECS http transport has been shut down.", e));
+        }
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        dispatch();
+    }
+
+    /**
+     * Closes the pooled connections held by the transport. Safe to call more than once.
+     */
+    public void close() {
+        closeQuietly();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down (the hook is running or has run)
+        }
+    }
+
+    private synchronized void closeQuietly() {
+        if (closed) return;
+        closed = true;
+        evictor.shutdownNow();
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.warn("There was a problem closing the ECS http client.", e);
+        }
+        // Fail the requests that were still waiting to be sent
+        Pending<?> next;
+        while ((next = waiting.poll()) != null) {
+            waitingCount.decrementAndGet();
+            next.fail(new IOException("The ECS http transport has been shut down."));
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Honors the Keep-Alive header timeout if one is returned, otherwise falls back to the default
+     * keep alive duration.
+     */
+    private static final ConnectionKeepAliveStrategy KEEP_ALIVE_STRATEGY = new ConnectionKeepAliveStrategy() {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if (element.getValue() != null && element.getName().equalsIgnoreCase("timeout")) {
+                    try {
+                        return Long.parseLong(element.getValue()) * 1000;
+                    } catch (NumberFormatException e) {
+                        // Ignore the malformed value and use the default
+                    }
+                }
+            }
+            return DEFAULT_KEEP_ALIVE_MILLIS;
+        }
+    };
+
+    /**
+     * A request that has been handed to the transport, along with the future for its result.
+     */
+    private static class Pending<T> {
+        private final HttpUriRequest request;
+        private final ResponseHandler<T> handler;
+        private final Executor executor;
+        private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        private Pending(HttpUriRequest request, ResponseHandler<T> handler, Executor executor) {
+            this.request = request;
+            this.handler = handler;
+            this.executor = executor;
+        }
+
+        private void handle(final int statusCode, final HttpEntity entity) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.complete(handler.handleResponse(statusCode, entity));
+                        } catch (Exception e) {
+                            future.completeExceptionally(e);
+                        } finally {
+                            // Read (and discard) whatever the handler left, so the connection can
+                            // be reused
+                            if (entity != null) {
+                                try {
+                                    entity.getContent().close();
+                                } catch (IOException e) {
+                                    // The response failed, and the future has already failed with it
+                                }
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                fail(new IOException("The ECS response could not be handled because the adapter was destroyed.", e));
+            }
+        }
+
+        private void fail(Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Streams a response to its pending request: the handler is started when the response headers
+     * are received, and its entity reads the body from a buffer that the I/O thread fills as the
+     * body is received. The I/O thread suspends input while the buffer is full (the handler asks for
+     * more input as it reads), so at most the buffer is held in memory for each response.
+     */
+    private static class ResponseStream implements HttpAsyncResponseConsumer<Void> {
+        private final Pending<?> pending;
+        private volatile SharedInputBuffer buffer;
+        private volatile Exception exception;
+        private volatile boolean done = false;
+
+        private ResponseStream(Pending<?> pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) {
+            HttpEntity received = response.getEntity();
+            BasicHttpEntity entity = null;
+            if (received != null) {
+                buffer = new SharedInputBuffer(RESPONSE_BUFFER_SIZE);
+                entity = new BasicHttpEntity();
+                entity.setContent(new ContentInputStream(buffer));
+                entity.setContentLength(received.getContentLength());
+                entity.setContentType(received.getContentType());
+                entity.setContentEncoding(received.getContentEncoding());
+            }
+            pending.handle(response.getStatusLine().getStatusCode(), entity);
+        }
+
+        @Override
+        public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            buffer.consumeContent(decoder, ioControl);
+            // The buffer suspends input when the end of the body fills it, and the connection would
+            // be reused for the next request with its input still suspended
+            if (decoder.isCompleted()) ioControl.requestInput();
+        }
+
+        @Override
+        public void responseCompleted(HttpContext context) {
+            done = true;
+        }
+
+        @Override
+        public void failed(Exception e) {
+            abort(e);
+        }
+
+        @Override
+        public boolean cancel() {
+            abort(new IOException("The ECS request was cancelled."));
+            return true;
+        }
+
+        @Override
+        public void close() {
+            abort(new IOException("The ECS response was closed before it was received."));
+        }
+
+        /**
+         * Fails the request (before the handler sees the interrupted stream, so the request fails
+         * with the cause rather than the interruption) and wakes up the handler if it is waiting for
+         * more of the response.
+         */
+        private void abort(Exception e) {
+            if (done) return;
+            done = true;
+            exception = e;
+            pending.fail(e);
+            if (buffer != null) buffer.shutdown();
+        }
+
+        @Override
+        public Exception getException() {
+            return exception;
+        }
+
+        @Override
+        public Void getResult() {
+            return null;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+    }
+
+    /**
+     * Handles the response to a request executed by the transport. The handler runs while the
+     * response is still being received, so reading the entity can block until more of the body
+     * arrives. The handler doesn't need to consume or close the entity.
+     */
+    public static interface ResponseHandler<T> {
+        T handleResponse(int statusCode, HttpEntity entity) throws IOException, BridgeError;
+    }
+
+}
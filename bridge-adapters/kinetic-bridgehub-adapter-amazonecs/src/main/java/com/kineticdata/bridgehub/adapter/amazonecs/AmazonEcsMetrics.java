@@ -0,0 +1,331 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the ECS calls and the steps of a search, keyed by name (for
+ * example ecs.DescribeTasks for the ECS calls, http.DescribeTasks for each http request that was
+ * made for them, or join, filter and sort for the search steps).
+ *
+ * Recording only adds to striped counters (LongAdder, so concurrent calls to the same ECS action
+ * don't contend on a single counter, and there are no locks), and the latency histograms have fixed
+ * buckets (four per power of two microseconds), so percentiles are accurate to within 25%.
+ * The metrics are exposed through the AmazonEcsMetricsMXBean and as a snapshot map.
+ */
+class AmazonEcsMetrics implements AmazonEcsMetricsMXBean {
+
+    private final ConcurrentMap<String,Metric> metrics = new ConcurrentHashMap<String,Metric>();
+
+    /**
+     * Returns the metric with the name, creating it if it doesn't exist yet.
+     */
+    public Metric get(String name) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            Metric created = new Metric();
+            metric = metrics.putIfAbsent(name, created);
+            if (metric == null) metric = created;
+        }
+        return metric;
+    }
+
+    /**
+     * Returns the current value of every metric, keyed by the metric name and then by the statistic
+     * (calls, errors, throttles, retries, responseBytes, records, meanMillis, p50Millis, p95Millis,
+     * p99Millis and maxMillis).
+     */
+    public Map<String,Map<String,Number>> snapshot() {
+        Map<String,Map<String,Number>> snapshot = new TreeMap<String,Map<String,Number>>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Zeroes every metric in place, so the calls that are in flight (which already hold their
+     * metric) are still counted after the reset.
+     */
+    @Override
+    public void reset() {
+        for (Metric metric : metrics.values()) {
+            metric.reset();
+        }
+    }
+
+    @Override
+    public Map<String,Long> getCalls() {
+        Map<String,Long> values = new TreeMap<String,Long>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().calls.sum());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String,Long> getErrors() {
+        Map<String,Long> values = new TreeMap<String,Long>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().errors.sum());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String,Long> getThrottles() {
+        Map<String,Long> values = new TreeMap<String,Long>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().throttles.sum());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String,Long> getRetries() {
+        Map<String,Long> values = new TreeMap<String,Long>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().retries.sum());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String,Long> getResponseBytes() {
+        Map<String,Long> values = new TreeMap<String,Long>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().responseBytes.sum());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String,Long> getRecords() {
+        Map<String,Long> values = new TreeMap<String,Long>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().records.sum());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String,Double> getMeanMillis() {
+        Map<String,Double> values = new TreeMap<String,Double>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().latency.mean());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String,Double> getP50Millis() {
+        return percentiles(0.50);
+    }
+
+    @Override
+    public Map<String,Double> getP95Millis() {
+        return percentiles(0.95);
+    }
+
+    @Override
+    public Map<String,Double> getP99Millis() {
+        return percentiles(0.99);
+    }
+
+    @Override
+    public Map<String,Double> getMaxMillis() {
+        Map<String,Double> values = new TreeMap<String,Double>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().latency.max());
+        }
+        return values;
+    }
+
+    private Map<String,Double> percentiles(double percentile) {
+        Map<String,Double> values = new TreeMap<String,Double>();
+        for (Map.Entry<String,Metric> entry : metrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().latency.percentile(percentile));
+        }
+        return values;
+    }
+
+    /**
+     * The counters and latency histogram for a single name.
+     */
+    static class Metric {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder throttles = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final LongAdder records = new LongAdder();
+        private final Histogram latency = new Histogram();
+
+        /**
+         * Records a call that was started at the System.nanoTime value.
+         */
+        public void record(long startedNanos, boolean succeeded) {
+            calls.increment();
+            if (!succeeded) errors.increment();
+            latency.record(System.nanoTime() - startedNanos);
+        }
+
+        public void throttled() {
+            throttles.increment();
+        }
+
+        public void retried() {
+            retries.increment();
+        }
+
+        public void addRecords(long count) {
+            records.add(count);
+        }
+
+        /**
+         * Wraps the response stream so that the bytes read from it are added to the response bytes.
+         */
+        public InputStream countBytes(InputStream stream) {
+            return new FilterInputStream(stream) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) responseBytes.increment();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) responseBytes.add(read);
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    long skipped = super.skip(n);
+                    if (skipped > 0) responseBytes.add(skipped);
+                    return skipped;
+                }
+            };
+        }
+
+        private void reset() {
+            calls.reset();
+            errors.reset();
+            throttles.reset();
+            retries.reset();
+            responseBytes.reset();
+            records.reset();
+            latency.reset();
+        }
+
+        private Map<String,Number> snapshot() {
+            Map<String,Number> snapshot = new TreeMap<String,Number>();
+            snapshot.put("calls", calls.sum());
+            snapshot.put("errors", errors.sum());
+            snapshot.put("throttles", throttles.sum());
+            snapshot.put("retries", retries.sum());
+            snapshot.put("responseBytes", responseBytes.sum());
+            snapshot.put("records", records.sum());
+            snapshot.put("meanMillis", latency.mean());
+            snapshot.put("p50Millis", latency.percentile(0.50));
+            snapshot.put("p95Millis", latency.percentile(0.95));
+            snapshot.put("p99Millis", latency.percentile(0.99));
+            snapshot.put("maxMillis", latency.max());
+            return snapshot;
+        }
+    }
+
+    /**
+     * A latency histogram with four buckets per power of two microseconds (the first four buckets
+     * hold 0 to 3 microseconds exactly).
+     */
+    static class Histogram {
+        private static final int SUB_BUCKETS = 4;
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+        private final LongAdder[] counts = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        public Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            counts[bucket(TimeUnit.NANOSECONDS.toMicros(nanos))].increment();
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i].reset();
+            }
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        public double max() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * Returns the upper bound (in milliseconds) of the bucket that holds the percentile.
+         */
+        public double percentile(double percentile) {
+            long n = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts[i].sum();
+                n += snapshot[i];
+            }
+            if (n == 0) return 0;
+            long rank = (long)Math.ceil(percentile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank && snapshot[i] > 0) {
+                    return Math.min(upperBound(i), TimeUnit.NANOSECONDS.toMicros(maxNanos.get())) / 1e3;
+                }
+            }
+            return max();
+        }
+
+        static int bucket(long micros) {
+            if (micros < SUB_BUCKETS) return (int)micros;
+            int power = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int)(micros >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (power - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int power = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << (power - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+}
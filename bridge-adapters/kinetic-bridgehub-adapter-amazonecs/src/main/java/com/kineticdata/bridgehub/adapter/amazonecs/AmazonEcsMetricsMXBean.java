@@ -0,0 +1,37 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the adapter metrics. Each attribute is keyed by the metric name (for example
+ * ecs.DescribeTasks, http.DescribeTasks, join, filter or sort), and the latencies are in
+ * milliseconds.
+ */
+public interface AmazonEcsMetricsMXBean {
+
+    Map<String,Long> getCalls();
+
+    Map<String,Long> getErrors();
+
+    Map<String,Long> getThrottles();
+
+    Map<String,Long> getRetries();
+
+    Map<String,Long> getResponseBytes();
+
+    Map<String,Long> getRecords();
+
+    Map<String,Double> getMeanMillis();
+
+    Map<String,Double> getP50Millis();
+
+    Map<String,Double> getP95Millis();
+
+    Map<String,Double> getP99Millis();
+
+    Map<String,Double> getMaxMillis();
+
+    /** Zeroes every metric (the calls in flight are still counted once they complete) */
+    void reset();
+
+}
@@ -0,0 +1,353 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory mirror of the clusters, tasks and container instances of the configured clusters
+ * (or every cluster in the region if none are configured), kept up to date by a background refresh.
+ *
+ * Each refresh lists the task and container instance Arns of every cluster and diffs them against
+ * the previous snapshot, only describing the Arns that are new and the tasks that are transitioning
+ * between states (their last status isn't their desired status yet). Container instances are
+ * re-described when their cluster's description changed (for example its task counts), and every
+ * object is re-described on a full refresh every few cycles to pick up any other changes.
+ *
+ * The tasks and container instances of each cluster are held in indexed record stores, so the
+ * common equality predicates are answered from the indexes. A refresh builds new stores from the
+ * previous ones (only the objects that were added or replaced are indexed) and then publishes them
+ * all at once in a new snapshot, so a request always sees a complete refresh. The mirrored objects
+ * are shared between requests, so callers must copy an object before making any changes to it.
+ */
+class AmazonEcsMirror {
+
+    /** Defines the logger */
+    protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(AmazonEcsMirror.class);
+
+    /** Default values used when the corresponding adapter properties are left blank. */
+    public static final int DEFAULT_REFRESH_INTERVAL_SECONDS = 30;
+    public static final int DEFAULT_FULL_REFRESH_CYCLES = 10;
+
+    /**
+     * A snapshot older than this many refresh intervals (for example because the refreshes have
+     * been failing) is no longer used to answer requests.
+     */
+    private static final int MAX_STALE_INTERVALS = 3;
+
+    /** The cluster ECS uses when a request doesn't include one */
+    private static final String DEFAULT_CLUSTER = "default";
+
+    /**
+     * The List call parameters (other than the cluster) that can be answered from the mirror,
+     * because they are evaluated against a field of the same name by the client side filter.
+     */
+    private static final Map<String,List<String>> MIRRORED_PARAMETERS = Collections.unmodifiableMap(new HashMap<String,List<String>>() {{
+        put("Clusters", Arrays.<String>asList());
+        put("ContainerInstances", Arrays.asList("cluster"));
+        put("Tasks", Arrays.asList("cluster","startedBy","launchType"));
+    }});
+
+    /**
+     * Lists and describes the ECS objects for the mirror (the adapter makes the actual calls).
+     */
+    static interface Source {
+        /** Returns every Arn of the structure (in the cluster, if one is given) */
+        List<String> listArns(String structure, String cluster) throws BridgeError;
+        /** Describes the Arns (in the cluster, if one is given) without using any cached objects */
+        List<Map> describe(String structure, List<String> arns, String cluster) throws BridgeError;
+    }
+
+    private final Source source;
+    private final List<String> clusters;
+    private final List<String> indexedTaskFields;
+    private final List<String> indexedContainerInstanceFields;
+    private final long refreshIntervalMillis;
+    private final int fullRefreshCycles;
+    private final ScheduledExecutorService scheduler;
+    private volatile Snapshot snapshot;
+    // Only used by the refresh thread
+    private int cycle = 0;
+    private int described = 0;
+
+    /**
+     * @param source
+     * @param clusters The names or Arns of the clusters to mirror (empty to mirror every cluster)
+     * @param indexedTaskFields The fields of the tasks to index
+     * @param indexedContainerInstanceFields The fields of the container instances to index
+     * @param refreshIntervalSeconds The delay between the end of a refresh and the start of the next
+     * @param fullRefreshCycles Every object is re-described once every this many refreshes
+     */
+    public AmazonEcsMirror(Source source, List<String> clusters, List<String> indexedTaskFields,
+        List<String> indexedContainerInstanceFields, int refreshIntervalSeconds, int fullRefreshCycles
+    ) {
+        this.source = source;
+        this.clusters = new ArrayList<String>(clusters);
+        this.indexedTaskFields = new ArrayList<String>(indexedTaskFields);
+        this.indexedContainerInstanceFields = new ArrayList<String>(indexedContainerInstanceFields);
+        this.refreshIntervalMillis = refreshIntervalSeconds * 1000L;
+        this.fullRefreshCycles = Math.max(fullRefreshCycles, 1);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AmazonEcsMirror-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts refreshing the mirror in the background (the first refresh starts immediately).
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    // Keep the previous snapshot, it is only used until it becomes too stale
+                    logger.error("There was a problem refreshing the ECS mirror.", e);
+                }
+            }
+        }, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Returns the current snapshot, or null if there isn't one or it is too stale to be used.
+     */
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null || current.getAge() > refreshIntervalMillis * MAX_STALE_INTERVALS) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the mirrored objects that the query would List and Describe, or null if the query
+     * can't be answered from the snapshot (the structure or cluster isn't mirrored, the query uses
+     * a List parameter that only ECS can evaluate or one of the requested Arns isn't mirrored).
+     * Predicates on indexed fields are answered from the indexes, the rest are returned with the
+     * selected objects to be checked by the caller.
+     *
+     * @param snapshot
+     * @param structure
+     * @param query
+     * @return
+     */
+    public AmazonEcsRecordStore.Selection objects(Snapshot snapshot, String structure, AmazonEcsQueryPlan.Bound query) {
+        List<String> mirroredParameters = MIRRORED_PARAMETERS.get(structure);
+        if (snapshot == null || mirroredParameters == null) return null;
+        if (query.getArns() == null && query.getListCalls().isEmpty()) return null;
+        for (Map<String,Object> listCall : query.getListCalls()) {
+            for (String parameter : AmazonEcsQueryPlan.LIST_PARAMETERS.get(structure)) {
+                if (listCall.containsKey(parameter) && !mirroredParameters.contains(parameter)) {
+                    return null;
+                }
+            }
+        }
+
+        // The cluster was resolved by picking the mirrored cluster, so it doesn't need to be checked
+        List<AmazonEcsQueryPlan.Predicate> predicates = new ArrayList<AmazonEcsQueryPlan.Predicate>();
+        for (AmazonEcsQueryPlan.Predicate predicate : query.getPredicates()) {
+            if (structure.equals("Clusters") || !predicate.getKey().equals("cluster")
+                || predicate.getOperator() != AmazonEcsQueryPlan.Operator.EQUALS
+            ) {
+                predicates.add(predicate);
+            }
+        }
+
+        if (structure.equals("Clusters")) {
+            // Only every cluster can be listed from the mirror if every cluster is mirrored
+            if (query.getArns() == null && !clusters.isEmpty()) return null;
+            if (query.getArns() == null) {
+                return new AmazonEcsRecordStore.Selection(new ArrayList<Map>(snapshot.clusters.values()), predicates);
+            }
+            List<Map> arnObjects = new ArrayList<Map>(query.getArns().size());
+            for (String arn : query.getArns()) {
+                Map object = snapshot.clusters.get(arn);
+                if (object == null) return null;
+                arnObjects.add(object);
+            }
+            return new AmazonEcsRecordStore.Selection(arnObjects, predicates);
+        }
+
+        ClusterSnapshot cluster = snapshot.clustersByName.get(
+            query.getCluster() == null ? DEFAULT_CLUSTER : query.getCluster());
+        if (cluster == null) return null;
+        AmazonEcsRecordStore store = structure.equals("Tasks") ? cluster.tasks : cluster.containerInstances;
+
+        if (query.getArns() == null) {
+            return store.select(predicates);
+        }
+        List<Map> arnObjects = new ArrayList<Map>(query.getArns().size());
+        for (String arn : query.getArns()) {
+            Map object = store.get(arn);
+            if (object == null) return null;
+            arnObjects.add(object);
+        }
+        return new AmazonEcsRecordStore.Selection(arnObjects, predicates);
+    }
+
+    /**
+     * Refreshes the mirror and publishes the new snapshot.
+     */
+    void refresh() throws BridgeError {
+        long startedAt = System.currentTimeMillis();
+        Snapshot previous = snapshot;
+        boolean full = previous == null || ++cycle % fullRefreshCycles == 0;
+        described = 0;
+
+        // Clusters are always re-described (one call for up to 100 clusters)
+        List<String> clusterIds = clusters.isEmpty() ? source.listArns("Clusters", null) : clusters;
+        Map<String,Map> clusterObjects = new LinkedHashMap<String,Map>();
+        if (!clusterIds.isEmpty()) {
+            for (Map cluster : source.describe("Clusters", clusterIds, null)) {
+                clusterObjects.put((String)cluster.get("clusterArn"), cluster);
+            }
+        }
+
+        Map<String,ClusterSnapshot> clustersByName = new HashMap<String,ClusterSnapshot>();
+        for (Map.Entry<String,Map> entry : clusterObjects.entrySet()) {
+            String clusterArn = entry.getKey();
+            ClusterSnapshot previousCluster = previous == null ? null : previous.clustersByName.get(clusterArn);
+            boolean clusterChanged = previousCluster == null || !previousCluster.cluster.equals(entry.getValue());
+
+            // New stores are built from the stores of a cluster that was already mirrored (which
+            // are still being read from the current snapshot)
+            AmazonEcsRecordStore tasks = refresh("Tasks", clusterArn, previousCluster == null
+                ? new AmazonEcsRecordStore(indexedTaskFields)
+                : previousCluster.tasks, full);
+            AmazonEcsRecordStore containerInstances = refresh("ContainerInstances", clusterArn, previousCluster == null
+                ? new AmazonEcsRecordStore(indexedContainerInstanceFields)
+                : previousCluster.containerInstances, full || clusterChanged);
+
+            ClusterSnapshot clusterSnapshot = new ClusterSnapshot(entry.getValue(), tasks, containerInstances);
+            clustersByName.put(clusterArn, clusterSnapshot);
+            clustersByName.put((String)entry.getValue().get("clusterName"), clusterSnapshot);
+        }
+
+        // Every new store is published at once. The snapshot is as old as the start of the refresh
+        // (the first object could have been listed or described then), and the objects that weren't
+        // re-described are as old as the start of the last full refresh
+        long completedAt = System.currentTimeMillis();
+        snapshot = new Snapshot(clusterObjects, clustersByName, startedAt, full ? startedAt : previous.describedSince);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Refreshed the ECS mirror ("+clusterObjects.size()+" clusters, "+described
+                +" objects described, "+(full ? "full" : "incremental")+") in "
+                +(completedAt-startedAt)+"ms.");
+        }
+    }
+
+    /**
+     * Lists the Arns of the structure in the cluster and returns a new store that holds the objects
+     * for them, re-using the objects of the previous store that haven't changed (the previous store
+     * isn't changed).
+     */
+    private AmazonEcsRecordStore refresh(String structure, String cluster, AmazonEcsRecordStore store, boolean all) throws BridgeError {
+        String arnField = AmazonEcsQueryPlan.structureKeyIdentifier(structure).concat("Arn");
+        List<String> arns = source.listArns(structure, cluster);
+
+        List<String> describeArns = new ArrayList<String>();
+        for (String arn : arns) {
+            Map object = store.get(arn);
+            if (all || object == null || isTransitioning(structure, object)) {
+                describeArns.add(arn);
+            }
+        }
+        Map<String,Map> describedObjects = new HashMap<String,Map>();
+        if (!describeArns.isEmpty()) {
+            for (Map object : source.describe(structure, describeArns, cluster)) {
+                describedObjects.put((String)object.get(arnField), object);
+            }
+        }
+
+        // Keep the objects in the order they were listed (Arns that disappeared are dropped)
+        Map<String,Map> objects = new LinkedHashMap<String,Map>();
+        for (String arn : arns) {
+            Map object = describedObjects.containsKey(arn) ? describedObjects.get(arn) : store.get(arn);
+            if (object != null) objects.put(arn, object);
+        }
+        described += describedObjects.size();
+        return store.update(objects);
+    }
+
+    private static boolean isTransitioning(String structure, Map object) {
+        if (structure.equals("Tasks")) {
+            Object lastStatus = object.get("lastStatus");
+            return lastStatus == null || !lastStatus.equals(object.get("desiredStatus"));
+        }
+        return false;
+    }
+
+    /**
+     * The mirrored clusters (and the stores of their tasks and container instances) as of a refresh.
+     */
+    static class Snapshot {
+        private final Map<String,Map> clusters;
+        private final Map<String,ClusterSnapshot> clustersByName;
+        private final long refreshedAt;
+        private final long describedSince;
+
+        private Snapshot(Map<String,Map> clusters, Map<String,ClusterSnapshot> clustersByName,
+            long refreshedAt, long describedSince
+        ) {
+            this.clusters = Collections.unmodifiableMap(clusters);
+            this.clustersByName = Collections.unmodifiableMap(clustersByName);
+            this.refreshedAt = refreshedAt;
+            this.describedSince = describedSince;
+        }
+
+        /** When the refresh that built the snapshot started */
+        public long getRefreshedAt() {
+            return refreshedAt;
+        }
+
+        /** When the last full refresh (which re-described every object) started */
+        public long getDescribedSince() {
+            return describedSince;
+        }
+
+        /** How long ago the snapshot was refreshed, in milliseconds */
+        public long getAge() {
+            return System.currentTimeMillis() - refreshedAt;
+        }
+
+        /**
+         * How old the oldest mirrored object could be, in milliseconds (objects that haven't
+         * changed state are only re-described by a full refresh).
+         */
+        public long getStaleness() {
+            return System.currentTimeMillis() - describedSince;
+        }
+    }
+
+    private static class ClusterSnapshot {
+        private final Map cluster;
+        private final AmazonEcsRecordStore tasks;
+        private final AmazonEcsRecordStore containerInstances;
+
+        private ClusterSnapshot(Map cluster, AmazonEcsRecordStore tasks, AmazonEcsRecordStore containerInstances) {
+            this.cluster = cluster;
+            this.tasks = tasks;
+            this.containerInstances = containerInstances;
+        }
+    }
+
+}
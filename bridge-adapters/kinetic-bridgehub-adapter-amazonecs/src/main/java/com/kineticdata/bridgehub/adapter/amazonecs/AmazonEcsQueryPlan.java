@@ -0,0 +1,683 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.QualificationParser;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A parsed bridge query for one of the adapter's structures. The query template (the query before
+ * the bridge parameters are substituted in) is split into its key=value parts once, and each part is
+ * classified as the structure Arn list, the cluster, a parameter for the List call, a field from
+ * another structure and/or a client side predicate.
+ *
+ * Besides key=value (equality, or membership when the value is a [a,b] list), client side
+ * predicates can be written as key!=value (not equal, or not in a [a,b] list) and key^=value (the
+ * field starts with the value).
+ *
+ * Plans are cached by the structure and query template, so binding the parameters of a request to a
+ * cached plan only needs to substitute the parameter values (parts without any parameters are
+ * parsed once and re-used as is). The template is split outside of the <%= %> parameter tokens, so
+ * a token can contain & and = characters. A template whose parameters can change the parts of the
+ * query (a parameter in a key, or a parameter value containing an &) is bound by substituting the
+ * parameters into the whole query first and compiling (and caching) a plan for the result.
+ */
+class AmazonEcsQueryPlan {
+
+    /**
+     * The request parameters (other than the paging parameters) that ECS evaluates in the List call
+     * for each structure. An equality or in-list part on one of these keys is pushed down to the
+     * List call (a list of values as one List call for each value) and isn't checked again client
+     * side, any other query part is left out of the List call and checked client side.
+     */
+    static final Map<String,List<String>> LIST_PARAMETERS = Collections.unmodifiableMap(new HashMap<String,List<String>>() {{
+        put("Clusters", Arrays.<String>asList());
+        put("ContainerInstances", Arrays.asList("cluster","filter","status"));
+        put("Tasks", Arrays.asList("cluster","containerInstance","family","startedBy","serviceName","desiredStatus","launchType"));
+        put("TaskDefinitions", Arrays.asList("familyPrefix","status","sort"));
+    }});
+
+    /**
+     * The List parameters that ECS gives a default value when they are left out (ListTasks only
+     * lists the RUNNING tasks and ListTaskDefinitions the ACTIVE definitions), with every value they
+     * can be given. A negated or prefix predicate on one of these keys is pushed down as one List
+     * call for each of the values it matches, since checking it against the default List results
+     * would miss every object ECS leaves out by default.
+     */
+    static final Map<String,Map<String,List<String>>> DEFAULTED_LIST_PARAMETERS = Collections.unmodifiableMap(new HashMap<String,Map<String,List<String>>>() {{
+        put("Clusters", Collections.<String,List<String>>emptyMap());
+        put("ContainerInstances", Collections.<String,List<String>>emptyMap());
+        put("Tasks", Collections.singletonMap("desiredStatus", Arrays.asList("RUNNING","PENDING","STOPPED")));
+        put("TaskDefinitions", Collections.singletonMap("status", Arrays.asList("ACTIVE","INACTIVE","DELETE_IN_PROGRESS")));
+    }});
+
+    /**
+     * The List parameters that only take a single value and can't be split into one List call per
+     * value (the cluster is fanned out separately, a filter expression or sort order of each value
+     * would list the same objects more than once).
+     */
+    private static final List<String> SINGLE_VALUED_LIST_PARAMETERS = Arrays.asList("cluster","filter","sort");
+
+    /**
+     * The List parameters that aren't a field of the described objects (ECS matches them against
+     * something else, for example the family of a task's definition), so only ECS can evaluate them.
+     */
+    private static final Map<String,List<String>> LIST_ONLY_PARAMETERS = Collections.unmodifiableMap(new HashMap<String,List<String>>() {{
+        put("Clusters", Arrays.<String>asList());
+        put("ContainerInstances", Arrays.asList("cluster","filter"));
+        put("Tasks", Arrays.asList("cluster","containerInstance","family","serviceName"));
+        put("TaskDefinitions", Arrays.asList("familyPrefix","sort"));
+    }});
+
+    /** The List parameters that match the start of a value (so a longer prefix is redundant) */
+    private static final List<String> PREFIX_LIST_PARAMETERS = Arrays.asList("familyPrefix");
+
+    /** The most List calls that a query can be split into */
+    static final int MAX_LIST_CALLS = 50;
+
+    /** The List call paging parameters that can be given in the query */
+    private static final List<String> PAGING_PARAMETERS = Arrays.asList("maxResults");
+
+    /** The markers that start and end a bridge parameter in a query template */
+    private static final String PARAMETER_MARKER = "<%=";
+    private static final String PARAMETER_END_MARKER = "%>";
+
+    private final String structure;
+    private final String structureKeyIdentifier;
+    private final List<Part> parts;
+    /** True if a parameter is used outside of a value (so it can change the parts of the query) */
+    private final boolean parameterizedKeys;
+
+    private AmazonEcsQueryPlan(String structure, List<Part> parts, boolean parameterizedKeys) {
+        this.structure = structure;
+        this.structureKeyIdentifier = structureKeyIdentifier(structure);
+        this.parts = parts;
+        this.parameterizedKeys = parameterizedKeys;
+    }
+
+    /**
+     * Parses the query template into a plan.
+     *
+     * @param structure
+     * @param template The query (key=value pairs separated by &) before the bridge parameters have
+     *   been substituted in
+     * @param retrieve If true, a single structure Arn (for example taskArn=... or arn=...) is treated
+     *   as a structure Arn list with one Arn
+     * @return
+     */
+    public static AmazonEcsQueryPlan compile(String structure, String template, boolean retrieve) {
+        return compile(structure, template, retrieve, true);
+    }
+
+    /**
+     * Parses the query into a plan.
+     *
+     * @param structure
+     * @param query
+     * @param retrieve
+     * @param templated False if the parameters have already been substituted into the query (so
+     *   nothing in it is treated as a parameter)
+     * @return
+     */
+    private static AmazonEcsQueryPlan compile(String structure, String query, boolean retrieve, boolean templated) {
+        String structureKeyIdentifier = structureKeyIdentifier(structure);
+        List<Part> parts = new ArrayList<Part>();
+        boolean parameterizedKeys = false;
+        if (query != null) {
+            for (String part : split(query, '&', templated)) {
+                if (part.trim().isEmpty()) continue;
+                int index = indexOf(part, '=', templated);
+                String key = (index == -1 ? part : part.substring(0, index)).trim();
+                String value = index == -1 ? "" : part.substring(index + 1).trim();
+                if (templated && key.contains(PARAMETER_MARKER)) parameterizedKeys = true;
+
+                Operator operator = Operator.EQUALS;
+                if (key.endsWith("!")) {
+                    operator = Operator.NOT_EQUALS;
+                } else if (key.endsWith("^")) {
+                    operator = Operator.PREFIX;
+                }
+                if (operator != Operator.EQUALS) key = key.substring(0, key.length()-1).trim();
+
+                Kind kind;
+                if (operator != Operator.EQUALS) {
+                    kind = Kind.PARAMETER;
+                } else if (key.equals(structureKeyIdentifier.concat("Arns"))) {
+                    kind = Kind.ARNS;
+                } else if (retrieve && (key.equals(structureKeyIdentifier.concat("Arn")) || key.equalsIgnoreCase("arn"))) {
+                    kind = Kind.ARN;
+                } else if (key.equals("cluster") && !structure.equals("Clusters") && !structure.equals("TaskDefinitions")) {
+                    kind = Kind.CLUSTER;
+                } else {
+                    kind = Kind.PARAMETER;
+                }
+                parts.add(new Part(key, value, kind, operator, templated));
+            }
+        }
+        return new AmazonEcsQueryPlan(structure, parts, parameterizedKeys);
+    }
+
+    /**
+     * Splits the query at each separator that isn't inside a parameter token.
+     */
+    private static List<String> split(String query, char separator, boolean templated) {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        for (int index = indexOf(query, separator, templated, 0); index != -1; index = indexOf(query, separator, templated, start)) {
+            parts.add(query.substring(start, index));
+            start = index + 1;
+        }
+        parts.add(query.substring(start));
+        return parts;
+    }
+
+    private static int indexOf(String text, char character, boolean templated) {
+        return indexOf(text, character, templated, 0);
+    }
+
+    /**
+     * Returns the index of the first occurrence of the character (from the index) that isn't inside
+     * a parameter token, or -1 if there isn't one.
+     */
+    private static int indexOf(String text, char character, boolean templated, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (templated && text.startsWith(PARAMETER_MARKER, i)) {
+                int end = text.indexOf(PARAMETER_END_MARKER, i + PARAMETER_MARKER.length());
+                if (end == -1) return text.indexOf(character, i);
+                i = end + PARAMETER_END_MARKER.length() - 1;
+            } else if (text.charAt(i) == character) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if substituting the parameters changes the parts of the query (a key contains a
+     * parameter, or a substituted value contains an &), so the plan can't be bound as is.
+     */
+    private boolean isRestructuredBy(QualificationParser parser, Map<String,String> parameters) throws BridgeError {
+        if (parameterizedKeys) return true;
+        for (Part part : parts) {
+            if (part.templated && parser.parse(part.valueTemplate, parameters).indexOf('&') != -1) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds an already bound query that describes the Arns (in the cluster, if one is given).
+     */
+    public static Bound forArns(String structure, List<String> arns, String cluster) {
+        return new Bound(structureKeyIdentifier(structure), new LinkedHashMap<String,Object>(),
+            Collections.<String,List<Object>>emptyMap(), arns, cluster, Collections.<String>emptyList(), Collections.<Predicate>emptyList(),
+            Collections.<Predicate>emptyList(), Collections.<String>emptySet());
+    }
+
+    /**
+     * Substitutes the bridge parameters into the plan.
+     *
+     * @param parser The parser used to substitute the parameters into the parts that use them
+     * @param parameters The bridge request parameters
+     * @return
+     * @throws BridgeError If a parameter used by the query wasn't provided, the query would need
+     *   more than MAX_LIST_CALLS List calls, or a parameter that only ECS evaluates is used in a way
+     *   that ECS can't evaluate
+     */
+    public Bound bind(QualificationParser parser, Map<String,String> parameters) throws BridgeError {
+        Map<String,Object> listParameters = new LinkedHashMap<String,Object>();
+        // The values each pushed down key can have (the List call is made once for each value)
+        Map<String,List<Object>> listValues = new LinkedHashMap<String,List<Object>>();
+        List<String> arns = null;
+        String cluster = null;
+        List<String> structureFields = new ArrayList<String>();
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        List<Predicate> localPredicates = new ArrayList<Predicate>();
+        Set<String> queryFields = new LinkedHashSet<String>();
+
+        List<String> listParameterNames = LIST_PARAMETERS.get(structure);
+        for (Part part : parts) {
+            String text = part.templated ? parser.parse(part.valueTemplate, parameters) : part.valueTemplate;
+            Object value = part.templated ? value(part.key, text) : part.value;
+            switch (part.kind) {
+                case ARNS:
+                    arns = value instanceof List ? (List<String>)value : Arrays.asList(text);
+                    break;
+                case ARN:
+                    arns = Arrays.asList(text);
+                    break;
+                default:
+                    if (part.kind == Kind.CLUSTER) cluster = text;
+                    Operator operator = part.operator;
+                    if (value instanceof List) {
+                        if (operator == Operator.EQUALS) operator = Operator.IN;
+                        if (operator == Operator.NOT_EQUALS) operator = Operator.NOT_IN;
+                    }
+                    // The paging parameters are only passed along to the List call
+                    if (operator == Operator.EQUALS && PAGING_PARAMETERS.contains(part.key)) {
+                        listParameters.put(part.key, value);
+                        break;
+                    }
+                    Predicate predicate = new Predicate(part.key, part.path, operator, text,
+                        value instanceof List ? (List<String>)value : null);
+                    predicates.add(predicate);
+                    queryFields.add(part.key);
+                    if (part.structureField) structureFields.add(part.key);
+                    // A predicate ECS can evaluate in the List call is pushed down to it, and anything
+                    // else is left out of the List call and checked client side
+                    List<Object> pushedValues = listParameterNames.contains(part.key)
+                        ? pushedValues(part.key, operator, value, text)
+                        : null;
+                    if (pushedValues == null) {
+                        if (LIST_ONLY_PARAMETERS.get(structure).contains(part.key)) {
+                            throw new BridgeError("The '"+part.key+"' query parameter can only be used as "
+                                +(SINGLE_VALUED_LIST_PARAMETERS.contains(part.key) ? "key=value" : "key=value or key=[values]")
+                                +", since only ECS can evaluate it.");
+                        }
+                        localPredicates.add(predicate);
+                    } else if (listValues.containsKey(part.key)) {
+                        // Every predicate on the key has to match
+                        listValues.get(part.key).retainAll(pushedValues);
+                    } else {
+                        listValues.put(part.key, pushedValues);
+                    }
+            }
+        }
+        // An explicit list of Arns is described without a List call, so every predicate has to be
+        // checked client side (the cluster is the one the Arns are described in, and the other
+        // parameters that only ECS evaluates can't be checked)
+        if (arns != null) {
+            localPredicates = new ArrayList<Predicate>();
+            for (Predicate predicate : predicates) {
+                if (!LIST_ONLY_PARAMETERS.get(structure).contains(predicate.getKey())) {
+                    localPredicates.add(predicate);
+                } else if (!predicate.getKey().equals("cluster")) {
+                    throw new BridgeError("The '"+predicate.getKey()+"' query parameter can't be used with a list "
+                        +"of Arns, since only ECS can evaluate it.");
+                }
+            }
+        }
+
+        // The keys with a single value are passed to every List call
+        long listCalls = 1;
+        for (Iterator<Map.Entry<String,List<Object>>> it = listValues.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String,List<Object>> entry = it.next();
+            if (entry.getValue().size() == 1) {
+                listParameters.put(entry.getKey(), entry.getValue().get(0));
+                it.remove();
+            } else {
+                listCalls *= entry.getValue().size();
+            }
+        }
+        if (listCalls > MAX_LIST_CALLS) {
+            throw new BridgeError("The query needs "+listCalls+" List calls (one for each combination of the "
+                +"values of "+listValues.keySet()+"), but at most "+MAX_LIST_CALLS+" are made for a query.");
+        }
+
+        return new Bound(structureKeyIdentifier, listParameters, listValues, arns, cluster,
+            structureFields, predicates, localPredicates, queryFields);
+    }
+
+    /**
+     * Returns the values to list for a predicate on a List parameter, or null if the predicate
+     * can't be pushed down to the List call. An equality is listed with its value and an in-list
+     * with each of its values. A negated or prefix predicate is only pushed down on a key that ECS
+     * gives a default value, as the values of the key that it matches (the default List results are
+     * checked client side for any other key, which matches the same objects).
+     */
+    private List<Object> pushedValues(String key, Operator operator, Object value, String text) {
+        if (operator == Operator.EQUALS) {
+            return new ArrayList<Object>(Collections.singletonList(value));
+        }
+        if (SINGLE_VALUED_LIST_PARAMETERS.contains(key)) return null;
+        List<Object> values = new ArrayList<Object>();
+        if (operator == Operator.IN) {
+            for (Object item : new LinkedHashSet<Object>((List)value)) {
+                // A longer prefix only lists objects that a shorter one already lists
+                if (!PREFIX_LIST_PARAMETERS.contains(key) || !hasShorterPrefix(item.toString(), (List)value)) {
+                    values.add(item);
+                }
+            }
+            return values;
+        }
+        List<String> defaulted = DEFAULTED_LIST_PARAMETERS.get(structure).get(key);
+        if (defaulted == null) return null;
+        for (String candidate : defaulted) {
+            boolean matches;
+            switch (operator) {
+                case NOT_EQUALS:
+                    matches = !candidate.equals(text);
+                    break;
+                case NOT_IN:
+                    matches = !((List)value).contains(candidate);
+                    break;
+                default:
+                    matches = candidate.startsWith(text);
+            }
+            if (matches) values.add(candidate);
+        }
+        return values;
+    }
+
+    /** Returns true if one of the other prefixes is the start of the prefix */
+    private static boolean hasShorterPrefix(String prefix, List prefixes) {
+        for (Object other : prefixes) {
+            if (other.toString().length() < prefix.length() && prefix.startsWith(other.toString())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Build the response structure key identifier by lowercase the first letter of the structure
+     * and removing the trailing s (for example task for Tasks).
+     */
+    static String structureKeyIdentifier(String structure) {
+        return structure.substring(0, 1).toLowerCase().concat(structure.substring(1,structure.length()-1));
+    }
+
+    /**
+     * Converts a query value into the value sent to ECS. If the value is surrounded by [ ] it is
+     * turned into a string list.
+     */
+    private static Object value(String key, String value) {
+        if (value.startsWith("[") && value.endsWith("]")) {
+            return Arrays.asList(value.substring(1,value.length()-1).split(","));
+        } else if (key.equals("maxResults")) {
+            try {
+                return Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                return value;
+            }
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * Returns true if the field is a field of another structure (for example taskDefinition.family)
+     * rather than a nested field that happens to contain a period in one of its subfields.
+     */
+    static boolean isStructureField(String field) {
+        int bracketIndex = field.indexOf('[');
+        int dotIndex = field.indexOf('.');
+        return dotIndex > -1 && (bracketIndex == -1 || dotIndex < bracketIndex);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PLAN CLASSES
+     *--------------------------------------------------------------------------------------------*/
+
+    private static enum Kind { ARNS, ARN, CLUSTER, PARAMETER }
+
+    /** The comparison a client side predicate makes */
+    static enum Operator { EQUALS, NOT_EQUALS, PREFIX, IN, NOT_IN }
+
+    private static class Part {
+        private final String key;
+        private final AmazonEcsFieldPath path;
+        private final String valueTemplate;
+        private final boolean templated;
+        private final Object value;
+        private final Kind kind;
+        private final Operator operator;
+        private final boolean structureField;
+
+        private Part(String key, String valueTemplate, Kind kind, Operator operator, boolean templated) {
+            this.key = key;
+            this.path = AmazonEcsFieldPath.compile(key);
+            this.valueTemplate = valueTemplate;
+            this.templated = templated && valueTemplate.contains(PARAMETER_MARKER);
+            this.value = this.templated ? null : value(key, valueTemplate);
+            this.kind = kind;
+            this.operator = operator;
+            this.structureField = isStructureField(key);
+        }
+    }
+
+    /**
+     * A client side predicate (the record field, with any field aliases replaced, is compared to the
+     * value with the operator).
+     */
+    static class Predicate {
+        private final String key;
+        private final AmazonEcsFieldPath path;
+        private final Operator operator;
+        private final String value;
+        private final Set<String> values;
+
+        Predicate(String key, AmazonEcsFieldPath path, Operator operator, String value, List<String> values) {
+            this.key = key;
+            this.path = path;
+            this.operator = operator;
+            this.value = value;
+            this.values = values == null
+                ? Collections.<String>emptySet()
+                : Collections.unmodifiableSet(new HashSet<String>(values));
+        }
+
+        /** The key as it was written in the query */
+        public String getKey() {
+            return key;
+        }
+
+        /** The record field (the key with any field aliases replaced) */
+        public String getField() {
+            return path.getAliasedField();
+        }
+
+        /** The compiled accessor for the record field */
+        public AmazonEcsFieldPath getPath() {
+            return path;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        /** The value as it was written in the query (including the [ ] of a list) */
+        public String getValue() {
+            return value;
+        }
+
+        /** The values of an IN or NOT_IN predicate */
+        public Set<String> getValues() {
+            return values;
+        }
+    }
+
+    /**
+     * A plan with the bridge parameters of a request substituted in.
+     */
+    static class Bound {
+        private final String structureKeyIdentifier;
+        private final Map<String,Object> listParameters;
+        private final Map<String,List<Object>> listValues;
+        private final List<Map<String,Object>> listCalls;
+        private final List<String> arns;
+        private final String cluster;
+        private final List<String> structureFields;
+        private final List<Predicate> predicates;
+        private final List<Predicate> localPredicates;
+        private final Set<String> queryFields;
+
+        private Bound(String structureKeyIdentifier, Map<String,Object> listParameters,
+            Map<String,List<Object>> listValues, List<String> arns, String cluster, List<String> structureFields,
+            List<Predicate> predicates, List<Predicate> localPredicates, Set<String> queryFields
+        ) {
+            this.structureKeyIdentifier = structureKeyIdentifier;
+            this.listParameters = Collections.unmodifiableMap(listParameters);
+            this.listValues = Collections.unmodifiableMap(listValues);
+            // One List call for each combination of the values of the keys with more than one
+            List<Map<String,Object>> listCalls = new ArrayList<Map<String,Object>>();
+            listCalls.add(this.listParameters);
+            for (Map.Entry<String,List<Object>> entry : listValues.entrySet()) {
+                List<Map<String,Object>> valueCalls = new ArrayList<Map<String,Object>>();
+                for (Map<String,Object> listCall : listCalls) {
+                    for (Object value : entry.getValue()) {
+                        Map<String,Object> valueCall = new LinkedHashMap<String,Object>(listCall);
+                        valueCall.put(entry.getKey(), value);
+                        valueCalls.add(Collections.unmodifiableMap(valueCall));
+                    }
+                }
+                listCalls = valueCalls;
+            }
+            this.listCalls = Collections.unmodifiableList(listCalls);
+            this.arns = arns == null ? null : Collections.unmodifiableList(arns);
+            this.cluster = cluster;
+            this.structureFields = Collections.unmodifiableList(structureFields);
+            this.predicates = Collections.unmodifiableList(predicates);
+            this.localPredicates = Collections.unmodifiableList(localPredicates);
+            this.queryFields = Collections.unmodifiableSet(queryFields);
+        }
+
+        /**
+         * Returns a copy of the query that lists (and describes) in the cluster instead of the
+         * cluster the query was bound with.
+         */
+        public Bound inCluster(String cluster) {
+            Map<String,Object> clusterListParameters = new LinkedHashMap<String,Object>(listParameters);
+            clusterListParameters.put("cluster", cluster);
+            return new Bound(structureKeyIdentifier, clusterListParameters, listValues, arns, cluster,
+                structureFields, predicates, localPredicates, queryFields);
+        }
+
+        /** The structure key identifier (for example task for Tasks) */
+        public String getStructureKeyIdentifier() {
+            return structureKeyIdentifier;
+        }
+
+        /**
+         * The parameters sent to every List call (the pushed down predicates with a single value and
+         * any paging parameters given in the query).
+         */
+        public Map<String,Object> getListParameters() {
+            return listParameters;
+        }
+
+        /**
+         * The parameters of each List call that the query is listed with, in order: one call with
+         * the List parameters, or one for each combination of the values of the pushed down keys
+         * with more than one value. Empty if the pushed down predicates can't all match.
+         */
+        public List<Map<String,Object>> getListCalls() {
+            return listCalls;
+        }
+
+        /** The explicit list of structure Arns to describe (null if the Arns need to be listed) */
+        public List<String> getArns() {
+            return arns;
+        }
+
+        /** The cluster to List and Describe in (null if the query doesn't include one) */
+        public String getCluster() {
+            return cluster;
+        }
+
+        /** The fields from other structures that the query filters by */
+        public List<String> getStructureFields() {
+            return structureFields;
+        }
+
+        /**
+         * Every predicate of the query, including the ones pushed down to the List call (used when
+         * the records don't come from a List call, for example from the mirror).
+         */
+        public List<Predicate> getPredicates() {
+            return predicates;
+        }
+
+        /**
+         * The predicates that ECS doesn't evaluate in the List call, which have to be checked
+         * against the listed records client side (every predicate if the query has explicit Arns).
+         */
+        public List<Predicate> getLocalPredicates() {
+            return localPredicates;
+        }
+
+        /**
+         * True if the query has predicates that ECS doesn't evaluate (so the records need to be
+         * described and filtered to be counted).
+         */
+        public boolean hasClientSidePredicates() {
+            return !localPredicates.isEmpty();
+        }
+
+        /** The keys of the query parts (other than the structure Arns) */
+        public Set<String> getQueryFields() {
+            return queryFields;
+        }
+    }
+
+    /**
+     * A bounded, least recently used cache of compiled plans.
+     */
+    static class Cache {
+        /** Default number of plans that are cached */
+        public static final int DEFAULT_MAX_ENTRIES = 500;
+
+        private final Map<String,AmazonEcsQueryPlan> plans;
+
+        Cache(final int maxEntries) {
+            plans = new LinkedHashMap<String,AmazonEcsQueryPlan>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,AmazonEcsQueryPlan> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        /**
+         * Returns the cached plan for the structure and query template, compiling (and caching) it
+         * if it isn't cached yet.
+         */
+        public AmazonEcsQueryPlan get(String structure, String template, boolean retrieve) {
+            return get(structure, template, retrieve, true);
+        }
+
+        /**
+         * Binds the parameters to the cached plan for the query template. If the parameters change
+         * the parts of the query, the plan for the query with the parameters substituted in is used
+         * instead.
+         *
+         * @param structure
+         * @param template
+         * @param retrieve
+         * @param parser
+         * @param parameters
+         * @return
+         * @throws BridgeError If a parameter used by the query wasn't provided
+         */
+        public Bound bind(String structure, String template, boolean retrieve, QualificationParser parser,
+            Map<String,String> parameters
+        ) throws BridgeError {
+            AmazonEcsQueryPlan plan = get(structure, template, retrieve, true);
+            if (plan.isRestructuredBy(parser, parameters)) {
+                plan = get(structure, parser.parse(template, parameters), retrieve, false);
+            }
+            return plan.bind(parser, parameters);
+        }
+
+        private AmazonEcsQueryPlan get(String structure, String query, boolean retrieve, boolean templated) {
+            String key = structure + (retrieve ? "|retrieve" : "|search") + (templated ? "|" : "|substituted|")
+                + (query == null ? "" : query);
+            synchronized (plans) {
+                AmazonEcsQueryPlan plan = plans.get(key);
+                if (plan != null) return plan;
+            }
+            AmazonEcsQueryPlan plan = compile(structure, query, retrieve, templated);
+            synchronized (plans) {
+                plans.put(key, plan);
+            }
+            return plan;
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client side rate limiter for the ECS calls, with a token bucket for each region and action.
+ *
+ * Each bucket starts at the configured rate and adjusts itself to what AWS allows (additive
+ * increase, multiplicative decrease) - the rate is halved when a call is throttled and crawls back
+ * up towards the configured rate as calls succeed. Calls queue for the rate limit for as long as it
+ * takes (so a large fan out is spread out rather than failed), and throttled and other retryable
+ * calls are retried with a jittered exponential backoff for as long as the retry deadline allows.
+ */
+class AmazonEcsRateLimiter {
+
+    /** Default values used when the corresponding adapter properties are left blank. */
+    public static final int DEFAULT_RATE = 20;
+    public static final int DEFAULT_BURST = 20;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final int DEFAULT_RETRY_DEADLINE_MILLIS = 20000;
+
+    /** The rate is never decreased below this many calls per second */
+    private static final double MIN_RATE = 0.5;
+    /** A bucket's rate is only halved once in this window, no matter how many calls are throttled */
+    private static final long DECREASE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** The backoff before the first retry, doubled for each following retry (up to the cap) */
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    /** Error types that mean the call was throttled */
+    private static final List<String> THROTTLING_TYPES = Arrays.asList(
+        "ThrottlingException", "Throttling", "TooManyRequestsException", "RequestLimitExceeded",
+        "RequestThrottled", "RequestThrottledException", "SlowDown"
+    );
+    /** Error types that mean the call failed on the AWS side and can be retried as is */
+    private static final List<String> TRANSIENT_TYPES = Arrays.asList(
+        "ServerException", "ServiceUnavailable", "ServiceUnavailableException", "InternalFailure",
+        "InternalServerError"
+    );
+
+    private static final Random RANDOM = new Random();
+
+    private final double maxRate;
+    private final double burst;
+    private final int maxRetries;
+    private final long retryDeadlineMillis;
+    private final ConcurrentMap<String,Bucket> buckets = new ConcurrentHashMap<String,Bucket>();
+
+    /**
+     * @param rate The most calls per second for each region and action (0 to not limit the rate)
+     * @param burst The most calls that can be made at once after a quiet period
+     * @param maxRetries The most times a throttled or failed call is retried
+     * @param retryDeadlineMillis How long after its first attempt a call can still be retried
+     */
+    public AmazonEcsRateLimiter(int rate, int burst, int maxRetries, int retryDeadlineMillis) {
+        this.maxRate = rate;
+        this.burst = Math.max(burst, 1);
+        this.maxRetries = maxRetries;
+        this.retryDeadlineMillis = retryDeadlineMillis;
+    }
+
+    /**
+     * Returns the retry deadline (in System.currentTimeMillis time) for a call whose first attempt
+     * starts now.
+     */
+    public long deadline() {
+        return System.currentTimeMillis() + retryDeadlineMillis;
+    }
+
+    /**
+     * Reserves a call without waiting, returning how long (in milliseconds) to wait before the call
+     * is made. The calls are queued behind each other, so the wait grows with the number of calls
+     * already waiting.
+     */
+    public long reserve(String region, String action) {
+        if (maxRate <= 0) return 0;
+        return TimeUnit.NANOSECONDS.toMillis(bucket(region, action).reserve());
+    }
+
+    /** Records a successful call (slowly increasing the rate back towards the configured rate) */
+    public void onSuccess(String region, String action) {
+        if (maxRate <= 0) return;
+        bucket(region, action).increase();
+    }
+
+    /** Records a throttled call (halving the rate) */
+    public void onThrottle(String region, String action) {
+        if (maxRate <= 0) return;
+        bucket(region, action).decrease();
+    }
+
+    /** The current rate (calls per second) for the region and action */
+    public double rate(String region, String action) {
+        return maxRate <= 0 ? 0 : bucket(region, action).rate();
+    }
+
+    /**
+     * Returns how long to wait before retrying the call (the attempt is 1 for the first retry), or -1
+     * if the call shouldn't be retried again (it has been retried too many times or the backoff would
+     * run past the deadline).
+     */
+    public long backoff(int attempt, long deadline) {
+        if (attempt > maxRetries) return -1;
+        // Full jitter - a random backoff between 0 and the exponential backoff for the attempt
+        long exponential = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 20));
+        long backoff = (long)(RANDOM.nextDouble() * exponential);
+        return System.currentTimeMillis() + backoff < deadline ? backoff : -1;
+    }
+
+    /**
+     * Returns true if the error type (the __type of an ECS error response) means the call was
+     * throttled.
+     */
+    public static boolean isThrottling(String type) {
+        return THROTTLING_TYPES.contains(simpleType(type));
+    }
+
+    /**
+     * Returns true if the call can be retried (it was throttled or failed on the AWS side).
+     */
+    public static boolean isRetryable(String type) {
+        return isThrottling(type) || TRANSIENT_TYPES.contains(simpleType(type));
+    }
+
+    /** Strips the namespace from an error type (for example com.amazon.coral.service#ThrottlingException) */
+    private static String simpleType(String type) {
+        return type == null ? null : type.substring(type.lastIndexOf('#') + 1);
+    }
+
+    private Bucket bucket(String region, String action) {
+        String key = region + "/" + action;
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            Bucket created = new Bucket(maxRate, burst);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) bucket = created;
+        }
+        return bucket;
+    }
+
+    private static class Bucket {
+        private final double maxRate;
+        private final double burst;
+        private double rate;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long decreasedAt = System.nanoTime() - DECREASE_WINDOW_NANOS;
+
+        private Bucket(double maxRate, double burst) {
+            this.maxRate = maxRate;
+            this.burst = burst;
+            this.rate = maxRate;
+            this.tokens = burst;
+        }
+
+        /**
+         * Reserves a token, returning how long the caller has to wait for it. Tokens can go
+         * negative, which queues up the callers behind each other.
+         */
+        private synchronized long reserve() {
+            refill();
+            long waitNanos = tokens >= 1 ? 0 : (long)((1 - tokens) / rate * 1e9);
+            tokens -= 1;
+            return waitNanos;
+        }
+
+        private synchronized void increase() {
+            refill();
+            rate = Math.min(maxRate, rate + 1 / rate);
+        }
+
+        private synchronized void decrease() {
+            long now = System.nanoTime();
+            if (now - decreasedAt < DECREASE_WINDOW_NANOS) return;
+            refill();
+            decreasedAt = now;
+            rate = Math.max(MIN_RATE, rate / 2);
+            // Drop any saved up burst so the slower rate takes effect straight away
+            tokens = Math.min(tokens, 0);
+        }
+
+        private synchronized double rate() {
+            return rate;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * rate);
+            refilledAt = now;
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Filters records by the client side predicates of a query.
+ *
+ * The predicates are compiled once for a list of records (against the fields of the first record,
+ * which decides whether a nested field is read from the record as it was projected or walked from
+ * its top level field) and then evaluated in a single pass over the records, cheapest predicate
+ * first. A record without the field is checked as if the field were null. The records that
+ * match are compacted to the front of the list that was passed in, so no copies of the list are
+ * made.
+ */
+class AmazonEcsRecordFilter {
+
+    /** Orders the compiled predicates so that the cheapest ones are checked first */
+    private static final Comparator<Check> BY_COST = new Comparator<Check>() {
+        @Override
+        public int compare(Check a, Check b) {
+            return a.cost < b.cost ? -1 : (a.cost == b.cost ? 0 : 1);
+        }
+    };
+
+    private final List<Check> checks;
+
+    private AmazonEcsRecordFilter(List<Check> checks) {
+        this.checks = checks;
+    }
+
+    /**
+     * Removes the records that don't match every predicate.
+     *
+     * @param records The records to filter (a list that supports set and clear, which is modified in
+     *   place and returned)
+     * @param predicates
+     * @return
+     */
+    public static List<Record> filter(List<Record> records, List<AmazonEcsQueryPlan.Predicate> predicates) {
+        if (records.isEmpty() || predicates.isEmpty()) return records;
+        return compile(records.get(0).getRecord().keySet(), predicates).apply(records);
+    }
+
+    /**
+     * Compiles the predicates against the fields of the records. Every predicate is checked: a top
+     * level field (or a nested field that is one of the record fields) is read from the record, and
+     * any other nested field is walked from its top level field.
+     */
+    static AmazonEcsRecordFilter compile(Set<String> fields, List<AmazonEcsQueryPlan.Predicate> predicates) {
+        List<Check> checks = new ArrayList<Check>();
+        for (AmazonEcsQueryPlan.Predicate predicate : predicates) {
+            String key = predicate.getField();
+            if (fields.contains(key) || !predicate.getPath().isNested()) {
+                checks.add(new Check(predicate, key, null));
+            } else {
+                checks.add(new Check(predicate, key, predicate.getPath()));
+            }
+        }
+        Collections.sort(checks, BY_COST);
+        return new AmazonEcsRecordFilter(checks);
+    }
+
+    /**
+     * Evaluates the compiled predicates against each record in a single pass, moving the records
+     * that match to the front of the list and clearing the rest.
+     */
+    List<Record> apply(List<Record> records) {
+        if (checks.isEmpty()) return records;
+        int matched = 0;
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (matches(record)) {
+                if (matched != i) records.set(matched, record);
+                matched++;
+            }
+        }
+        records.subList(matched, records.size()).clear();
+        return records;
+    }
+
+    private boolean matches(Record record) {
+        for (Check check : checks) {
+            if (!check.matches(record.getRecord())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A predicate compiled against a top level field (path is null) or a nested field.
+     */
+    private static class Check {
+        private final AmazonEcsQueryPlan.Operator operator;
+        private final String value;
+        private final Set<String> values;
+        private final String field;
+        private final AmazonEcsFieldPath path;
+        private final int cost;
+
+        private Check(AmazonEcsQueryPlan.Predicate predicate, String field, AmazonEcsFieldPath path) {
+            this.operator = predicate.getOperator();
+            this.value = predicate.getValue();
+            this.values = predicate.getValues();
+            this.field = field;
+            this.path = path;
+            // Nested fields need to be walked for every record, and list lookups are slightly more
+            // expensive than comparing a single value
+            int cost = path == null ? 1 : 10;
+            if (operator == AmazonEcsQueryPlan.Operator.IN || operator == AmazonEcsQueryPlan.Operator.NOT_IN) {
+                cost++;
+            }
+            this.cost = cost;
+        }
+
+        private boolean matches(Map object) {
+            if (path == null) {
+                return matches(object.get(field));
+            }
+
+            List valuesToCheck = path.values(object);
+
+            // The negated operators match if none of the values are excluded by the predicate, the
+            // others match if any of the values match
+            boolean negated = operator == AmazonEcsQueryPlan.Operator.NOT_EQUALS
+                || operator == AmazonEcsQueryPlan.Operator.NOT_IN;
+            for (Object valueToCheck : valuesToCheck) {
+                if (matches(valueToCheck) != negated) return !negated;
+            }
+            return negated;
+        }
+
+        private boolean matches(Object actual) {
+            switch (operator) {
+                case NOT_EQUALS:
+                    return !value.equals(actual);
+                case PREFIX:
+                    return actual instanceof String && ((String)actual).startsWith(value);
+                case IN:
+                    return values.contains(actual);
+                case NOT_IN:
+                    return !values.contains(actual);
+                default:
+                    return value.equals(actual);
+            }
+        }
+    }
+
+}
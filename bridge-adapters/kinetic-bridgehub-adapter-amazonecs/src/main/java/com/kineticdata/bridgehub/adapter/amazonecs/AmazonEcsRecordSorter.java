@@ -0,0 +1,269 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sorts records by an order spec (the field to ASC/DESC map returned by BridgeUtils.parseOrder).
+ *
+ * The comparison follows BridgeUtils.sortRecords - strings are compared case insensitively and
+ * nulls sort first - except that numbers are compared by their value regardless of their type (ECS
+ * returns counts as integers and timestamps as epoch seconds with a fraction), and every pair of
+ * values can be compared. Values of different kinds sort by kind (null, numbers, booleans, strings
+ * and other scalars, lists and then maps), lists are compared element by element and maps by their
+ * text, so the comparison is a total order (which Collections.sort requires) even for fields with
+ * mixed values.
+ *
+ * Comparators are compiled once per order spec (the fields and directions, in order) and shared
+ * between requests. When only the first
+ * records of the sorted list are needed, a bounded heap is used instead of sorting every record.
+ */
+class AmazonEcsRecordSorter {
+
+    /**
+     * Compiled sorters are shared by every request, the map is simply cleared if it grows too big.
+     * Sorters are keyed by the fields and directions as a list (rather than by the order map, as
+     * maps with the same entries in a different order are equal).
+     */
+    private static final int MAX_CACHED_SORTERS = 500;
+    private static final ConcurrentMap<List<String>,AmazonEcsRecordSorter> SORTERS =
+        new ConcurrentHashMap<List<String>,AmazonEcsRecordSorter>();
+
+    private final String[] fields;
+    private final boolean[] descending;
+    private final Comparator<Record> comparator = new Comparator<Record>() {
+        @Override
+        public int compare(Record r1, Record r2) {
+            Map m1 = r1.getRecord();
+            Map m2 = r2.getRecord();
+            for (int i = 0; i < fields.length; i++) {
+                int result = compareValues(m1.get(fields[i]), m2.get(fields[i]));
+                if (result != 0) return descending[i] ? -result : result;
+            }
+            return 0;
+        }
+    };
+
+    private AmazonEcsRecordSorter(Map<String,String> order) {
+        fields = new String[order.size()];
+        descending = new boolean[order.size()];
+        int i = 0;
+        for (Map.Entry<String,String> entry : order.entrySet()) {
+            fields[i] = entry.getKey();
+            descending[i] = "DESC".equalsIgnoreCase(entry.getValue());
+            i++;
+        }
+    }
+
+    /**
+     * Returns the compiled sorter for the order spec.
+     */
+    public static AmazonEcsRecordSorter compile(Map<String,String> order) {
+        List<String> key = new ArrayList<String>(order.size() * 2);
+        for (Map.Entry<String,String> entry : order.entrySet()) {
+            key.add(entry.getKey());
+            key.add(entry.getValue());
+        }
+        AmazonEcsRecordSorter sorter = SORTERS.get(key);
+        if (sorter == null) {
+            sorter = new AmazonEcsRecordSorter(order);
+            if (SORTERS.size() >= MAX_CACHED_SORTERS) SORTERS.clear();
+            SORTERS.putIfAbsent(key, sorter);
+        }
+        return sorter;
+    }
+
+    /** The fields the records are sorted by, in order */
+    public List<String> getFields() {
+        return Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    public Comparator<Record> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Sorts the records in place (equal records keep their order).
+     */
+    public List<Record> sort(List<Record> records) {
+        Collections.sort(records, comparator);
+        return records;
+    }
+
+    /**
+     * Returns the first records of the sorted list, from the offset up to the limit (equal records
+     * keep their order). Only offset + limit records are ever held in the heap.
+     */
+    public List<Record> page(List<Record> records, int offset, int limit) {
+        int size = offset + limit;
+        if (size >= records.size() || size <= 0) {
+            sort(records);
+            return new ArrayList<Record>(records.subList(Math.min(offset, records.size()), records.size()));
+        }
+
+        // Keep the "largest" record at the head of the heap so it is the one that gets replaced,
+        // breaking ties by the position of the record so that equal records keep their order
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(size, new Comparator<Ranked>() {
+            @Override
+            public int compare(Ranked a, Ranked b) {
+                int result = comparator.compare(b.record, a.record);
+                return result != 0 ? result : (a.index < b.index ? 1 : (a.index == b.index ? 0 : -1));
+            }
+        });
+        for (int i = 0; i < records.size(); i++) {
+            Ranked ranked = new Ranked(records.get(i), i);
+            if (heap.size() < size) {
+                heap.add(ranked);
+            } else if (heap.comparator().compare(ranked, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(ranked);
+            }
+        }
+
+        Record[] sorted = new Record[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            sorted[i] = heap.poll().record;
+        }
+        List<Record> page = new ArrayList<Record>(limit);
+        for (int i = offset; i < sorted.length; i++) {
+            page.add(sorted[i]);
+        }
+        return page;
+    }
+
+    /** The kinds of values, in the order they are sorted in */
+    private static final int NULL = 0;
+    private static final int NUMBER = 1;
+    private static final int BOOLEAN = 2;
+    private static final int TEXT = 3;
+    private static final int LIST = 4;
+    private static final int MAP = 5;
+
+    /**
+     * Compares two field values (see the class comment for the order).
+     */
+    static int compareValues(Object o1, Object o2) {
+        if (o1 == o2) return 0;
+        int kind1 = kind(o1);
+        int kind2 = kind(o2);
+        if (kind1 != kind2) return kind1 < kind2 ? -1 : 1;
+        switch (kind1) {
+            case NUMBER:
+                return compareNumbers((Number)o1, (Number)o2);
+            case BOOLEAN:
+                return ((Boolean)o1).compareTo((Boolean)o2);
+            case LIST:
+                return compareLists((List)o1, (List)o2);
+            default:
+                return o1.toString().compareToIgnoreCase(o2.toString());
+        }
+    }
+
+    private static int kind(Object o) {
+        if (o == null) {
+            return NULL;
+        } else if (o instanceof Number) {
+            return NUMBER;
+        } else if (o instanceof Boolean) {
+            return BOOLEAN;
+        } else if (o instanceof List) {
+            return LIST;
+        } else if (o instanceof Map) {
+            return MAP;
+        }
+        return TEXT;
+    }
+
+    private static int compareLists(List l1, List l2) {
+        int size = Math.min(l1.size(), l2.size());
+        for (int i = 0; i < size; i++) {
+            int result = compareValues(l1.get(i), l2.get(i));
+            if (result != 0) return result;
+        }
+        return l1.size() < l2.size() ? -1 : (l1.size() == l2.size() ? 0 : 1);
+    }
+
+    /**
+     * Compares numbers by their exact value. Integers are compared as integers and floating point
+     * numbers as doubles, and a mix of the two is compared exactly (a long can't always be
+     * converted to a double without changing its value). NaN sorts after every other number.
+     */
+    private static int compareNumbers(Number n1, Number n2) {
+        boolean integral1 = isIntegral(n1);
+        boolean integral2 = isIntegral(n2);
+        if (integral1 && integral2) {
+            if (n1 instanceof BigInteger || n2 instanceof BigInteger) {
+                return new BigInteger(n1.toString()).compareTo(new BigInteger(n2.toString()));
+            }
+            long l1 = n1.longValue();
+            long l2 = n2.longValue();
+            return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+        } else if (isFloatingPoint(n1) && isFloatingPoint(n2)) {
+            return compareDoubles(n1.doubleValue(), n2.doubleValue());
+        }
+        BigDecimal d1 = decimal(n1);
+        BigDecimal d2 = decimal(n2);
+        if (d1 == null || d2 == null) {
+            // NaN or an infinity, which a double compares correctly against any other value
+            return compareDoubles(n1.doubleValue(), n2.doubleValue());
+        }
+        return d1.compareTo(d2);
+    }
+
+    /**
+     * Compares doubles by value (so -0.0 and 0.0 are equal, as they are to an integer 0), sorting
+     * NaN after every other value.
+     */
+    private static int compareDoubles(double d1, double d2) {
+        if (d1 < d2) return -1;
+        if (d1 > d2) return 1;
+        return Double.isNaN(d1) || Double.isNaN(d2) ? Double.compare(d1, d2) : 0;
+    }
+
+    private static boolean isFloatingPoint(Number n) {
+        return n instanceof Double || n instanceof Float;
+    }
+
+    /**
+     * Returns the exact value of the number, or null if it is NaN or an infinity.
+     */
+    private static BigDecimal decimal(Number n) {
+        if (n instanceof BigDecimal) {
+            return (BigDecimal)n;
+        } else if (isFloatingPoint(n)) {
+            double d = n.doubleValue();
+            return Double.isNaN(d) || Double.isInfinite(d) ? null : new BigDecimal(d);
+        } else if (isIntegral(n)) {
+            return new BigDecimal(n.toString());
+        }
+        // Other Number types are compared by their double value
+        double d = n.doubleValue();
+        return Double.isNaN(d) || Double.isInfinite(d) ? null : new BigDecimal(d);
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte
+            || n instanceof BigInteger;
+    }
+
+    private static class Ranked {
+        private final Record record;
+        private final int index;
+
+        private Ranked(Record record, int index) {
+            this.record = record;
+            this.index = index;
+        }
+    }
+
+}
@@ -0,0 +1,258 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A store of described objects keyed by their Arn, with hash indexes on a configurable set of fields
+ * (top level fields like lastStatus or nested/aliased fields like environment[space_slug]).
+ *
+ * Equality and in-list predicates on the indexed fields are answered by intersecting the index
+ * entries instead of scanning every object. Predicates on the other fields are left for the record
+ * filter. The indexes select the same objects the record filter would: an object without a value
+ * for the field doesn't match.
+ *
+ * A store never changes once it is built, so it can be read by any number of threads while a new
+ * store is being built from it. Updating a store builds a new one that re-uses the index values of
+ * the objects that didn't change, so only the objects that were added or replaced are indexed from
+ * scratch. The stored objects are shared, so callers must copy an object before making any changes
+ * to it.
+ */
+class AmazonEcsRecordStore {
+
+    /** Default values used when the corresponding adapter properties are left blank. */
+    public static final String DEFAULT_INDEXED_TASK_FIELDS =
+        "lastStatus,desiredStatus,group,taskDefinitionArn,containerInstanceArn,launchType";
+    public static final String DEFAULT_INDEXED_CONTAINER_INSTANCE_FIELDS = "status";
+
+    private final List<String> indexedFields;
+    private final Map<String,Entry> entries = new LinkedHashMap<String,Entry>();
+    /** The indexes, by the aliased field they index */
+    private final Map<String,Index> indexes = new LinkedHashMap<String,Index>();
+    private final Index[] indexList;
+    private long sequence = 0;
+
+    /** Orders the selected entries in the order they were first added */
+    private static final Comparator<Entry> BY_SEQUENCE = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * Builds an empty store.
+     *
+     * @param indexedFields The fields to index (as they are written in a query)
+     */
+    public AmazonEcsRecordStore(Collection<String> indexedFields) {
+        this.indexedFields = Collections.unmodifiableList(new ArrayList<String>(indexedFields));
+        for (String field : indexedFields) {
+            AmazonEcsFieldPath path = AmazonEcsFieldPath.compile(field);
+            if (!indexes.containsKey(path.getAliasedField())) {
+                indexes.put(path.getAliasedField(), new Index(path, indexes.size()));
+            }
+        }
+        this.indexList = indexes.values().toArray(new Index[indexes.size()]);
+    }
+
+    /**
+     * Returns a new store that holds exactly the objects. Objects that this store already holds
+     * under the same Arn keep their position (new objects are added at the end, in the order of the
+     * map), and the ones that are unchanged keep their index values, so only the objects that were
+     * added or replaced are indexed. This store isn't changed.
+     */
+    public AmazonEcsRecordStore update(Map<String,Map> objects) {
+        AmazonEcsRecordStore updated = new AmazonEcsRecordStore(indexedFields);
+        updated.sequence = sequence;
+        for (Map.Entry<String,Entry> existing : entries.entrySet()) {
+            Map object = objects.get(existing.getKey());
+            if (object == null) continue;
+            updated.add(existing.getKey(), existing.getValue().object == object
+                ? existing.getValue()
+                : updated.newEntry(object, existing.getValue().sequence));
+        }
+        for (Map.Entry<String,Map> object : objects.entrySet()) {
+            if (object.getValue() != null && !entries.containsKey(object.getKey())) {
+                updated.add(object.getKey(), updated.newEntry(object.getValue(), updated.sequence++));
+            }
+        }
+        return updated;
+    }
+
+    public Map get(String arn) {
+        Entry entry = entries.get(arn);
+        return entry == null ? null : entry.object;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns every object, in the order they were first added.
+     */
+    public List<Map> values() {
+        List<Map> objects = new ArrayList<Map>(entries.size());
+        for (Entry entry : entries.values()) {
+            objects.add(entry.object);
+        }
+        return objects;
+    }
+
+    /**
+     * Selects the objects that could match the predicates, using the indexes to answer the equality
+     * and in-list predicates on indexed fields. The other predicates are not checked.
+     *
+     * @param predicates
+     * @return
+     */
+    public Selection select(List<AmazonEcsQueryPlan.Predicate> predicates) {
+        // Look up the entries for each indexed predicate, smallest first
+        List<Set<Entry>> candidateSets = new ArrayList<Set<Entry>>();
+        List<AmazonEcsQueryPlan.Predicate> unindexed = new ArrayList<AmazonEcsQueryPlan.Predicate>();
+        for (AmazonEcsQueryPlan.Predicate predicate : predicates) {
+            Index index = indexes.get(predicate.getField());
+            if (index != null && predicate.getOperator() == AmazonEcsQueryPlan.Operator.EQUALS) {
+                candidateSets.add(index.lookup(Collections.singleton(predicate.getValue())));
+            } else if (index != null && predicate.getOperator() == AmazonEcsQueryPlan.Operator.IN) {
+                candidateSets.add(index.lookup(predicate.getValues()));
+            } else {
+                unindexed.add(predicate);
+            }
+        }
+
+        List<Map> objects;
+        if (candidateSets.isEmpty()) {
+            objects = new ArrayList<Map>(entries.size());
+            for (Entry entry : entries.values()) {
+                objects.add(entry.object);
+            }
+        } else {
+            Collections.sort(candidateSets, new Comparator<Set<Entry>>() {
+                @Override
+                public int compare(Set<Entry> a, Set<Entry> b) {
+                    return a.size() < b.size() ? -1 : (a.size() == b.size() ? 0 : 1);
+                }
+            });
+            List<Entry> selected = new ArrayList<Entry>();
+            for (Entry entry : candidateSets.get(0)) {
+                boolean inEvery = true;
+                for (int i = 1; i < candidateSets.size() && inEvery; i++) {
+                    inEvery = candidateSets.get(i).contains(entry);
+                }
+                if (inEvery) selected.add(entry);
+            }
+            Collections.sort(selected, BY_SEQUENCE);
+            objects = new ArrayList<Map>(selected.size());
+            for (Entry entry : selected) {
+                objects.add(entry.object);
+            }
+        }
+        return new Selection(objects, unindexed);
+    }
+
+    private void add(String arn, Entry entry) {
+        entries.put(arn, entry);
+        for (Index index : indexList) {
+            index.add(entry);
+        }
+    }
+
+    /**
+     * Builds an entry for the object, working out its values for each of the indexes.
+     */
+    private Entry newEntry(Map object, long sequence) {
+        List[] indexValues = new List[indexList.length];
+        for (Index index : indexList) {
+            List values = new ArrayList();
+            for (Object value : index.path.values(object)) {
+                if (value != null) values.add(value);
+            }
+            indexValues[index.position] = values;
+        }
+        return new Entry(object, sequence, indexValues);
+    }
+
+    /**
+     * The objects selected by the indexes, and the predicates that still need to be checked against
+     * them.
+     */
+    static class Selection {
+        private final List<Map> objects;
+        private final List<AmazonEcsQueryPlan.Predicate> unindexedPredicates;
+
+        Selection(List<Map> objects, List<AmazonEcsQueryPlan.Predicate> unindexedPredicates) {
+            this.objects = objects;
+            this.unindexedPredicates = unindexedPredicates;
+        }
+
+        public List<Map> getObjects() {
+            return objects;
+        }
+
+        public List<AmazonEcsQueryPlan.Predicate> getUnindexedPredicates() {
+            return unindexedPredicates;
+        }
+    }
+
+    private static class Entry {
+        private final Map object;
+        private final long sequence;
+        /** The (non null) values of the object's indexed fields, by index position */
+        private final List[] indexValues;
+
+        private Entry(Map object, long sequence, List[] indexValues) {
+            this.object = object;
+            this.sequence = sequence;
+            this.indexValues = indexValues;
+        }
+    }
+
+    /**
+     * A hash index from each value of the field to the entries that have it.
+     */
+    private static class Index {
+        private final AmazonEcsFieldPath path;
+        private final int position;
+        private final Map<Object,Set<Entry>> entries = new HashMap<Object,Set<Entry>>();
+
+        private Index(AmazonEcsFieldPath path, int position) {
+            this.path = path;
+            this.position = position;
+        }
+
+        private Set<Entry> lookup(Set<String> values) {
+            if (values.size() == 1) {
+                Set<Entry> found = entries.get(values.iterator().next());
+                return found == null ? Collections.<Entry>emptySet() : found;
+            }
+            Set<Entry> found = new HashSet<Entry>();
+            for (String value : values) {
+                Set<Entry> valueEntries = entries.get(value);
+                if (valueEntries != null) found.addAll(valueEntries);
+            }
+            return found;
+        }
+
+        private void add(Entry entry) {
+            for (Object value : entry.indexValues[position]) {
+                Set<Entry> valueEntries = entries.get(value);
+                if (valueEntries == null) {
+                    valueEntries = new HashSet<Entry>();
+                    entries.put(value, valueEntries);
+                }
+                valueEntries.add(entry);
+            }
+        }
+    }
+
+}
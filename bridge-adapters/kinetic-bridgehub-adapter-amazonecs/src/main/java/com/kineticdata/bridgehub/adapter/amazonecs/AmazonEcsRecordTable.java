@@ -0,0 +1,214 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, column oriented table of the records of a search result. The values of each field are
+ * held in a single array (rather than in a hash map per record), and repeated strings (cluster
+ * Arns, statuses, task definition Arns and so on) are shared by every record that has them.
+ *
+ * The table is built while the requested fields are projected out of the described objects, and
+ * each record is replaced by a lightweight row view over the columns as soon as its values are
+ * copied, so the described objects don't outlive the projection (rather than the whole result being
+ * copied once it has been filtered and sorted).
+ *
+ * The views can be changed (a value put for a field that isn't a column is kept with the row), but
+ * fields can't be removed from them.
+ */
+class AmazonEcsRecordTable {
+
+    /** Marks a field that a record doesn't have (as opposed to a field with a null value) */
+    private static final Object ABSENT = new Object();
+
+    /** The index of each column, by field name */
+    private final Map<String,Integer> columnIndexes;
+    private final String[] columnNames;
+    private final Object[][] columns;
+
+    private AmazonEcsRecordTable(Map<String,Integer> columnIndexes, Object[][] columns) {
+        this.columnIndexes = columnIndexes;
+        this.columnNames = columnIndexes.keySet().toArray(new String[columnIndexes.size()]);
+        this.columns = columns;
+    }
+
+    /**
+     * Projects the columns out of the records into a record table, replacing each record in the
+     * list with its row. A nested column (for example containers[name]) holds the value its path
+     * leads to, and any other column holds the value of the field (records without the field don't
+     * have it in their row either).
+     *
+     * @param records The records to project (a list that supports set, which is modified in place
+     *   and returned)
+     * @param fields The fields to keep as columns
+     * @return
+     */
+    public static List<Record> project(List<Record> records, Collection<String> fields) {
+        if (records.isEmpty()) return records;
+
+        Map<String,Integer> columnIndexes = new LinkedHashMap<String,Integer>();
+        List<AmazonEcsFieldPath> paths = new ArrayList<AmazonEcsFieldPath>();
+        for (String field : fields) {
+            if (!columnIndexes.containsKey(field)) {
+                columnIndexes.put(field, columnIndexes.size());
+                AmazonEcsFieldPath path = AmazonEcsFieldPath.compile(field);
+                paths.add(path.isNested() ? path : null);
+            }
+        }
+
+        Object[][] columns = new Object[columnIndexes.size()][records.size()];
+        AmazonEcsRecordTable table = new AmazonEcsRecordTable(columnIndexes, columns);
+        Map<String,String> strings = new HashMap<String,String>();
+        for (int row = 0; row < records.size(); row++) {
+            Map values = records.get(row).getRecord();
+            for (int column = 0; column < columns.length; column++) {
+                AmazonEcsFieldPath path = paths.get(column);
+                String field = table.columnNames[column];
+                Object value = path != null
+                    ? path.value(values)
+                    : values.containsKey(field) ? values.get(field) : ABSENT;
+                columns[column][row] = value instanceof String ? intern(strings, (String)value) : value;
+            }
+            records.set(row, new Row(table, row));
+        }
+        return records;
+    }
+
+    private static String intern(Map<String,String> strings, String value) {
+        String interned = strings.get(value);
+        if (interned == null) {
+            strings.put(value, value);
+            interned = value;
+        }
+        return interned;
+    }
+
+    private Object value(int row, String field) {
+        Integer column = columnIndexes.get(field);
+        if (column == null) return ABSENT;
+        return columns[column][row];
+    }
+
+    /**
+     * A record that reads its values from a row of the table.
+     */
+    private static class Row extends Record {
+        private final RowMap values;
+
+        private Row(AmazonEcsRecordTable table, int row) {
+            this(new RowMap(table, row));
+        }
+
+        private Row(RowMap values) {
+            super(values);
+            this.values = values;
+        }
+
+        @Override
+        public Object getValue(String field) {
+            return values.get(field);
+        }
+    }
+
+    /**
+     * The map view of a row. Fields that aren't columns of the table (only ever added after the
+     * table was built) are kept in an overflow map.
+     */
+    private static class RowMap extends AbstractMap<String,Object> {
+        private final AmazonEcsRecordTable table;
+        private final int row;
+        private Map<String,Object> overflow;
+
+        private RowMap(AmazonEcsRecordTable table, int row) {
+            this.table = table;
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Object value = key == null ? ABSENT : table.value(row, key.toString());
+            if (value == ABSENT) return overflow == null ? null : overflow.get(key);
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Object value = key == null ? ABSENT : table.value(row, key.toString());
+            return value != ABSENT || (overflow != null && overflow.containsKey(key));
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            Integer column = table.columnIndexes.get(key);
+            if (column != null) {
+                Object previous = table.columns[column][row];
+                table.columns[column][row] = value;
+                return previous == ABSENT ? null : previous;
+            }
+            if (overflow == null) overflow = new LinkedHashMap<String,Object>();
+            return overflow.put(key, value);
+        }
+
+        @Override
+        public Set<Map.Entry<String,Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String,Object>>() {
+                @Override
+                public Iterator<Map.Entry<String,Object>> iterator() {
+                    return new Iterator<Map.Entry<String,Object>>() {
+                        private int column = advance(0);
+                        private final Iterator<Map.Entry<String,Object>> overflowEntries = overflow == null
+                            ? null
+                            : overflow.entrySet().iterator();
+
+                        private int advance(int from) {
+                            while (from < table.columns.length && table.columns[from][row] == ABSENT) from++;
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return column < table.columns.length || (overflowEntries != null && overflowEntries.hasNext());
+                        }
+
+                        @Override
+                        public Map.Entry<String,Object> next() {
+                            if (column < table.columns.length) {
+                                Map.Entry<String,Object> entry = new SimpleImmutableEntry<String,Object>(
+                                    table.columnNames[column], table.columns[column][row]);
+                                column = advance(column + 1);
+                                return entry;
+                            }
+                            if (overflowEntries == null) throw new NoSuchElementException();
+                            return overflowEntries.next();
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException("Fields can't be removed from a record table row.");
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = overflow == null ? 0 : overflow.size();
+                    for (Object[] column : table.columns) {
+                        if (column[row] != ABSENT) size++;
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+}
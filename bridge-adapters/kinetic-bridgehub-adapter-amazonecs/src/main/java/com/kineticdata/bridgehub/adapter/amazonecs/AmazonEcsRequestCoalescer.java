@@ -0,0 +1,95 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical ECS calls (the same action and payload) that are made at the same time so
+ * that they share a single request, and optionally holds on to the result for a short time to live
+ * so that identical calls made shortly afterwards are answered without a request at all.
+ *
+ * The results are shared between the callers, so callers must copy a result before making any
+ * changes to it. Failed calls are never held on to.
+ */
+class AmazonEcsRequestCoalescer<T> {
+
+    /** Default value used when the corresponding adapter property is left blank. */
+    public static final int DEFAULT_TTL_MILLIS = 2000;
+
+    /** Expired results are swept out once the map grows past this many entries */
+    private static final int SWEEP_THRESHOLD = 1000;
+
+    private final ConcurrentMap<String,Call<T>> calls = new ConcurrentHashMap<String,Call<T>>();
+
+    /**
+     * Starts the call, or returns the future of an identical call that is already in flight (or
+     * that completed within the time to live).
+     *
+     * @param key The normalized key of the call (for example the action and JSON payload)
+     * @param ttlMillis How long the result of the call should be held on to (0 to only share the
+     *   result with calls that are in flight at the same time)
+     * @param call Starts the call
+     * @return
+     */
+    public CompletableFuture<T> execute(final String key, final long ttlMillis, Supplier<CompletableFuture<T>> call) {
+        while (true) {
+            Call<T> existing = calls.get(key);
+            if (existing != null) {
+                if (!existing.isExpired()) {
+                    return existing.future;
+                }
+                calls.remove(key, existing);
+            }
+
+            final Call<T> started = new Call<T>();
+            if (calls.putIfAbsent(key, started) != null) {
+                // Another thread started the same call first, so share that one instead
+                continue;
+            }
+            if (calls.size() > SWEEP_THRESHOLD) sweep();
+            CompletableFuture<T> result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                result = AmazonEcsWorkerPool.failed(e);
+            }
+            result.whenComplete((value, error) -> {
+                if (error != null || ttlMillis <= 0) {
+                    calls.remove(key, started);
+                } else {
+                    started.expiresAt = System.currentTimeMillis() + ttlMillis;
+                }
+                if (error != null) {
+                    started.future.completeExceptionally(error);
+                } else {
+                    started.future.complete(value);
+                }
+            });
+            return started.future;
+        }
+    }
+
+    public void clear() {
+        calls.clear();
+    }
+
+    private void sweep() {
+        Iterator<Call<T>> iterator = calls.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired()) iterator.remove();
+        }
+    }
+
+    private static class Call<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<T>();
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        private boolean isExpired() {
+            return future.isDone() && expiresAt < System.currentTimeMillis();
+        }
+    }
+
+}
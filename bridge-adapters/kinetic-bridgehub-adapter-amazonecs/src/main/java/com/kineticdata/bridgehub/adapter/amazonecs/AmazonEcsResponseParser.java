@@ -0,0 +1,123 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Parses ECS JSON responses straight from the response stream into the same json-simple objects
+ * that the rest of the adapter works with (JSONObject, JSONArray, String, Long, Double, Boolean).
+ *
+ * When a projection is given, only the projected fields of the described objects (the objects in
+ * the records field of the response, for example "tasks" or "taskDefinition") are built. The rest
+ * of each object is skipped over by the streaming parser without being materialized.
+ */
+class AmazonEcsResponseParser {
+
+    /** Jackson factories are thread safe and meant to be shared */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Parses the response.
+     *
+     * @param content The response stream
+     * @param recordsField The field that holds the described object(s) (null if there isn't one)
+     * @param projection The fields of the described objects to build (null to build every field)
+     * @return
+     * @throws IOException If the response isn't a JSON object
+     */
+    public static JSONObject parse(InputStream content, String recordsField, Set<String> projection) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(content);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("The ECS response was not a JSON object.");
+            }
+            JSONObject json = new JSONObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (projection != null && name.equals(recordsField)) {
+                    if (token == JsonToken.START_ARRAY) {
+                        JSONArray objects = new JSONArray();
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            objects.add(parser.getCurrentToken() == JsonToken.START_OBJECT
+                                ? readObject(parser, projection)
+                                : readValue(parser));
+                        }
+                        json.put(name, objects);
+                    } else if (token == JsonToken.START_OBJECT) {
+                        json.put(name, readObject(parser, projection));
+                    } else {
+                        json.put(name, readValue(parser));
+                    }
+                } else {
+                    json.put(name, readValue(parser));
+                }
+            }
+            return json;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads the object that the parser is positioned at the start of, only building the projected
+     * fields (or every field if the projection is null).
+     */
+    private static JSONObject readObject(JsonParser parser, Set<String> projection) throws IOException {
+        JSONObject object = new JSONObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (projection == null || projection.contains(name)) {
+                object.put(name, readValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Reads the value that the parser is positioned at.
+     */
+    private static Object readValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null) {
+            throw new IOException("Unexpected end of the ECS response.");
+        }
+        switch (token) {
+            case START_OBJECT:
+                return readObject(parser, null);
+            case START_ARRAY:
+                JSONArray array = new JSONArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(readValue(parser));
+                }
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                // Match json-simple, which returns every integer as a Long
+                return parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER
+                    ? parser.getBigIntegerValue()
+                    : Long.valueOf(parser.getLongValue());
+            case VALUE_NUMBER_FLOAT:
+                return Double.valueOf(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new IOException("Unexpected token "+token+" in the ECS response.");
+        }
+    }
+
+}
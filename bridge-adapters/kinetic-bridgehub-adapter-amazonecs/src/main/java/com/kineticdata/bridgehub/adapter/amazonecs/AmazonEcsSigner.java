@@ -0,0 +1,275 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Creates AWS Signature Version 4 signatures (documentation on the Amazon REST API signing process
+ * can be found here - http://docs.aws.amazon.com/general/latest/gr/sigv4_signing.html).
+ *
+ * The derived signing key only depends on the secret key and the (date, region, service) scope, so
+ * it is cached and only re-derived when the UTC date rolls over. The Mac and MessageDigest
+ * instances are expensive to look up, so each thread keeps its own instances for re-use.
+ */
+class AmazonEcsSigner {
+
+    public static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String TERMINATOR = "aws4_request";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(HMAC_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("The "+HMAC_ALGORITHM+" algorithm is not available.", e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("The SHA-256 algorithm is not available.", e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<DateFormat> DATETIME_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat df = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+            df.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return df;
+        }
+    };
+
+    private final String accessKey;
+    private final byte[] secretKey;
+    /** The most recently derived signing key for each region/service scope. */
+    private final ConcurrentMap<String,SigningKey> signingKeys = new ConcurrentHashMap<String,SigningKey>();
+
+    public AmazonEcsSigner(String accessKey, String secretKey) {
+        this.accessKey = accessKey;
+        this.secretKey = ("AWS4" + secretKey).getBytes(UTF8);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * SIGNING METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Builds the Authorization header value for a request.
+     *
+     * @param method The http method
+     * @param canonicalUri The uri path (/ if the path is empty)
+     * @param canonicalQuery The sorted and encoded query string (empty if there isn't one)
+     * @param headers The headers to sign, keyed by lowercase header name with trimmed values
+     * @param payload The request payload
+     * @param datetime The x-amz-date timestamp (yyyyMMdd'T'HHmmss'Z')
+     * @param region
+     * @param service
+     * @return
+     * @throws BridgeError
+     */
+    public String authorization(String method, String canonicalUri, String canonicalQuery,
+        SortedMap<String,String> headers, String payload, String datetime, String region,
+        String service
+    ) throws BridgeError {
+        // Canonical Headers and Signed Headers (the headers are already lowercase and sorted)
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String,String> header : headers.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+            if (signedHeaders.length() > 0) signedHeaders.append(';');
+            signedHeaders.append(header.getKey());
+        }
+
+        // Canonical Request (the request method, uri, query, headers, signed headers and hashed
+        // payload with a newline in between each part)
+        StringBuilder canonicalRequest = new StringBuilder();
+        canonicalRequest.append(method).append('\n');
+        canonicalRequest.append(canonicalUri).append('\n');
+        canonicalRequest.append(canonicalQuery).append('\n');
+        canonicalRequest.append(canonicalHeaders).append('\n');
+        canonicalRequest.append(signedHeaders).append('\n');
+        canonicalRequest.append(sha256Hex(payload));
+
+        return authorization(canonicalRequest, signedHeaders.toString(), datetime, region, service);
+    }
+
+    /**
+     * Builds the Authorization header value from an already built canonical request.
+     */
+    String authorization(CharSequence canonicalRequest, String signedHeaders, String datetime,
+        String region, String service
+    ) throws BridgeError {
+        String date = datetime.substring(0, 8);
+
+        // String to Sign (encryption method, datetime, credential scope, and hashed canonical request)
+        StringBuilder credentialScope = new StringBuilder(date.length() + region.length() + service.length() + 16);
+        credentialScope.append(date).append('/').append(region).append('/').append(service).append('/').append(TERMINATOR);
+        StringBuilder stringToSign = new StringBuilder(256);
+        stringToSign.append(ALGORITHM).append('\n');
+        stringToSign.append(datetime).append('\n');
+        stringToSign.append(credentialScope).append('\n');
+        stringToSign.append(sha256Hex(canonicalRequest.toString()));
+
+        // Signature
+        String signature;
+        try {
+            signature = Hex.encodeHexString(hmacSHA256(getSignatureKey(date, region, service), stringToSign.toString()));
+        } catch (GeneralSecurityException e) {
+            throw new BridgeError("There was a problem creating the signature", e);
+        }
+
+        // Authorization Header (encryption method, access key, credential scope, signed headers, signature)
+        StringBuilder authorization = new StringBuilder(256);
+        authorization.append(ALGORITHM).append(" Credential=").append(accessKey).append('/').append(credentialScope);
+        authorization.append(", SignedHeaders=").append(signedHeaders);
+        authorization.append(", Signature=").append(signature);
+        return authorization.toString();
+    }
+
+    /**
+     * Returns the signing key for the scope, deriving (and caching) it if the cached key was built
+     * for a different date.
+     *
+     * @param date The yyyyMMdd date of the request
+     * @param region
+     * @param service
+     * @return
+     * @throws BridgeError
+     */
+    public byte[] getSignatureKey(String date, String region, String service) throws BridgeError {
+        String scope = region + '/' + service;
+        SigningKey signingKey = signingKeys.get(scope);
+        if (signingKey == null || !signingKey.date.equals(date)) {
+            try {
+                byte[] kDate    = hmacSHA256(secretKey, date);
+                byte[] kRegion  = hmacSHA256(kDate, region);
+                byte[] kService = hmacSHA256(kRegion, service);
+                byte[] kSigning = hmacSHA256(kService, TERMINATOR);
+                signingKey = new SigningKey(date, kSigning);
+            } catch (GeneralSecurityException e) {
+                throw new BridgeError("There was a problem creating the signing key", e);
+            }
+            // Only replace keys for an older (or the same) date so that a request that started
+            // just before midnight doesn't roll the cache back to the previous day
+            SigningKey current = signingKeys.get(scope);
+            if (current == null || current.date.compareTo(date) <= 0) {
+                signingKeys.put(scope, signingKey);
+            }
+        }
+        return signingKey.key;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Returns the x-amz-date formatted (UTC) timestamp for the time.
+     */
+    public static String datetime(Date date) {
+        return DATETIME_FORMAT.get().format(date);
+    }
+
+    public static String sha256Hex(String data) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return Hex.encodeHexString(digest.digest(data.getBytes(UTF8)));
+    }
+
+    static byte[] hmacSHA256(byte[] key, String data) throws GeneralSecurityException {
+        Mac mac = MAC.get();
+        mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+        return mac.doFinal(data.getBytes(UTF8));
+    }
+
+    private static class SigningKey {
+        private final String date;
+        private final byte[] key;
+
+        private SigningKey(String date, byte[] key) {
+            this.date = date;
+            this.key = key;
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * JSON TARGET REQUESTS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Signs the POST requests made to an AWS JSON (x-amz-json-1.1) target endpoint. Every one of
+     * these requests has the same path, query, content type, host and signed header list, so that
+     * part of the canonical request is built once and only the date, target and payload hash are
+     * appended for each request.
+     */
+    static class JsonTarget {
+        public static final String CONTENT_TYPE = "application/x-amz-json-1.1";
+        private static final String SIGNED_HEADERS = "content-type;host;x-amz-date;x-amz-target";
+
+        private final AmazonEcsSigner signer;
+        private final String region;
+        private final String service;
+        private final String canonicalPrefix;
+        private final String canonicalTarget;
+        private final String canonicalSuffix;
+
+        /**
+         * @param signer
+         * @param host The host of the endpoint (for example ecs.us-east-1.amazonaws.com)
+         * @param path The path of the endpoint (/ if the path is empty)
+         * @param targetPrefix The x-amz-target prefix (for example AmazonEC2ContainerServiceV20141113)
+         * @param region
+         * @param service
+         */
+        public JsonTarget(AmazonEcsSigner signer, String host, String path, String targetPrefix, String region, String service) {
+            this.signer = signer;
+            this.region = region;
+            this.service = service;
+            this.canonicalPrefix = "POST\n" + path + "\n\ncontent-type:" + CONTENT_TYPE + "\nhost:" + host + "\nx-amz-date:";
+            this.canonicalTarget = "\nx-amz-target:" + targetPrefix + ".";
+            this.canonicalSuffix = "\n\n" + SIGNED_HEADERS + "\n";
+        }
+
+        /**
+         * Builds the Authorization header value for a call to the target action.
+         *
+         * @param action The action (appended to the target prefix to build the x-amz-target header)
+         * @param payload The JSON payload
+         * @param datetime The x-amz-date timestamp (yyyyMMdd'T'HHmmss'Z')
+         * @return
+         * @throws BridgeError
+         */
+        public String authorization(String action, String payload, String datetime) throws BridgeError {
+            StringBuilder canonicalRequest = new StringBuilder(canonicalPrefix.length() + canonicalTarget.length() + canonicalSuffix.length() + 128);
+            canonicalRequest.append(canonicalPrefix).append(datetime);
+            canonicalRequest.append(canonicalTarget).append(action);
+            canonicalRequest.append(canonicalSuffix).append(sha256Hex(payload));
+            return signer.authorization(canonicalRequest, SIGNED_HEADERS, datetime, region, service);
+        }
+    }
+
+}
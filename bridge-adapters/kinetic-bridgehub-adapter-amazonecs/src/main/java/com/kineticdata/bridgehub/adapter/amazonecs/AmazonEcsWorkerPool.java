@@ -0,0 +1,363 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * The threads that the adapter's asynchronous ECS calls are completed on, in three bounded groups:
+ *
+ * - Response threads run the response handlers. A handler parses the response while its body is
+ *   still being received, so it blocks its thread until the body has arrived. There are a fixed
+ *   number of them (Response Threads), however many connections there are; a response that
+ *   arrives while they are all busy waits in the connection until one of them is free.
+ * - Join threads run the EC2 searches made through the EC2 adapter, which only makes blocking
+ *   calls. At most JOIN_THREADS of them run at once, and the rest wait in a queue.
+ * - Worker threads (one per processor) run everything else: the steps of a search that depend on a
+ *   response (describing the listed Arns, joining, filtering and sorting) are handed to a worker
+ *   once the response thread or join thread is done with it, and none of them ever block.
+ *
+ * Delays (rate limiter waits and retry backoffs) are scheduled on a timer instead of sleeping on a
+ * thread.
+ */
+class AmazonEcsWorkerPool {
+
+    /** Default value used when the Describe Concurrency property is left blank. */
+    public static final int DEFAULT_CONCURRENCY = 10;
+
+    /** Default value used when the Response Threads property is left blank. */
+    public static final int DEFAULT_RESPONSE_THREADS = 8;
+
+    /** The most EC2 searches (made for joins to instance fields) that run at once. */
+    public static final int JOIN_THREADS = 4;
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor responseExecutor;
+    private final ThreadPoolExecutor joinExecutor;
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * @param name The prefix of the thread names
+     * @param responseThreads The number of response threads
+     */
+    public AmazonEcsWorkerPool(String name, int responseThreads) {
+        String prefix = name + "-" + POOL_COUNT.incrementAndGet() + "-";
+        int workerThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        executor = threads(workerThreads, daemonThreads(prefix));
+        responseExecutor = threads(responseThreads, daemonThreads(prefix + "response-"));
+        joinExecutor = threads(JOIN_THREADS, daemonThreads(prefix + "join-"));
+        timer = new ScheduledThreadPoolExecutor(1, daemonThreads(prefix + "timer-"));
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private static ThreadPoolExecutor threads(int count, ThreadFactory threadFactory) {
+        ThreadPoolExecutor threads = new ThreadPoolExecutor(count, count, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory);
+        // Don't keep idle threads around between bursts of requests
+        threads.allowCoreThreadTimeOut(true);
+        return threads;
+    }
+
+    /**
+     * The executor that runs on the worker threads.
+     */
+    public Executor executor() {
+        return executor;
+    }
+
+    /**
+     * The executor that runs on the response threads (for the transport's response handlers).
+     */
+    public Executor responseExecutor() {
+        return responseExecutor;
+    }
+
+    /**
+     * Completes the future with the result (or fails it with the error) on a worker thread, so
+     * that the steps waiting on it don't run on the response thread or join thread that produced
+     * the result.
+     */
+    public <T> void completeOnWorker(final CompletableFuture<T> future, final T result, final Throwable error) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (error == null) {
+                        future.complete(result);
+                    } else {
+                        future.completeExceptionally(error);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new BridgeError("The adapter was destroyed while an ECS call was in flight.", e));
+        }
+    }
+
+    /**
+     * Runs a blocking call on a join thread (so that it never holds a worker) and returns a future
+     * that completes on a worker thread with its result, or fails with the exception it threw.
+     */
+    public <T> CompletableFuture<T> supplyBlocking(final Supplier<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            joinExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    T result;
+                    try {
+                        result = call.get();
+                    } catch (RuntimeException e) {
+                        completeOnWorker(future, null, e);
+                        return;
+                    }
+                    completeOnWorker(future, result, null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new BridgeError("The adapter was destroyed while an EC2 search was waiting.", e));
+        }
+        return future;
+    }
+
+    /**
+     * Returns a future that completes (on a worker thread) once the delay has passed, or right away
+     * if there is no delay.
+     */
+    public CompletableFuture<Void> delay(long millis) {
+        if (millis <= 0) return CompletableFuture.completedFuture(null);
+        final CompletableFuture<Void> delayed = new CompletableFuture<Void>();
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                delayed.complete(null);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        delayed.completeExceptionally(new BridgeError("The adapter was destroyed while an ECS call was waiting.", e));
+                    }
+                }
+            }, millis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            delayed.completeExceptionally(new BridgeError("The adapter was destroyed while an ECS call was waiting.", e));
+        }
+        return delayed;
+    }
+
+    /**
+     * Stops the threads and the timer. Tasks that are still queued are not run.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        joinExecutor.shutdownNow();
+        responseExecutor.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns a future that completes with the results of the futures (in the same order as the
+     * futures) once they have all completed, or fails as soon as any one of them fails.
+     *
+     * @param futures
+     * @return
+     */
+    public static <T> CompletableFuture<List<T>> all(final List<CompletableFuture<T>> futures) {
+        final CompletableFuture<List<T>> all = new CompletableFuture<List<T>>();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenComplete((ignored, error) -> {
+            if (error != null) {
+                all.completeExceptionally(error);
+                return;
+            }
+            List<T> results = new ArrayList<T>(futures.size());
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+            all.complete(results);
+        });
+        // Fail right away rather than waiting for the rest of the futures
+        for (CompletableFuture<T> future : futures) {
+            future.whenComplete((ignored, error) -> {
+                if (error != null) all.completeExceptionally(error);
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Starts the calls with at most concurrency of them in flight at once (each of the rest is
+     * started as an earlier call completes) and returns a future that completes with their results
+     * in the same order as the calls, or fails as soon as any one of them fails. When one fails, the
+     * calls still in flight are cancelled and the ones that haven't been started are never started.
+     *
+     * The calls are started from a loop rather than from the completion of the call before them, so
+     * calls that return a future that has already completed (a cached or coalesced result) don't
+     * grow the stack.
+     *
+     * @param calls Starts each call
+     * @param concurrency The most calls in flight at once
+     * @return
+     */
+    public static <T> CompletableFuture<List<T>> bounded(final List<Supplier<CompletableFuture<T>>> calls, int concurrency) {
+        if (calls.isEmpty()) return CompletableFuture.completedFuture((List<T>)new ArrayList<T>());
+        Bounded<T> bounded = new Bounded<T>(calls);
+        bounded.start(Math.min(Math.max(concurrency, 1), calls.size()));
+        return bounded.all;
+    }
+
+    /**
+     * The state of a bounded set of calls.
+     */
+    private static class Bounded<T> {
+        private final List<Supplier<CompletableFuture<T>>> calls;
+        private final CompletableFuture<List<T>> all = new CompletableFuture<List<T>>();
+        private final Object[] results;
+        private final AtomicReferenceArray<CompletableFuture<T>> started;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        /** The calls that are waiting to be started by the thread that is starting calls */
+        private final AtomicInteger toStart = new AtomicInteger();
+
+        private Bounded(List<Supplier<CompletableFuture<T>>> calls) {
+            this.calls = calls;
+            this.results = new Object[calls.size()];
+            this.started = new AtomicReferenceArray<CompletableFuture<T>>(calls.size());
+            this.remaining = new AtomicInteger(calls.size());
+        }
+
+        /**
+         * Starts the number of calls. If another thread is already starting calls (including this
+         * thread, further up the stack) they are left for it to start.
+         */
+        private void start(int count) {
+            if (toStart.getAndAdd(count) != 0) return;
+            while (count != 0) {
+                for (int i = 0; i < count; i++) {
+                    startNext();
+                }
+                count = toStart.addAndGet(-count);
+            }
+        }
+
+        private void startNext() {
+            if (all.isDone()) return;
+            final int index = next.getAndIncrement();
+            if (index >= calls.size()) return;
+            CompletableFuture<T> call;
+            try {
+                call = calls.get(index).get();
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+            started.set(index, call);
+            // The fan out could have failed while the call was being started
+            if (all.isDone()) call.cancel(false);
+            call.whenComplete((result, error) -> {
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                results[index] = result;
+                if (remaining.decrementAndGet() == 0) {
+                    List<T> ordered = new ArrayList<T>(results.length);
+                    for (Object value : results) {
+                        ordered.add((T)value);
+                    }
+                    all.complete(ordered);
+                } else {
+                    start(1);
+                }
+            });
+        }
+
+        /**
+         * Fails the calls with the first error, cancelling the calls still in flight.
+         */
+        private void fail(Throwable error) {
+            if (!all.completeExceptionally(error)) return;
+            for (int i = 0; i < started.length(); i++) {
+                CompletableFuture<T> call = started.get(i);
+                if (call != null) call.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns a future that has already failed with the error.
+     */
+    public static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Blocks the calling thread until the future completes and returns its result, throwing any
+     * failure as a BridgeError. This must never be called from a worker thread.
+     *
+     * @param future
+     * @return
+     * @throws BridgeError
+     */
+    public static <T> T await(Future<T> future) throws BridgeError {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting for the ECS requests to complete.", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the BridgeError that a future failed with, wrapping any other failure.
+     */
+    public static BridgeError unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof BridgeError) {
+            return (BridgeError)cause;
+        } else if (cause instanceof RuntimeException && cause.getCause() instanceof BridgeError) {
+            return (BridgeError)cause.getCause();
+        } else {
+            return new BridgeError("There was a problem making the concurrent ECS requests.", cause);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import com.kineticdata.bridgehub.adapter.Record;
+import com.kineticdata.bridgehub.adapter.RecordList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Searches the embedded stand-in server to check the adapter end to end. The records the adapter
+ * pages itself (an explicit list of Arns, and the records answered from the mirror) are paged with
+ * the offset of the next page as the page token, and the pages together hold the records of the
+ * unpaged search.
+ */
+public class AmazonEcsAdapterTest {
+
+    private static final String CLUSTER = AmazonEcsFixtures.clusterName(0);
+    private static final int TASKS = 60;
+
+    private AmazonEcsStandInServer server;
+    private AmazonEcsAdapter adapter;
+
+    @After
+    public void stop() {
+        if (adapter != null) adapter.destroy();
+        if (server != null) server.stop();
+    }
+
+    @Test
+    public void testExplicitArnsArePaged() throws Exception {
+        start(new HashMap<String,String>());
+        String query = "cluster="+CLUSTER+"&taskArns="+taskArns(7);
+
+        // Only the Arns are needed to pick the page, so only the Arns on the page are described
+        assertPaged(query, "taskArn", 3, 7);
+        // The other fields are needed to sort, so every Arn is described and then paged
+        assertPaged(query, "taskArn,lastStatus", 3, 7);
+        assertPaged(query, "taskArn,lastStatus", 10, 7);
+    }
+
+    @Test
+    public void testMirroredRecordsArePaged() throws Exception {
+        Map<String,String> properties = new HashMap<String,String>();
+        properties.put(AmazonEcsAdapter.Properties.MIRROR_MODE, "true");
+        start(properties);
+        String query = "cluster="+CLUSTER;
+        long waitUntil = System.currentTimeMillis() + 10000;
+        while (search(query, "taskArn", null, null).getMetadata().get("mirrorStaleness") == null) {
+            assertTrue("The mirror wasn't refreshed", System.currentTimeMillis() < waitUntil);
+            Thread.sleep(50);
+        }
+
+        int total = search(query, "taskArn,lastStatus", null, null).getRecords().size();
+        assertTrue(total > 4);
+        assertPaged(query, "taskArn,lastStatus", 4, total);
+        assertPaged(query+"&taskArns="+taskArns(5), "taskArn,lastStatus", 2, 5);
+    }
+
+    @Test
+    public void testInListsAreListedPerValue() throws Exception {
+        start(new HashMap<String,String>());
+        AmazonEcsFixtures fixtures = new AmazonEcsFixtures();
+        int total = 0;
+        int stopped = 0;
+        for (int i = 0; i < TASKS; i++) {
+            if (fixtures.clusterOf(i) != 0) continue;
+            total++;
+            if ("STOPPED".equals(fixtures.task(i).get("desiredStatus"))) stopped++;
+        }
+        assertTrue(stopped > 0 && stopped < total);
+
+        // ECS only lists the RUNNING tasks unless another desired status is asked for
+        String query = "cluster="+CLUSTER+"&desiredStatus=[RUNNING,STOPPED]";
+        assertEquals(total, search(query, "taskArn", null, null).getRecords().size());
+        assertEquals(stopped, search("cluster="+CLUSTER+"&desiredStatus!=RUNNING", "taskArn", null, null).getRecords().size());
+
+        // The pages run on from the tasks of one desired status into the next
+        Set<Object> arns = new HashSet<Object>();
+        String pageToken = null;
+        do {
+            RecordList page = search(query, "taskArn", "3", pageToken);
+            pageToken = page.getMetadata().get("nextPageToken");
+            if (pageToken != null) assertEquals(3, page.getRecords().size());
+            for (Record record : page.getRecords()) {
+                assertTrue(arns.add(record.getValue("taskArn")));
+            }
+        } while (pageToken != null);
+        assertEquals(total, arns.size());
+    }
+
+    @Test
+    public void testClusterPageTokenRoundTrip() throws Exception {
+        Map<String,String> pageTokens = new LinkedHashMap<String,String>();
+        pageTokens.put("default", "20");
+        pageTokens.put("arn:aws:ecs:us-east-1:123456789012:cluster/cluster-1", "a+b/c=");
+        pageTokens.put("cluster-2", null);
+        String pageToken = AmazonEcsAdapter.encodeClusterPageToken(pageTokens);
+        assertTrue(pageToken.matches("[A-Za-z0-9_-]+"));
+        assertEquals(pageTokens, AmazonEcsAdapter.decodeClusterPageToken(pageToken));
+    }
+
+    @Test(expected = BridgeError.class)
+    public void testOtherPageTokensAreNotClusterPageTokens() throws Exception {
+        AmazonEcsAdapter.decodeClusterPageToken(AmazonEcsAdapter.encodeListCallsPageToken(1, "20"));
+    }
+
+    @Test
+    public void testFannedOutPagesResumeEachCluster() throws Exception {
+        start(new HashMap<String,String>());
+        String query = "cluster=*";
+        int total = search(query, "taskArn", null, null).getRecords().size();
+        assertTrue(total > 12);
+
+        // Each cluster is paged with the page size, and resumes from its own page token
+        Set<Object> arns = new HashSet<Object>();
+        String pageToken = null;
+        do {
+            RecordList page = search(query, "taskArn", "4", pageToken);
+            pageToken = page.getMetadata().get("nextPageToken");
+            int clusters = Integer.parseInt(page.getMetadata().get("clusters"));
+            assertEquals("4", page.getMetadata().get("clusterPageSize"));
+            assertEquals(String.valueOf(4 * clusters), page.getMetadata().get("pageSize"));
+            assertTrue(page.getRecords().size() <= 4 * clusters);
+            for (Record record : page.getRecords()) {
+                assertTrue(arns.add(record.getValue("taskArn")));
+            }
+        } while (pageToken != null);
+        assertEquals(total, arns.size());
+    }
+
+    @Test
+    public void testCountsSpanListPages() throws Exception {
+        // Enough tasks that each cluster has more than one page (100 Arns) of running tasks
+        start(new HashMap<String,String>(), 600);
+        String query = "cluster="+CLUSTER;
+        int total = search(query, "taskArn", null, null).getRecords().size();
+        assertTrue(total > 100);
+        assertEquals(total, count(query));
+
+        // Answered by the List calls alone, and with a predicate that is only checked client side
+        String listed = query+"&desiredStatus=[RUNNING,STOPPED]";
+        int listedTotal = search(listed, "taskArn", null, null).getRecords().size();
+        assertTrue(listedTotal > total);
+        assertEquals(listedTotal, count(listed));
+        int running = search(query+"&lastStatus=RUNNING", "taskArn", null, null).getRecords().size();
+        assertTrue(running > 0 && running < total);
+        assertEquals(running, count(query+"&lastStatus=RUNNING"));
+    }
+
+    /**
+     * Steps through the pages of the search, checking that each page has the page size (except the
+     * last one) and that the pages hold the records of the unpaged search in the same order.
+     */
+    private void assertPaged(String query, String fields, int pageSize, int total) throws Exception {
+        RecordList unpaged = search(query, fields, null, null);
+        assertEquals(total, unpaged.getRecords().size());
+        assertNull(unpaged.getMetadata().get("nextPageToken"));
+
+        List<List<Object>> pagedValues = new ArrayList<List<Object>>();
+        String pageToken = null;
+        do {
+            RecordList page = search(query, fields, String.valueOf(pageSize), pageToken);
+            pageToken = page.getMetadata().get("nextPageToken");
+            assertEquals(String.valueOf(pageSize), page.getMetadata().get("pageSize"));
+            assertEquals(pageToken == null ? total - pagedValues.size() : pageSize, page.getRecords().size());
+            if (pageToken != null) assertEquals(String.valueOf(pagedValues.size() + pageSize), pageToken);
+            pagedValues.addAll(values(page));
+        } while (pageToken != null);
+        assertEquals(values(unpaged), pagedValues);
+    }
+
+    private void start(Map<String,String> adapterProperties) throws Exception {
+        start(adapterProperties, TASKS);
+    }
+
+    private void start(Map<String,String> adapterProperties, int tasks) throws Exception {
+        server = AmazonEcsStandInServer.fromOptions(AmazonEcsStandInServer.options(
+            new String[] {"tasks="+tasks, "latency=0", "jitter=0"})).start(0);
+        Map<String,String> properties = new LinkedHashMap<String,String>();
+        properties.put(AmazonEcsAdapter.Properties.ACCESS_KEY, "AKIDEXAMPLE");
+        properties.put(AmazonEcsAdapter.Properties.SECRET_KEY, "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+        properties.put(AmazonEcsAdapter.Properties.REGION, AmazonEcsFixtures.REGION);
+        properties.put(AmazonEcsAdapter.Properties.ENDPOINT, server.getEndpoint());
+        properties.putAll(adapterProperties);
+        adapter = new AmazonEcsAdapter();
+        adapter.setProperties(properties);
+        adapter.initialize();
+    }
+
+    private RecordList search(String query, String fields, String pageSize, String pageToken) throws Exception {
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure("Tasks");
+        request.setQuery(query);
+        request.setFields(Arrays.asList(fields.split(",")));
+        request.setParameters(new HashMap<String,String>());
+        Map<String,String> metadata = new HashMap<String,String>();
+        if (pageSize != null) metadata.put("pageSize", pageSize);
+        if (pageToken != null) metadata.put("pageToken", pageToken);
+        request.setMetadata(metadata);
+        RecordList records = adapter.search(request);
+        assertNotNull(records);
+        return records;
+    }
+
+    private int count(String query) throws Exception {
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure("Tasks");
+        request.setQuery(query);
+        request.setParameters(new HashMap<String,String>());
+        request.setMetadata(new HashMap<String,String>());
+        return adapter.count(request).getValue();
+    }
+
+    /** The Arns of the first tasks in the cluster, as a query list */
+    private static String taskArns(int count) {
+        AmazonEcsFixtures fixtures = new AmazonEcsFixtures();
+        List<String> arns = new ArrayList<String>();
+        for (int i = 0; arns.size() < count; i++) {
+            if (fixtures.clusterOf(i) == 0) arns.add(AmazonEcsFixtures.taskArn(i));
+        }
+        StringBuilder list = new StringBuilder("[");
+        for (String arn : arns) {
+            if (list.length() > 1) list.append(",");
+            list.append(arn);
+        }
+        return list.append("]").toString();
+    }
+
+    private static List<List<Object>> values(RecordList recordList) {
+        List<List<Object>> values = new ArrayList<List<Object>>();
+        for (Record record : recordList.getRecords()) {
+            List<Object> recordValues = new ArrayList<Object>();
+            for (String field : recordList.getFields()) {
+                recordValues.add(record.getValue(field));
+            }
+            values.add(recordValues);
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AmazonEcsDescribeCacheTest {
+
+    @Test
+    public void testEvictsByEntries() {
+        AmazonEcsDescribeCache cache = new AmazonEcsDescribeCache(2, 64, 10);
+        cache.put("Tasks", "a", task("a", 0), null);
+        cache.put("Tasks", "b", task("b", 0), null);
+        cache.get("Tasks", "a", null);
+        cache.put("Tasks", "c", task("c", 0), null);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("Tasks", "a", null));
+        assertNull(cache.get("Tasks", "b", null));
+        assertNotNull(cache.get("Tasks", "c", null));
+    }
+
+    @Test
+    public void testEvictsBySize() {
+        // Each task definition is roughly 200KB, so only a few fit in 1MB
+        AmazonEcsDescribeCache cache = new AmazonEcsDescribeCache(1000, 1, 10);
+        for (int i = 0; i < 10; i++) {
+            cache.put("TaskDefinitions", "family:"+i, task("family:"+i, 500), null);
+            assertTrue(cache.bytes() <= 1024 * 1024);
+        }
+        assertTrue(cache.size() > 1 && cache.size() < 10);
+        assertNotNull(cache.get("TaskDefinitions", "family:9", null));
+        assertNull(cache.get("TaskDefinitions", "family:0", null));
+
+        // Small objects still fit alongside them
+        cache.put("Tasks", "small", task("small", 0), null);
+        assertNotNull(cache.get("Tasks", "small", null));
+    }
+
+    @Test
+    public void testSkipsObjectsLargerThanTheCache() {
+        AmazonEcsDescribeCache cache = new AmazonEcsDescribeCache(1000, 1, 10);
+        cache.put("Tasks", "small", task("small", 0), null);
+        cache.put("TaskDefinitions", "huge", task("huge", 20000), null);
+        assertNull(cache.get("TaskDefinitions", "huge", null));
+        assertNotNull(cache.get("Tasks", "small", null));
+    }
+
+    @Test
+    public void testTracksReplacedAndClearedEntries() {
+        AmazonEcsDescribeCache cache = new AmazonEcsDescribeCache(1000, 64, 10);
+        cache.put("Tasks", "a", task("a", 10), null);
+        long bytes = cache.bytes();
+        assertEquals(AmazonEcsDescribeCache.estimateBytes(task("a", 10)), bytes);
+        cache.put("Tasks", "a", task("a", 10), null);
+        assertEquals(bytes, cache.bytes());
+        cache.clear();
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void testTaskDefinitionsWithTagsExpire() {
+        // Without a TTL only the objects that never change are cached
+        AmazonEcsDescribeCache cache = new AmazonEcsDescribeCache(1000, 64, 0);
+        cache.put("TaskDefinitions", "untagged", task("untagged", 0), null);
+        assertNotNull(cache.get("TaskDefinitions", "untagged", null));
+
+        // The tags of a task definition can change, so they aren't cached forever
+        Set<String> projection = new HashSet<String>(Arrays.asList("arn", "tags"));
+        cache.put("TaskDefinitions", "tagged", task("tagged", 0), projection);
+        assertNull(cache.get("TaskDefinitions", "tagged", projection));
+    }
+
+    /** A described object with the number of environment variables */
+    private static Map<String,Object> task(String arn, int environmentSize) {
+        Map<String,Object> task = new LinkedHashMap<String,Object>();
+        task.put("arn", arn);
+        task.put("lastStatus", "RUNNING");
+        task.put("cpu", 256L);
+        List<Object> environment = new ArrayList<Object>();
+        for (int i = 0; i < environmentSize; i++) {
+            Map<String,Object> variable = new LinkedHashMap<String,Object>();
+            variable.put("name", "VARIABLE_"+i);
+            variable.put("value", "value of the environment variable number "+i);
+            environment.add(variable);
+        }
+        task.put("environment", environment);
+        return task;
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that the compiled paths give the same values as the way the adapter used to step through
+ * nested fields (the reference methods below are copied from the adapter before the paths were
+ * compiled).
+ */
+public class AmazonEcsFieldPathTest {
+
+    @Test
+    public void testEnvironmentAlias() {
+        Map task = map(
+            "overrides", map("containerOverrides", list(
+                map("name", "app", "environment", list(
+                    map("name", "space_slug", "value", "acme"),
+                    map("name", "kapp_slug", "value", "services"))),
+                map("name", "sidecar", "environment", list(
+                    map("name", "space_slug", "value", "other")))
+            ))
+        );
+        assertParity(task, "environment[space_slug]");
+        assertParity(task, "environment[kapp_slug]");
+        assertParity(task, "environment[missing]");
+        assertEquals("acme", AmazonEcsFieldPath.compile("environment[space_slug]").value(task));
+    }
+
+    @Test
+    public void testNameValueLists() {
+        Map instance = map(
+            "attributes", list(
+                map("name", "ecs.os-type", "value", "linux"),
+                map("name", "ecs.capability.docker", "value", null),
+                map("name", "ecs.os-type", "value", "windows")),
+            "empty", list()
+        );
+        assertParity(instance, "attributes[ecs.os-type]");
+        assertParity(instance, "attributes[ecs.capability.docker]");
+        assertParity(instance, "attributes[missing]");
+        assertParity(instance, "empty[name]");
+        assertEquals(Arrays.asList("linux", "windows"), AmazonEcsFieldPath.compile("attributes[ecs.os-type]").value(instance));
+    }
+
+    @Test
+    public void testNestedLists() {
+        Map task = map(
+            "containers", list(
+                map("name", "app", "networkInterfaces", list(
+                    map("privateIpv4Address", "10.0.0.1"),
+                    map("privateIpv4Address", "10.0.0.2"))),
+                map("name", "sidecar", "networkInterfaces", list(
+                    map("privateIpv4Address", "10.0.0.3")))),
+            "attachments", list(
+                map("id", "a", "details", list(
+                    map("name", "subnetId", "value", "subnet-1"),
+                    map("name", "privateIPv4Address", "value", "10.0.0.1")))),
+            "lists", list(list(map("a", "1")), map("a", "2"), list(map("a", map("b", "3"))))
+        );
+        assertParity(task, "containers[networkInterfaces][privateIpv4Address]");
+        assertParity(task, "containers[name]");
+        assertParity(task, "attachments[details][privateIPv4Address]");
+        assertParity(task, "lists[a]");
+        assertParity(task, "lists[a][b]");
+    }
+
+    @Test
+    public void testScalars() {
+        Map object = map(
+            "lastStatus", "RUNNING",
+            "mixed", list("scalar", map("a", "1"), map("a", "2")),
+            "mixedNested", list(map("a", list(map("b", "1"))), "scalar", map("a", list(map("b", "2")))),
+            "nullFirst", list(map("other", "x"), map("a", map("b", "1"))),
+            "numbers", list(1L, 2L),
+            "nested", map("a", "scalar", "b", map("c", "1")),
+            "pairs", list(
+                map("name", "n", "value", "scalar"),
+                map("name", "n", "value", map("c", "1")),
+                map("name", "n", "value", map("c", "2"))),
+            "nullPairs", list(
+                map("name", "n", "value", map("c", "1")),
+                map("name", "n", "value", null),
+                map("name", "n", "value", map("c", "2")))
+        );
+        assertParity(object, "lastStatus[x]");
+        assertParity(object, "mixed[a]");
+        assertParity(object, "mixedNested[a][b]");
+        assertParity(object, "nullFirst[a][b]");
+        assertParity(object, "numbers[a]");
+        assertParity(object, "nested[a][x]");
+        assertParity(object, "nested[b][c]");
+        assertParity(object, "missing[a]");
+
+        // A scalar (or null) ends the step, so the values after it aren't stepped into
+        assertParity(object, "pairs[n][c]");
+        assertParity(object, "nullPairs[n][c]");
+        assertEquals(Arrays.asList(map("c", "1"), map("c", "2")), AmazonEcsFieldPath.compile("pairs[n][c]").values(object));
+    }
+
+    @Test
+    public void testRandomObjects() {
+        Random random = new Random(12345);
+        String[] fields = {"a[b]", "a[b][c]", "a[c][b]", "b[a][a]", "a[n0]", "a[b][n1]", "b[n0][c]", "c[a][b][c]"};
+        for (int i = 0; i < 2000; i++) {
+            Map object = map("a", randomValue(random, 3), "b", randomValue(random, 3), "c", randomValue(random, 4));
+            for (String field : fields) {
+                assertParity(object, field);
+            }
+        }
+    }
+
+    @Test
+    public void testAliasedFields() {
+        for (String field : Arrays.asList("taskArn", "environment[space_slug]", "environment", "containers[environment]",
+            "environment[a][b]", "overrides[containerOverrides][environment][x]")
+        ) {
+            assertEquals(field, referenceAliasedField(field), AmazonEcsFieldPath.compile(field).getAliasedField());
+        }
+    }
+
+    private static void assertParity(Map object, String field) {
+        AmazonEcsFieldPath path = AmazonEcsFieldPath.compile(field);
+        List expected = referenceValues(object, field);
+        String message = field+" of "+object;
+        assertEquals(message, expected, path.values(object));
+
+        // The record value drops the nulls
+        List nonNullValues = new ArrayList(expected);
+        nonNullValues.removeAll(Collections.singleton(null));
+        Object expectedValue = nonNullValues.size() > 1
+            ? nonNullValues
+            : nonNullValues.size() == 1 ? nonNullValues.get(0) : null;
+        assertEquals(message, expectedValue, path.value(object));
+    }
+
+    private static Object randomValue(Random random, int depth) {
+        int kind = random.nextInt(depth == 0 ? 3 : 7);
+        switch (kind) {
+            case 0: return null;
+            case 1: return "s" + random.nextInt(3);
+            case 2: return (long)random.nextInt(3);
+            case 3: case 4: {
+                Map map = new LinkedHashMap();
+                for (String key : Arrays.asList("a", "b", "c")) {
+                    if (random.nextBoolean()) map.put(key, randomValue(random, depth-1));
+                }
+                return map;
+            }
+            case 5: {
+                List list = new ArrayList();
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    list.add(map("name", "n" + random.nextInt(2), "value", randomValue(random, depth-1)));
+                }
+                return list;
+            }
+            default: {
+                List list = new ArrayList();
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    list.add(randomValue(random, depth-1));
+                }
+                return list;
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * REFERENCE METHODS (the adapter's nested field handling before the paths were compiled)
+     *--------------------------------------------------------------------------------------------*/
+
+    private static final Pattern NESTED_PATTERN = Pattern.compile(".*?\\[(.*?)\\]");
+
+    private static final Map<Pattern,String> FLD_PATTERN_ALIASES = new HashMap<Pattern,String>() {{
+        put(Pattern.compile("(environment)\\[.*?\\]"),"overrides[containerOverrides][environment]");
+    }};
+
+    private static List referenceValues(Map object, String field) {
+        String aliasedField = referenceAliasedField(field);
+        String base = aliasedField.substring(0,aliasedField.indexOf("["));
+        Matcher matcher = NESTED_PATTERN.matcher(aliasedField);
+        List<String> subfields = new ArrayList<String>();
+        while (matcher.find()) {
+            subfields.add(matcher.group(1));
+        }
+        List valuesToCheck = new ArrayList();
+        valuesToCheck.add(object.get(base));
+        for (String subfield : subfields) {
+            valuesToCheck = getSubfieldValues(subfield, valuesToCheck);
+        }
+        return valuesToCheck;
+    }
+
+    private static List getSubfieldValues(String subfield, List valuesToCheck) {
+        List subfieldValues = new ArrayList(valuesToCheck);
+        for (Object value : new ArrayList(subfieldValues)) {
+            if (value instanceof Map<?,?>) {
+                subfieldValues.remove(value);
+                subfieldValues.add(((Map)value).get(subfield));
+            } else if (value instanceof List<?>) {
+                subfieldValues.remove(value);
+                // Check if it is a list of name/value hashes
+                List nonNameValuePairObjects = new ArrayList();
+                for (Object o : (List)value) {
+                    if (o instanceof Map) {
+                        if (((Map) o).containsKey("name") && ((Map) o).containsKey("value")) {
+                            if (((Map) o).get("name").toString().equals(subfield)) {
+                                subfieldValues.add(((Map) o).get("value"));
+                            }
+                        } else {
+                            nonNameValuePairObjects.add(o);
+                            break;
+                        }
+                    }
+                }
+                // If it is not a list of name/value hashes
+                if (!nonNameValuePairObjects.isEmpty()) {
+                    subfieldValues.addAll(getSubfieldValues(subfield,nonNameValuePairObjects));
+                }
+            } else {
+                subfieldValues.remove(value);
+                break;
+            }
+        }
+        return subfieldValues;
+    }
+
+    private static String referenceAliasedField(String fieldName) {
+        String aliasedField = fieldName;
+        for (Map.Entry<Pattern,String> entry : FLD_PATTERN_ALIASES.entrySet()) {
+            Matcher m = entry.getKey().matcher(fieldName);
+            if (m.find()) aliasedField = aliasedField.replace(m.group(1), entry.getValue());
+        }
+        return aliasedField;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static Map map(Object... keysAndValues) {
+        Map map = new LinkedHashMap();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i+1]);
+        }
+        return map;
+    }
+
+    private static List list(Object... values) {
+        return new ArrayList(Arrays.asList(values));
+    }
+
+}
@@ -0,0 +1,391 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * ECS responses for the benchmarks, shaped like responses recorded from real clusters (the same
+ * fields, nesting and value sizes) but generated from a fixed seed so that the same fixtures are
+ * built on every run without any network access or large files in the repository.
+ *
+ * Running the class writes the fixtures to a directory (target/fixtures by default) so that they
+ * can be inspected or replayed.
+ */
+public class AmazonEcsFixtures {
+
+    public static final String REGION = "us-east-1";
+    public static final String ACCOUNT = "123456789012";
+    public static final String[] LAST_STATUSES = {"RUNNING", "RUNNING", "RUNNING", "PENDING", "STOPPED"};
+    public static final String[] SPACES = {"acme", "globex", "initech", "umbrella", "hooli", "stark"};
+    public static final String[] SERVICES = {"core", "task", "agent", "bridgehub", "filehub", "loghub"};
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long SEED = 20141113L;
+
+    private final int clusters;
+    private final int taskDefinitions;
+    private final int containerInstancesPerCluster;
+
+    /**
+     * @param clusters The number of clusters the objects are spread over (the first one is the
+     *   default cluster)
+     * @param taskDefinitions The number of distinct task definitions the tasks run
+     * @param containerInstancesPerCluster The number of container instances in each cluster
+     */
+    public AmazonEcsFixtures(int clusters, int taskDefinitions, int containerInstancesPerCluster) {
+        this.clusters = clusters;
+        this.taskDefinitions = taskDefinitions;
+        this.containerInstancesPerCluster = containerInstancesPerCluster;
+    }
+
+    public AmazonEcsFixtures() {
+        this(3, 24, 4);
+    }
+
+    public int getClusters() {
+        return clusters;
+    }
+
+    public int getTaskDefinitions() {
+        return taskDefinitions;
+    }
+
+    public int getContainerInstances() {
+        return clusters * containerInstancesPerCluster;
+    }
+
+    /** The cluster of a task or container instance (they are dealt out over the clusters in turn) */
+    public int clusterOf(int index) {
+        return index % clusters;
+    }
+
+    public static String clusterName(int cluster) {
+        return cluster == 0 ? "default" : "cluster-"+cluster;
+    }
+
+    public static String clusterArn(int cluster) {
+        return "arn:aws:ecs:"+REGION+":"+ACCOUNT+":cluster/"+clusterName(cluster);
+    }
+
+    public static String taskArn(int task) {
+        return "arn:aws:ecs:"+REGION+":"+ACCOUNT+":task/"+uuid(task, 1);
+    }
+
+    public static String containerInstanceArn(int instance) {
+        return "arn:aws:ecs:"+REGION+":"+ACCOUNT+":container-instance/"+uuid(instance, 2);
+    }
+
+    public static String taskDefinitionArn(int taskDefinition) {
+        return "arn:aws:ecs:"+REGION+":"+ACCOUNT+":task-definition/"
+            +SERVICES[taskDefinition % SERVICES.length]+":"+(taskDefinition / SERVICES.length + 1);
+    }
+
+    public static String instanceId(int instance) {
+        return String.format("i-%017x", 0x1000000L + instance);
+    }
+
+    /**
+     * The task with the index (the same task is returned every time for the same index).
+     */
+    public JSONObject task(int index) {
+        Random random = new Random(SEED + index);
+        int taskDefinition = index % taskDefinitions;
+        String service = SERVICES[taskDefinition % SERVICES.length];
+        String space = SPACES[random.nextInt(SPACES.length)];
+        String lastStatus = LAST_STATUSES[random.nextInt(LAST_STATUSES.length)];
+        double createdAt = 1700000000 + index * 37 + random.nextInt(1000) / 1000.0;
+
+        JSONArray environment = new JSONArray();
+        environment.add(pair("space_slug", space));
+        environment.add(pair("kapp_slug", "services"));
+        environment.add(pair("JAVA_OPTS", "-Xmx"+(256 << random.nextInt(4))+"m -XX:+UseG1GC"));
+        JSONObject containerOverride = new JSONObject();
+        containerOverride.put("name", service);
+        containerOverride.put("environment", environment);
+        JSONArray containerOverrides = new JSONArray();
+        containerOverrides.add(containerOverride);
+        JSONObject overrides = new JSONObject();
+        overrides.put("containerOverrides", containerOverrides);
+
+        JSONArray containers = new JSONArray();
+        for (int c = 0; c < 2; c++) {
+            JSONObject container = new JSONObject();
+            container.put("containerArn", "arn:aws:ecs:"+REGION+":"+ACCOUNT+":container/"+uuid(index * 2 + c, 3));
+            container.put("taskArn", taskArn(index));
+            container.put("name", c == 0 ? service : service+"-sidecar");
+            container.put("lastStatus", lastStatus);
+            JSONArray networkBindings = new JSONArray();
+            JSONObject binding = new JSONObject();
+            binding.put("bindIP", "0.0.0.0");
+            binding.put("containerPort", 8080 + c);
+            binding.put("hostPort", 32768 + random.nextInt(28000));
+            binding.put("protocol", "tcp");
+            networkBindings.add(binding);
+            container.put("networkBindings", networkBindings);
+            container.put("networkInterfaces", new JSONArray());
+            container.put("healthStatus", "UNKNOWN");
+            containers.add(container);
+        }
+
+        JSONObject task = new JSONObject();
+        task.put("taskArn", taskArn(index));
+        task.put("clusterArn", clusterArn(clusterOf(index)));
+        task.put("taskDefinitionArn", taskDefinitionArn(taskDefinition));
+        task.put("containerInstanceArn", containerInstanceArn(containerInstanceOf(index)));
+        task.put("overrides", overrides);
+        task.put("lastStatus", lastStatus);
+        task.put("desiredStatus", lastStatus.equals("STOPPED") ? "STOPPED" : "RUNNING");
+        task.put("cpu", String.valueOf(256 << random.nextInt(3)));
+        task.put("memory", String.valueOf(512 << random.nextInt(4)));
+        task.put("containers", containers);
+        task.put("startedBy", "ecs-svc/"+(9000000000000000000L + index));
+        task.put("version", 1 + random.nextInt(5));
+        task.put("connectivity", "CONNECTED");
+        task.put("connectivityAt", createdAt + 1.5);
+        task.put("pullStartedAt", createdAt + 2.25);
+        task.put("pullStoppedAt", createdAt + 9.75);
+        task.put("createdAt", createdAt);
+        task.put("startedAt", createdAt + 12.5);
+        task.put("group", "service:"+service+"-"+space);
+        task.put("launchType", random.nextInt(4) == 0 ? "FARGATE" : "EC2");
+        task.put("healthStatus", "UNKNOWN");
+        task.put("attachments", new JSONArray());
+        task.put("tags", new JSONArray());
+        return task;
+    }
+
+    /** The container instance a task runs on (one in the same cluster as the task) */
+    public int containerInstanceOf(int task) {
+        return clusterOf(task) + clusters * ((task / clusters) % containerInstancesPerCluster);
+    }
+
+    /**
+     * The cluster with the index, with the counts of the tasks and container instances in it.
+     */
+    public JSONObject cluster(int index, int runningTasks, int pendingTasks) {
+        JSONObject cluster = new JSONObject();
+        cluster.put("clusterArn", clusterArn(index));
+        cluster.put("clusterName", clusterName(index));
+        cluster.put("status", "ACTIVE");
+        cluster.put("registeredContainerInstancesCount", containerInstancesPerCluster);
+        cluster.put("runningTasksCount", runningTasks);
+        cluster.put("pendingTasksCount", pendingTasks);
+        cluster.put("activeServicesCount", SERVICES.length);
+        cluster.put("statistics", new JSONArray());
+        cluster.put("tags", new JSONArray());
+        cluster.put("settings", new JSONArray());
+        cluster.put("capacityProviders", new JSONArray());
+        return cluster;
+    }
+
+    /**
+     * The container instance with the index (it belongs to the cluster clusterOf(index)).
+     */
+    public JSONObject containerInstance(int index) {
+        Random random = new Random(SEED + 7919L * index);
+        JSONArray registeredResources = new JSONArray();
+        JSONArray remainingResources = new JSONArray();
+        for (String resource : new String[] {"CPU", "MEMORY"}) {
+            JSONObject registered = new JSONObject();
+            registered.put("name", resource);
+            registered.put("type", "INTEGER");
+            registered.put("integerValue", resource.equals("CPU") ? 4096 : 15576);
+            registeredResources.add(registered);
+            JSONObject remaining = new JSONObject();
+            remaining.put("name", resource);
+            remaining.put("type", "INTEGER");
+            remaining.put("integerValue", random.nextInt(resource.equals("CPU") ? 4096 : 15576));
+            remainingResources.add(remaining);
+        }
+        JSONArray attributes = new JSONArray();
+        for (String attribute : new String[] {"ecs.os-type", "ecs.instance-type", "ecs.availability-zone"}) {
+            JSONObject pair = new JSONObject();
+            pair.put("name", attribute);
+            pair.put("value", attribute.equals("ecs.os-type") ? "linux"
+                : attribute.equals("ecs.instance-type") ? "m5.xlarge" : REGION+(char)('a' + index % 3));
+            attributes.add(pair);
+        }
+        JSONObject versionInfo = new JSONObject();
+        versionInfo.put("agentVersion", "1.51.0");
+        versionInfo.put("agentHash", "4023248");
+        versionInfo.put("dockerVersion", "DockerVersion: 19.03.13-ce");
+
+        JSONObject containerInstance = new JSONObject();
+        containerInstance.put("containerInstanceArn", containerInstanceArn(index));
+        containerInstance.put("ec2InstanceId", instanceId(index));
+        containerInstance.put("version", 10 + random.nextInt(50));
+        containerInstance.put("versionInfo", versionInfo);
+        containerInstance.put("remainingResources", remainingResources);
+        containerInstance.put("registeredResources", registeredResources);
+        containerInstance.put("status", "ACTIVE");
+        containerInstance.put("agentConnected", true);
+        containerInstance.put("runningTasksCount", random.nextInt(20));
+        containerInstance.put("pendingTasksCount", 0);
+        containerInstance.put("attributes", attributes);
+        containerInstance.put("registeredAt", 1690000000 + index * 11 + 0.5);
+        containerInstance.put("attachments", new JSONArray());
+        containerInstance.put("tags", new JSONArray());
+        return containerInstance;
+    }
+
+    /**
+     * The task definition with the index, with the number of containers and environment variables
+     * for each container (large task definitions have tens of containers and hundreds of
+     * variables).
+     */
+    public JSONObject taskDefinition(int index, int containers, int environmentVariables) {
+        Random random = new Random(SEED - index);
+        String service = SERVICES[index % SERVICES.length];
+
+        JSONArray containerDefinitions = new JSONArray();
+        for (int c = 0; c < containers; c++) {
+            JSONArray environment = new JSONArray();
+            for (int e = 0; e < environmentVariables; e++) {
+                environment.add(pair("SETTING_"+e, Long.toHexString(random.nextLong())+"/"+service+"/"+e));
+            }
+            JSONArray portMappings = new JSONArray();
+            JSONObject portMapping = new JSONObject();
+            portMapping.put("containerPort", 8080 + c);
+            portMapping.put("hostPort", 0);
+            portMapping.put("protocol", "tcp");
+            portMappings.add(portMapping);
+            JSONObject logOptions = new JSONObject();
+            logOptions.put("awslogs-group", "/ecs/"+service);
+            logOptions.put("awslogs-region", REGION);
+            logOptions.put("awslogs-stream-prefix", service+"-"+c);
+            JSONObject logConfiguration = new JSONObject();
+            logConfiguration.put("logDriver", "awslogs");
+            logConfiguration.put("options", logOptions);
+            JSONObject dockerLabels = new JSONObject();
+            dockerLabels.put("com.kineticdata.service", service);
+            dockerLabels.put("com.kineticdata.container", String.valueOf(c));
+            JSONArray command = new JSONArray();
+            command.add("/opt/"+service+"/bin/start.sh");
+            command.add("--container="+c);
+
+            JSONObject containerDefinition = new JSONObject();
+            containerDefinition.put("name", c == 0 ? service : service+"-"+c);
+            containerDefinition.put("image", ACCOUNT+".dkr.ecr."+REGION+".amazonaws.com/"+service+":"+(index + 1)+"."+c);
+            containerDefinition.put("cpu", 128);
+            containerDefinition.put("memory", 512 << (c % 3));
+            containerDefinition.put("memoryReservation", 256);
+            containerDefinition.put("essential", c == 0);
+            containerDefinition.put("portMappings", portMappings);
+            containerDefinition.put("environment", environment);
+            containerDefinition.put("mountPoints", new JSONArray());
+            containerDefinition.put("volumesFrom", new JSONArray());
+            containerDefinition.put("command", command);
+            containerDefinition.put("dockerLabels", dockerLabels);
+            containerDefinition.put("logConfiguration", logConfiguration);
+            containerDefinitions.add(containerDefinition);
+        }
+
+        JSONArray requiresAttributes = new JSONArray();
+        JSONObject attribute = new JSONObject();
+        attribute.put("name", "com.amazonaws.ecs.capability.logging-driver.awslogs");
+        requiresAttributes.add(attribute);
+        JSONArray compatibilities = new JSONArray();
+        compatibilities.add("EC2");
+
+        JSONObject taskDefinition = new JSONObject();
+        taskDefinition.put("taskDefinitionArn", taskDefinitionArn(index));
+        taskDefinition.put("containerDefinitions", containerDefinitions);
+        taskDefinition.put("family", service);
+        taskDefinition.put("revision", index / SERVICES.length + 1);
+        taskDefinition.put("volumes", new JSONArray());
+        taskDefinition.put("status", "ACTIVE");
+        taskDefinition.put("requiresAttributes", requiresAttributes);
+        taskDefinition.put("placementConstraints", new JSONArray());
+        taskDefinition.put("compatibilities", compatibilities);
+        taskDefinition.put("networkMode", "bridge");
+        return taskDefinition;
+    }
+
+    /**
+     * A DescribeTasks response body with the tasks from 0 up to the count.
+     */
+    public String describeTasksResponse(int count) {
+        JSONArray tasks = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            tasks.add(task(i));
+        }
+        JSONObject response = new JSONObject();
+        response.put("tasks", tasks);
+        response.put("failures", new JSONArray());
+        return response.toJSONString();
+    }
+
+    /**
+     * A DescribeTaskDefinition response body.
+     */
+    public String describeTaskDefinitionResponse(int index, int containers, int environmentVariables) {
+        JSONObject response = new JSONObject();
+        response.put("taskDefinition", taskDefinition(index, containers, environmentVariables));
+        return response.toJSONString();
+    }
+
+    /**
+     * The tasks from 0 up to the count as records.
+     */
+    public List<Record> taskRecords(int count) {
+        List<Record> records = new ArrayList<Record>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(new Record(task(i)));
+        }
+        return records;
+    }
+
+    public static byte[] bytes(String json) {
+        return json.getBytes(UTF8);
+    }
+
+    private static JSONObject pair(String name, String value) {
+        JSONObject pair = new JSONObject();
+        pair.put("name", name);
+        pair.put("value", value);
+        return pair;
+    }
+
+    private static String uuid(int index, int kind) {
+        Random random = new Random(SEED * 31 + index * 7L + kind);
+        return String.format("%08x-%04x-%04x-%04x-%012x", random.nextInt(), random.nextInt(0x10000),
+            random.nextInt(0x10000), random.nextInt(0x10000), random.nextLong() & 0xffffffffffffL);
+    }
+
+    /**
+     * Writes the fixtures used by the benchmarks to a directory.
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : "target/fixtures");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create "+directory);
+        }
+        AmazonEcsFixtures fixtures = new AmazonEcsFixtures();
+        Map<String,String> files = new LinkedHashMap<String,String>();
+        for (int count : new int[] {10, 100, 1000, 10000}) {
+            files.put("describe-tasks-"+count+".json", fixtures.describeTasksResponse(count));
+        }
+        files.put("describe-task-definition-small.json", fixtures.describeTaskDefinitionResponse(0, 1, 10));
+        files.put("describe-task-definition-large.json", fixtures.describeTaskDefinitionResponse(1, 10, 200));
+        for (Map.Entry<String,String> file : files.entrySet()) {
+            OutputStream out = new FileOutputStream(new File(directory, file.getKey()));
+            try {
+                out.write(bytes(file.getValue()));
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+}
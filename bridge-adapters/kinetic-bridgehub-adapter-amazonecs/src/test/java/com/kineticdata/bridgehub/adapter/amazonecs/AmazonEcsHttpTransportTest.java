@@ -0,0 +1,207 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpGet;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AmazonEcsHttpTransportTest {
+
+    private static final int BODY_SIZE = 2 * 1024 * 1024;
+
+    private final byte[] body = new byte[BODY_SIZE];
+    private final CountDownLatch handlerStarted = new CountDownLatch(1);
+    private volatile boolean startedBeforeTheEnd = false;
+    private ExecutorService executor;
+    private HttpServer server;
+    private AmazonEcsHttpTransport transport;
+
+    @Before
+    public void start() throws Exception {
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte)('a' + i % 26);
+        }
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                // Send the first half, and only send the rest once the handler has started reading
+                out.write(body, 0, body.length / 2);
+                out.flush();
+                if (exchange.getRequestURI().getPath().equals("/streamed")) {
+                    try {
+                        startedBeforeTheEnd = handlerStarted.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                out.write(body, body.length / 2, body.length - body.length / 2);
+                out.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        transport = new AmazonEcsHttpTransport(5000, 5000, 1, 1);
+    }
+
+    @After
+    public void stop() {
+        transport.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testHandlerReadsTheResponseWhileItIsReceived() throws Exception {
+        byte[] received = transport.execute(new HttpGet(url("/streamed")), new AmazonEcsHttpTransport.ResponseHandler<byte[]>() {
+            @Override
+            public byte[] handleResponse(int statusCode, HttpEntity entity) throws IOException {
+                assertEquals(BODY_SIZE, entity.getContentLength());
+                InputStream in = entity.getContent();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] chunk = new byte[4096];
+                int read;
+                while ((read = in.read(chunk)) >= 0) {
+                    out.write(chunk, 0, read);
+                    handlerStarted.countDown();
+                }
+                return out.toByteArray();
+            }
+        }, executor).get(10, TimeUnit.SECONDS);
+        // Had the whole response been buffered first, the server would have waited for the handler
+        assertTrue(startedBeforeTheEnd);
+        assertArrayEquals(body, received);
+    }
+
+    @Test
+    public void testUnreadResponsesAreDiscarded() throws Exception {
+        // The transport only has one connection, so each request reuses it once the handler returns
+        for (int i = 0; i < 3; i++) {
+            final int bytesToRead = i * 1000;
+            byte[] received = transport.execute(new HttpGet(url("/")), new AmazonEcsHttpTransport.ResponseHandler<byte[]>() {
+                @Override
+                public byte[] handleResponse(int statusCode, HttpEntity entity) throws IOException {
+                    byte[] start = new byte[bytesToRead];
+                    int offset = 0;
+                    InputStream in = entity.getContent();
+                    while (offset < start.length) {
+                        offset += in.read(start, offset, start.length - offset);
+                    }
+                    return start;
+                }
+            }, executor).get(10, TimeUnit.SECONDS);
+            assertArrayEquals(Arrays.copyOf(body, bytesToRead), received);
+        }
+    }
+
+    @Test
+    public void testTruncatedResponsesFail() throws Exception {
+        final ServerSocket socket = new ServerSocket(0);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket connection = socket.accept()) {
+                    InputStream in = connection.getInputStream();
+                    // Skip the request headers (the request doesn't have a body)
+                    int matched = 0;
+                    while (matched < 4) {
+                        int next = in.read();
+                        if (next < 0) return;
+                        matched = next == "\r\n\r\n".charAt(matched) ? matched + 1 : (next == '\r' ? 1 : 0);
+                    }
+                    OutputStream out = connection.getOutputStream();
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: "+BODY_SIZE+"\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(body, 0, 100000);
+                    out.flush();
+                } catch (IOException e) {
+                    // The test fails on the client side
+                }
+            }
+        });
+        try {
+            transport.execute(new HttpGet("http://127.0.0.1:"+socket.getLocalPort()+"/"), new AmazonEcsHttpTransport.ResponseHandler<Integer>() {
+                @Override
+                public Integer handleResponse(int statusCode, HttpEntity entity) throws IOException, BridgeError {
+                    int total = 0;
+                    InputStream in = entity.getContent();
+                    byte[] chunk = new byte[4096];
+                    int read;
+                    while ((read = in.read(chunk)) >= 0) {
+                        total += read;
+                    }
+                    return total;
+                }
+            }, executor).get(10, TimeUnit.SECONDS);
+            fail("The truncated response was handled as a complete response");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testRequestsFailOnceTheQueueIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        AmazonEcsHttpTransport.ResponseHandler<Integer> handler = new AmazonEcsHttpTransport.ResponseHandler<Integer>() {
+            @Override
+            public Integer handleResponse(int statusCode, HttpEntity entity) throws IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return statusCode;
+            }
+        };
+        // The first request holds the only connection, the second waits and the third doesn't fit
+        CompletableFuture<Integer> sent = transport.execute(new HttpGet(url("/")), handler, executor);
+        CompletableFuture<Integer> queued = transport.execute(new HttpGet(url("/")), handler, executor);
+        CompletableFuture<Integer> rejected = transport.execute(new HttpGet(url("/")), handler, executor);
+        assertEquals(1, transport.getWaiting());
+        assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.get();
+            fail("The request was queued past the limit");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+        }
+
+        release.countDown();
+        assertEquals(Integer.valueOf(200), sent.get(10, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(200), queued.get(10, TimeUnit.SECONDS));
+        assertEquals(0, transport.getWaiting());
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:"+server.getAddress().getPort()+path;
+    }
+
+}
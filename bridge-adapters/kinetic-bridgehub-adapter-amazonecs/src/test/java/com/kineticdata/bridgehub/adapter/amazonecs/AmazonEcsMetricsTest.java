@@ -0,0 +1,44 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AmazonEcsMetricsTest {
+
+    @Test
+    public void testResetKeepsInFlightMetrics() {
+        AmazonEcsMetrics metrics = new AmazonEcsMetrics();
+        AmazonEcsMetrics.Metric metric = metrics.get("ecs.DescribeTasks");
+        long started = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5);
+        metric.record(started, false);
+        metric.addRecords(100);
+        metric.throttled();
+
+        // A call that started before the reset completes after it
+        metrics.reset();
+        assertEquals(0L, metrics.snapshot().get("ecs.DescribeTasks").get("calls"));
+        assertEquals(0d, metrics.snapshot().get("ecs.DescribeTasks").get("maxMillis"));
+        metric.record(started, true);
+        metric.addRecords(10);
+
+        assertEquals(1L, metrics.getCalls().get("ecs.DescribeTasks").longValue());
+        assertEquals(0L, metrics.getErrors().get("ecs.DescribeTasks").longValue());
+        assertEquals(0L, metrics.getThrottles().get("ecs.DescribeTasks").longValue());
+        assertEquals(10L, metrics.getRecords().get("ecs.DescribeTasks").longValue());
+        assertTrue(metrics.getP50Millis().get("ecs.DescribeTasks") >= 4);
+    }
+
+    @Test
+    public void testHistogramReset() {
+        AmazonEcsMetrics.Histogram histogram = new AmazonEcsMetrics.Histogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        histogram.reset();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(histogram.max() < 2);
+        assertTrue(histogram.percentile(0.99) < 2);
+        assertEquals(1, histogram.mean(), 0.01);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AmazonEcsMirrorTest {
+
+    private final Map<String,Map> tasks = new LinkedHashMap<String,Map>();
+    private long describedAt = 0;
+
+    private final AmazonEcsMirror.Source source = new AmazonEcsMirror.Source() {
+        @Override
+        public List<String> listArns(String structure, String cluster) {
+            if (structure.equals("Clusters")) return Arrays.asList("arn:cluster/c1");
+            if (structure.equals("Tasks")) return new ArrayList<String>(tasks.keySet());
+            return new ArrayList<String>();
+        }
+        @Override
+        public List<Map> describe(String structure, List<String> arns, String cluster) {
+            List<Map> objects = new ArrayList<Map>();
+            for (String arn : arns) {
+                objects.add(structure.equals("Clusters")
+                    ? map("clusterArn", "arn:cluster/c1", "clusterName", "c1")
+                    : new HashMap(tasks.get(arn)));
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            describedAt = System.currentTimeMillis();
+            return objects;
+        }
+    };
+
+    @Test
+    public void testRefreshLeavesPreviousSnapshotUnchanged() throws Exception {
+        AmazonEcsMirror mirror = new AmazonEcsMirror(source, Collections.<String>emptyList(),
+            Arrays.asList("lastStatus"), Arrays.asList("status"), 30, 3);
+        tasks.put("t1", task("t1", "RUNNING"));
+        tasks.put("t2", task("t2", "PENDING"));
+        mirror.refresh();
+        AmazonEcsMirror.Snapshot first = mirror.snapshot();
+
+        tasks.remove("t1");
+        tasks.put("t2", task("t2", "RUNNING"));
+        tasks.put("t3", task("t3", "PENDING"));
+        mirror.refresh();
+        AmazonEcsMirror.Snapshot second = mirror.snapshot();
+
+        // A search that is still reading the first snapshot sees the objects it started with
+        assertEquals(Arrays.asList("t1", "t2"), arns(mirror, first, "cluster=c1"));
+        assertEquals(Arrays.asList("t2"), arns(mirror, first, "cluster=c1&lastStatus=PENDING"));
+        assertEquals(Arrays.asList("t2", "t3"), arns(mirror, second, "cluster=c1"));
+        assertEquals(Arrays.asList("t3"), arns(mirror, second, "cluster=c1&lastStatus=PENDING"));
+    }
+
+    @Test
+    public void testStalenessIsMeasuredFromTheStartOfTheLastFullRefresh() throws Exception {
+        AmazonEcsMirror mirror = new AmazonEcsMirror(source, Collections.<String>emptyList(),
+            Arrays.asList("lastStatus"), Arrays.asList("status"), 30, 3);
+        tasks.put("t1", task("t1", "RUNNING"));
+        long startedAt = System.currentTimeMillis();
+        mirror.refresh();
+        AmazonEcsMirror.Snapshot full = mirror.snapshot();
+        assertTrue(full.getRefreshedAt() >= startedAt);
+        assertTrue(full.getRefreshedAt() < describedAt);
+        assertEquals(full.getRefreshedAt(), full.getDescribedSince());
+
+        // The incremental refreshes don't re-describe t1, so it is still as old as the full refresh
+        mirror.refresh();
+        mirror.refresh();
+        AmazonEcsMirror.Snapshot incremental = mirror.snapshot();
+        assertTrue(incremental.getRefreshedAt() > full.getRefreshedAt());
+        assertEquals(full.getDescribedSince(), incremental.getDescribedSince());
+
+        // Every third refresh is a full refresh
+        mirror.refresh();
+        AmazonEcsMirror.Snapshot nextFull = mirror.snapshot();
+        assertEquals(nextFull.getRefreshedAt(), nextFull.getDescribedSince());
+    }
+
+    private static List<String> arns(AmazonEcsMirror mirror, AmazonEcsMirror.Snapshot snapshot, String query) throws Exception {
+        AmazonEcsQueryPlan.Bound bound = AmazonEcsQueryPlan.compile("Tasks", query, false)
+            .bind(new AmazonEcsQualificationParser(), new HashMap<String,String>());
+        AmazonEcsRecordStore.Selection selection = mirror.objects(snapshot, "Tasks", bound);
+        List<String> arns = new ArrayList<String>();
+        for (Map object : selection.getObjects()) {
+            arns.add((String)object.get("taskArn"));
+        }
+        return arns;
+    }
+
+    private static Map task(String arn, String lastStatus) {
+        return map("taskArn", arn, "lastStatus", lastStatus, "clusterArn", "arn:cluster/c1");
+    }
+
+    private static Map map(Object... keysAndValues) {
+        Map map = new LinkedHashMap();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i+1]);
+        }
+        return map;
+    }
+
+}
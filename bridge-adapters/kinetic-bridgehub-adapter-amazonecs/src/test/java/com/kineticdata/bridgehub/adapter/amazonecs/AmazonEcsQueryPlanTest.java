@@ -0,0 +1,230 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class AmazonEcsQueryPlanTest {
+
+    private final AmazonEcsQueryPlan.Cache plans = new AmazonEcsQueryPlan.Cache(AmazonEcsQueryPlan.Cache.DEFAULT_MAX_ENTRIES);
+
+    @Test
+    public void testValueParameters() throws Exception {
+        AmazonEcsQueryPlan.Bound query = bind("Tasks",
+            "cluster=<%=parameter[\"Cluster\"]%>&lastStatus=<%=parameter[\"Status\"]%>",
+            "Cluster", "default", "Status", "RUNNING");
+        assertEquals("default", query.getCluster());
+        assertEquals(map("cluster", "default"), query.getListParameters());
+        assertEquals(Arrays.asList("lastStatus=RUNNING"), predicates(query.getLocalPredicates()));
+    }
+
+    @Test
+    public void testLiteralValues() throws Exception {
+        AmazonEcsQueryPlan.Bound query = bind("Tasks", "cluster=default&desiredStatus=RUNNING&maxResults=10&lastStatus=[PENDING,RUNNING]");
+        assertEquals("default", query.getCluster());
+        assertEquals(map("cluster", "default", "desiredStatus", "RUNNING", "maxResults", 10), query.getListParameters());
+        assertEquals(Arrays.asList("lastStatus=[PENDING,RUNNING]"), predicates(query.getLocalPredicates()));
+        assertEquals(new HashSet<String>(Arrays.asList("PENDING", "RUNNING")), query.getLocalPredicates().get(0).getValues());
+
+        // Literal values next to parameter tokens
+        query = bind("Tasks", "cluster=default&desiredStatus=RUNNING&group=<%=parameter[\"Group\"]%>",
+            "Group", "service:web");
+        assertEquals(map("cluster", "default", "desiredStatus", "RUNNING"), query.getListParameters());
+        assertEquals(Arrays.asList("group=service:web"), predicates(query.getLocalPredicates()));
+    }
+
+    @Test
+    public void testWholeQueryParameter() throws Exception {
+        String template = "<%=parameter[\"Query\"]%>";
+        AmazonEcsQueryPlan.Bound query = bind("Tasks", template,
+            "Query", "cluster=default&desiredStatus=RUNNING&group^=service:");
+        assertEquals("default", query.getCluster());
+        assertEquals(map("cluster", "default", "desiredStatus", "RUNNING"), query.getListParameters());
+        assertEquals(Arrays.asList("group^=service:"), predicates(query.getLocalPredicates()));
+
+        // The same template binds each request's own query
+        query = bind("Tasks", template, "Query", "cluster=other&taskArns=[a,b]");
+        assertEquals("other", query.getCluster());
+        assertEquals(Arrays.asList("a", "b"), query.getArns());
+    }
+
+    @Test
+    public void testKeyParameter() throws Exception {
+        AmazonEcsQueryPlan.Bound query = bind("Tasks",
+            "cluster=<%=parameter[\"c\"]%>&<%=parameter[\"k\"]%>=x",
+            "c", "default", "k", "lastStatus");
+        assertEquals("default", query.getCluster());
+        assertEquals(map("cluster", "default"), query.getListParameters());
+        assertEquals(Arrays.asList("lastStatus=x"), predicates(query.getLocalPredicates()));
+
+        query = bind("Tasks", "cluster=<%=parameter[\"c\"]%>&<%=parameter[\"k\"]%>=x",
+            "c", "default", "k", "desiredStatus");
+        assertEquals(map("cluster", "default", "desiredStatus", "x"), query.getListParameters());
+        assertEquals(0, query.getLocalPredicates().size());
+    }
+
+    @Test
+    public void testValueParameterAddingParts() throws Exception {
+        AmazonEcsQueryPlan.Bound query = bind("Tasks", "cluster=<%=parameter[\"Cluster\"]%>",
+            "Cluster", "default&lastStatus=STOPPED");
+        assertEquals("default", query.getCluster());
+        assertEquals(Arrays.asList("lastStatus=STOPPED"), predicates(query.getLocalPredicates()));
+    }
+
+    @Test
+    public void testParameterTokensWithSeparators() throws Exception {
+        // The & and = inside the token don't split the template
+        AmazonEcsQueryPlan.Bound query = bind("Tasks", "cluster=default&group=<%=parameter[\"a&b=c\"]%>",
+            "a&b=c", "service:web");
+        assertEquals(Arrays.asList("group=service:web"), predicates(query.getLocalPredicates()));
+    }
+
+    @Test
+    public void testRetrieveArn() throws Exception {
+        AmazonEcsQueryPlan.Bound query = plans.bind("Tasks", "cluster=default&taskArn=<%=parameter[\"Arn\"]%>", true,
+            new AmazonEcsQualificationParser(), parameters("Arn", "arn:aws:ecs:us-east-1:1:task/a"));
+        assertEquals(Arrays.asList("arn:aws:ecs:us-east-1:1:task/a"), query.getArns());
+        assertNull(query.getListParameters().get("taskArn"));
+    }
+
+    @Test
+    public void testInListsAreListedPerValue() throws Exception {
+        AmazonEcsQueryPlan.Bound query = bind("Tasks", "cluster=default&desiredStatus=[RUNNING,STOPPED]");
+        assertEquals(map("cluster", "default"), query.getListParameters());
+        assertEquals(Arrays.asList(
+            map("cluster", "default", "desiredStatus", "RUNNING"),
+            map("cluster", "default", "desiredStatus", "STOPPED")
+        ), query.getListCalls());
+        assertEquals(0, query.getLocalPredicates().size());
+
+        // Every combination of the values is listed
+        query = bind("Tasks", "desiredStatus=[RUNNING,STOPPED]&launchType=[EC2,FARGATE]");
+        assertEquals(Arrays.asList(
+            map("desiredStatus", "RUNNING", "launchType", "EC2"),
+            map("desiredStatus", "RUNNING", "launchType", "FARGATE"),
+            map("desiredStatus", "STOPPED", "launchType", "EC2"),
+            map("desiredStatus", "STOPPED", "launchType", "FARGATE")
+        ), query.getListCalls());
+
+        // A prefix that starts with another prefix in the list would list the same definitions again
+        query = bind("TaskDefinitions", "familyPrefix=[core,co,task]");
+        assertEquals(Arrays.asList(map("familyPrefix", "co"), map("familyPrefix", "task")), query.getListCalls());
+    }
+
+    @Test
+    public void testNegatedDefaultedParameters() throws Exception {
+        // ListTasks only lists the RUNNING tasks by default, so the other statuses are listed
+        AmazonEcsQueryPlan.Bound query = bind("Tasks", "cluster=default&desiredStatus!=RUNNING");
+        assertEquals(Arrays.asList(
+            map("cluster", "default", "desiredStatus", "PENDING"),
+            map("cluster", "default", "desiredStatus", "STOPPED")
+        ), query.getListCalls());
+        assertEquals(0, query.getLocalPredicates().size());
+
+        query = bind("Tasks", "desiredStatus!=[RUNNING,PENDING]");
+        assertEquals(map("desiredStatus", "STOPPED"), query.getListParameters());
+        assertEquals(Arrays.asList(map("desiredStatus", "STOPPED")), query.getListCalls());
+
+        query = bind("Tasks", "desiredStatus^=RUN");
+        assertEquals(Arrays.asList(map("desiredStatus", "RUNNING")), query.getListCalls());
+
+        // ListTaskDefinitions only lists the ACTIVE definitions by default
+        query = bind("TaskDefinitions", "status!=ACTIVE");
+        assertEquals(Arrays.asList(map("status", "INACTIVE"), map("status", "DELETE_IN_PROGRESS")), query.getListCalls());
+        assertEquals(0, query.getLocalPredicates().size());
+
+        // Keys without a default list every value anyway, so they are checked client side
+        query = bind("Tasks", "startedBy!=ecs-svc&launchType^=FAR");
+        assertEquals(Arrays.asList(map()), query.getListCalls());
+        assertEquals(Arrays.asList("startedBy!=ecs-svc", "launchType^=FAR"), predicates(query.getLocalPredicates()));
+    }
+
+    @Test
+    public void testParametersOnlyEcsEvaluates() throws Exception {
+        // The Arns are described in the cluster, so it isn't checked against the described tasks
+        AmazonEcsQueryPlan.Bound query = bind("Tasks", "cluster=default&taskArns=[a,b]&desiredStatus=STOPPED&group=service:web");
+        assertEquals(Arrays.asList("desiredStatus=STOPPED", "group=service:web"), predicates(query.getLocalPredicates()));
+
+        // The tasks don't have a family field, so only ECS can check it
+        for (String invalid : Arrays.asList("family!=core", "serviceName^=web", "cluster=[default,other]",
+            "cluster=default&family=core&taskArns=[a,b]")
+        ) {
+            try {
+                bind("Tasks", invalid);
+                fail("Expected '"+invalid+"' to be rejected");
+            } catch (BridgeError e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testPredicatesOnTheSameKeyAreCombined() throws Exception {
+        AmazonEcsQueryPlan.Bound query = bind("Tasks", "desiredStatus=[RUNNING,STOPPED]&desiredStatus!=STOPPED");
+        assertEquals(map("desiredStatus", "RUNNING"), query.getListParameters());
+        assertEquals(Arrays.asList(map("desiredStatus", "RUNNING")), query.getListCalls());
+
+        // Nothing can match, so nothing is listed
+        query = bind("Tasks", "desiredStatus=RUNNING&desiredStatus=STOPPED");
+        assertEquals(0, query.getListCalls().size());
+    }
+
+    @Test(expected = BridgeError.class)
+    public void testTooManyListCalls() throws Exception {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i <= AmazonEcsQueryPlan.MAX_LIST_CALLS; i++) {
+            values.append(i == 0 ? "[" : ",").append("ecs-svc/").append(i);
+        }
+        bind("Tasks", "startedBy="+values.append("]"));
+    }
+
+    private AmazonEcsQueryPlan.Bound bind(String structure, String template, String... parameters) throws Exception {
+        return plans.bind(structure, template, false, new AmazonEcsQualificationParser(), parameters(parameters));
+    }
+
+    private static Map<String,String> parameters(String... namesAndValues) {
+        Map<String,String> parameters = new HashMap<String,String>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            parameters.put(namesAndValues[i], namesAndValues[i+1]);
+        }
+        return parameters;
+    }
+
+    private static Map<String,Object> map(Object... keysAndValues) {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String)keysAndValues[i], keysAndValues[i+1]);
+        }
+        return map;
+    }
+
+    private static List<String> predicates(List<AmazonEcsQueryPlan.Predicate> predicates) {
+        List<String> result = new ArrayList<String>();
+        for (AmazonEcsQueryPlan.Predicate predicate : predicates) {
+            String operator;
+            switch (predicate.getOperator()) {
+                case PREFIX:
+                    operator = "^=";
+                    break;
+                case NOT_EQUALS:
+                case NOT_IN:
+                    operator = "!=";
+                    break;
+                default:
+                    operator = "=";
+            }
+            result.add(predicate.getKey()+operator+predicate.getValue());
+        }
+        return result;
+    }
+
+}
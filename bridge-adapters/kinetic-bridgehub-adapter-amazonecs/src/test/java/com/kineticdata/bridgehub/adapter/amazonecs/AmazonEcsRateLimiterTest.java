@@ -0,0 +1,67 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AmazonEcsRateLimiterTest {
+
+    @Test
+    public void testQueuedCallsOutlastTheRetryDeadline() throws Exception {
+        // Three seconds worth of calls, with a retry deadline much shorter than the queue
+        int rate = 100;
+        int burst = 10;
+        int calls = 3 * rate;
+        AmazonEcsRateLimiter limiter = new AmazonEcsRateLimiter(rate, burst, 5, 200);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+        try {
+            final CountDownLatch completed = new CountDownLatch(calls);
+            long started = System.currentTimeMillis();
+            long lastWait = 0;
+            for (int i = 0; i < calls; i++) {
+                long wait = limiter.reserve("us-east-1", "DescribeTasks");
+                assertTrue(wait >= lastWait);
+                lastWait = wait;
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        completed.countDown();
+                    }
+                }, wait, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+            long elapsed = System.currentTimeMillis() - started;
+
+            // Every call completed, at no more than the configured rate
+            assertEquals(0, completed.getCount());
+            assertTrue(lastWait >= (calls - burst) * 1000L / rate - 50);
+            assertTrue(elapsed >= lastWait);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBucketsAreSeparate() {
+        AmazonEcsRateLimiter limiter = new AmazonEcsRateLimiter(10, 1, 5, 200);
+        limiter.reserve("us-east-1", "DescribeTasks");
+        assertTrue(limiter.reserve("us-east-1", "DescribeTasks") > 0);
+        assertEquals(0, limiter.reserve("us-east-1", "ListTasks"));
+        assertEquals(0, limiter.reserve("us-west-2", "DescribeTasks"));
+    }
+
+    @Test
+    public void testBackoffStopsAtTheDeadline() {
+        AmazonEcsRateLimiter limiter = new AmazonEcsRateLimiter(10, 1, 2, 200);
+        long deadline = limiter.deadline() + 10000;
+        assertTrue(limiter.backoff(1, deadline) >= 0);
+        assertTrue(limiter.backoff(2, deadline) >= 0);
+        assertEquals(-1, limiter.backoff(3, deadline));
+        assertEquals(-1, limiter.backoff(1, System.currentTimeMillis()));
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Checks each operator of the client side filter, and that every predicate applies to every record
+ * (a record without the field is checked as if the field were null).
+ */
+public class AmazonEcsRecordFilterTest {
+
+    @Test
+    public void testOperators() throws Exception {
+        List<Map> tasks = Arrays.asList(
+            task("t1", "RUNNING", "service:web"),
+            task("t2", "PENDING", "service:api"),
+            task("t3", "STOPPED", "family:batch"));
+        assertEquals(Arrays.asList("t1"), filter(tasks, "lastStatus=RUNNING"));
+        assertEquals(Arrays.asList("t2", "t3"), filter(tasks, "lastStatus!=RUNNING"));
+        assertEquals(Arrays.asList("t1", "t2"), filter(tasks, "group^=service:"));
+        assertEquals(Arrays.asList("t1", "t3"), filter(tasks, "lastStatus=[RUNNING,STOPPED]"));
+        assertEquals(Arrays.asList("t2"), filter(tasks, "lastStatus!=[RUNNING,STOPPED]"));
+        assertEquals(Arrays.asList("t2"), filter(tasks, "group^=service:&lastStatus!=RUNNING"));
+        assertEquals(Collections.<String>emptyList(), filter(tasks, "lastStatus=DEPROVISIONING"));
+    }
+
+    @Test
+    public void testNullValues() throws Exception {
+        List<Map> tasks = Arrays.asList(
+            task("t1", null, "service:web"),
+            task("t2", "RUNNING", null));
+        // A null value only matches the negated operators
+        assertEquals(Arrays.asList("t2"), filter(tasks, "lastStatus=RUNNING"));
+        assertEquals(Arrays.asList("t1"), filter(tasks, "lastStatus!=RUNNING"));
+        assertEquals(Arrays.asList("t2"), filter(tasks, "lastStatus=[RUNNING,PENDING]"));
+        assertEquals(Arrays.asList("t1"), filter(tasks, "lastStatus!=[RUNNING,PENDING]"));
+        assertEquals(Arrays.asList("t1"), filter(tasks, "group^=service"));
+    }
+
+    @Test
+    public void testMissingFields() throws Exception {
+        // A field that none of the records have (or a misspelled one) is null for every record
+        List<Map> tasks = Arrays.asList(
+            task("t1", "RUNNING", "service:web"),
+            task("t2", "PENDING", null));
+        assertEquals(Collections.<String>emptyList(), filter(tasks, "healthStatus=HEALTHY"));
+        assertEquals(Collections.<String>emptyList(), filter(tasks, "lastStatuss=RUNNING"));
+        assertEquals(Arrays.asList("t1"), filter(tasks, "healthStatus!=HEALTHY&lastStatus=RUNNING"));
+    }
+
+    @Test
+    public void testRecordsWithDifferentFields() throws Exception {
+        // The first record has a group, so the records without one don't match
+        List<Map> tasks = Arrays.asList(
+            task("t1", "RUNNING", "service:web"),
+            task("t2", "RUNNING", null),
+            task("t3", "PENDING", "service:web"));
+        assertEquals(Arrays.asList("t1", "t3"), filter(tasks, "group=service:web"));
+        assertEquals(Arrays.asList("t1", "t3"), filter(tasks, "group^=service:"));
+        // A missing group is checked as a null value, which the negated operators match
+        assertEquals(Arrays.asList("t2"), filter(tasks, "group!=service:web"));
+        assertEquals(Arrays.asList("t2"), filter(tasks, "group!=[service:web,service:api]"));
+
+        // The same holds when the first record is the one without a group
+        tasks = Arrays.asList(
+            task("t1", "RUNNING", null),
+            task("t2", "RUNNING", "service:api"),
+            task("t3", "PENDING", "service:web"));
+        assertEquals(Arrays.asList("t3"), filter(tasks, "group=service:web"));
+        assertEquals(Arrays.asList("t2", "t3"), filter(tasks, "group^=service:"));
+        assertEquals(Arrays.asList("t1", "t2"), filter(tasks, "group!=service:web"));
+    }
+
+    @Test
+    public void testNestedFields() throws Exception {
+        // Nested fields are checked for every record, whether or not the first record has the field
+        Map t1 = task("t1", "RUNNING", null);
+        Map t2 = task("t2", "RUNNING", null);
+        t2.put("containers", Arrays.asList(Collections.singletonMap("name", "app")));
+        Map t3 = task("t3", "RUNNING", null);
+        t3.put("containers", Arrays.asList(Collections.singletonMap("name", "sidecar")));
+        List<Map> tasks = Arrays.asList(t1, t2, t3);
+        assertEquals(Arrays.asList("t2"), filter(tasks, "containers[name]=app"));
+        assertEquals(Arrays.asList("t1", "t3"), filter(tasks, "containers[name]!=app"));
+        assertEquals(Arrays.asList("t2", "t3"), filter(tasks, "containers[name]=[app,sidecar]"));
+        assertEquals(Arrays.asList("t1"), filter(tasks, "containers[name]!=[app,sidecar]"));
+        assertEquals(Arrays.asList("t3"), filter(tasks, "containers[name]^=side"));
+    }
+
+    @Test
+    public void testFilterCompactsTheListInPlace() throws Exception {
+        List<Record> records = records(Arrays.asList(
+            task("t1", "RUNNING", null),
+            task("t2", "PENDING", null),
+            task("t3", "RUNNING", null)));
+        List<Record> filtered = AmazonEcsRecordFilter.filter(records, predicates("lastStatus=RUNNING"));
+        assertSame(records, filtered);
+        assertEquals(Arrays.asList("t1", "t3"), arns(filtered));
+    }
+
+    private static List<String> filter(List<Map> tasks, String query) throws Exception {
+        return arns(AmazonEcsRecordFilter.filter(records(tasks), predicates(query)));
+    }
+
+    private static List<AmazonEcsQueryPlan.Predicate> predicates(String query) throws Exception {
+        return AmazonEcsQueryPlan.compile("Tasks", query, false)
+            .bind(new AmazonEcsQualificationParser(), new HashMap<String,String>())
+            .getLocalPredicates();
+    }
+
+    private static List<Record> records(List<Map> objects) {
+        List<Record> records = new ArrayList<Record>();
+        for (Map object : objects) {
+            records.add(new Record(new LinkedHashMap(object)));
+        }
+        return records;
+    }
+
+    private static List<String> arns(List<Record> records) {
+        List<String> arns = new ArrayList<String>();
+        for (Record record : records) {
+            arns.add((String)record.getValue("taskArn"));
+        }
+        return arns;
+    }
+
+    /** A task with the last status (which may be null) and the group (left out if it is null) */
+    private static Map task(String arn, String lastStatus, String group) {
+        Map task = new LinkedHashMap();
+        task.put("taskArn", arn);
+        task.put("lastStatus", lastStatus);
+        if (group != null) task.put("group", group);
+        return task;
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AmazonEcsRecordSorterTest {
+
+    @Test
+    public void testOrderPrecedence() {
+        List<Record> records = Arrays.asList(
+            record("a", "1", "b", "x"),
+            record("a", "1", "b", "y"),
+            record("a", "2", "b", "z"));
+
+        // The same fields and directions in a different order must not share a sorter
+        List<String> aThenB = ids(AmazonEcsRecordSorter.compile(order("a", "ASC", "b", "DESC"))
+            .sort(new ArrayList<Record>(records)));
+        List<String> bThenA = ids(AmazonEcsRecordSorter.compile(order("b", "DESC", "a", "ASC"))
+            .sort(new ArrayList<Record>(records)));
+        assertEquals(Arrays.asList("1y", "1x", "2z"), aThenB);
+        assertEquals(Arrays.asList("2z", "1y", "1x"), bThenA);
+        assertNotEquals(aThenB, bThenA);
+        assertEquals(Arrays.asList("2z", "1y"), ids(AmazonEcsRecordSorter.compile(order("b", "DESC", "a", "ASC"))
+            .page(new ArrayList<Record>(records), 0, 2)));
+
+        // The default order (every field ascending) depends on the order of the fields
+        records = Arrays.asList(record("a", "1", "b", "y"), record("a", "2", "b", "x"));
+        assertEquals(Arrays.asList("1y", "2x"),
+            ids(AmazonEcsRecordSorter.compile(order("a", "ASC", "b", "ASC")).sort(new ArrayList<Record>(records))));
+        assertEquals(Arrays.asList("2x", "1y"),
+            ids(AmazonEcsRecordSorter.compile(order("b", "ASC", "a", "ASC")).sort(new ArrayList<Record>(records))));
+    }
+
+    @Test
+    public void testCompareValues() {
+        // Nulls first, strings case insensitively and numbers by value regardless of their type
+        assertTrue(AmazonEcsRecordSorter.compareValues(null, "a") < 0);
+        assertEquals(0, AmazonEcsRecordSorter.compareValues("abc", "ABC"));
+        assertTrue(AmazonEcsRecordSorter.compareValues(9L, 10) < 0);
+        assertTrue(AmazonEcsRecordSorter.compareValues(1.5d, 2L) < 0);
+        assertEquals(0, AmazonEcsRecordSorter.compareValues(2L, 2.0d));
+        assertTrue(AmazonEcsRecordSorter.compareValues(9007199254740993L, 9007199254740992d) > 0);
+
+        // Values of different kinds sort by kind
+        assertTrue(AmazonEcsRecordSorter.compareValues(10L, "9") < 0);
+        assertTrue(AmazonEcsRecordSorter.compareValues("z", Arrays.asList("a")) < 0);
+        assertTrue(AmazonEcsRecordSorter.compareValues(Arrays.asList("a"), Arrays.asList("a", "b")) < 0);
+    }
+
+    @Test
+    public void testCompareValuesIsATotalOrder() {
+        List<Object> values = new ArrayList<Object>(Arrays.<Object>asList(null, "", "a", "A", "b", "10", "9",
+            "9.5", 9L, 10, 10L, 9.5d, -0.0d, 0.0d, 0L, Double.NaN, Double.POSITIVE_INFINITY, Long.MAX_VALUE,
+            9007199254740993L, 9007199254740992d, new BigInteger("9007199254740993"), new BigDecimal("9.50"),
+            1.5f, true, false, "true", Arrays.asList(), Arrays.asList("a"), Arrays.asList("A", 1L),
+            Arrays.asList(1L), Arrays.asList((Object)null), Collections.singletonMap("a", "b"),
+            Collections.singletonMap("a", 1L), Collections.emptyMap()));
+        for (Object a : values) {
+            for (Object b : values) {
+                int ab = AmazonEcsRecordSorter.compareValues(a, b);
+                assertEquals(a+" / "+b, -Integer.signum(ab), Integer.signum(AmazonEcsRecordSorter.compareValues(b, a)));
+                for (Object c : values) {
+                    int bc = AmazonEcsRecordSorter.compareValues(b, c);
+                    int ac = AmazonEcsRecordSorter.compareValues(a, c);
+                    if (ab <= 0 && bc <= 0) {
+                        assertTrue(a+" <= "+b+" <= "+c, ac <= 0);
+                    }
+                    if (ab == 0) {
+                        assertEquals(a+" == "+b+" vs "+c, Integer.signum(ac), Integer.signum(bc));
+                    }
+                }
+            }
+        }
+
+        // Sorting records with mixed values must not break the sort's contract
+        Random random = new Random(42);
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 5000; i++) {
+            records.add(record("a", values.get(random.nextInt(values.size())), "b", values.get(random.nextInt(values.size()))));
+        }
+        List<Record> sorted = AmazonEcsRecordSorter.compile(order("a", "ASC", "b", "DESC")).sort(records);
+        for (int i = 1; i < sorted.size(); i++) {
+            int result = AmazonEcsRecordSorter.compareValues(sorted.get(i-1).getValue("a"), sorted.get(i).getValue("a"));
+            assertTrue(result <= 0);
+            if (result == 0) {
+                assertTrue(AmazonEcsRecordSorter.compareValues(sorted.get(i-1).getValue("b"), sorted.get(i).getValue("b")) >= 0);
+            }
+        }
+    }
+
+    private static Map<String,String> order(String... fieldsAndDirections) {
+        Map<String,String> order = new LinkedHashMap<String,String>();
+        for (int i = 0; i < fieldsAndDirections.length; i += 2) {
+            order.put(fieldsAndDirections[i], fieldsAndDirections[i+1]);
+        }
+        return order;
+    }
+
+    private static Record record(Object... keysAndValues) {
+        Map<String,Object> record = new LinkedHashMap<String,Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            record.put((String)keysAndValues[i], keysAndValues[i+1]);
+        }
+        return new Record(record);
+    }
+
+    /** The a and b values of each record */
+    private static List<String> ids(List<Record> records) {
+        List<String> ids = new ArrayList<String>();
+        for (Record record : records) {
+            ids.add(String.valueOf(record.getValue("a")) + record.getValue("b"));
+        }
+        return ids;
+    }
+
+}
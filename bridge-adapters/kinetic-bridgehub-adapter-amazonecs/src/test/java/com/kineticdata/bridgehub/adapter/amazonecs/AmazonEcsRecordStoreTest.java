@@ -0,0 +1,120 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that selecting objects with the indexes (and filtering them by the unindexed predicates)
+ * gives the same objects as filtering every object with the record filter.
+ */
+public class AmazonEcsRecordStoreTest {
+
+    private static final List<String> INDEXED_FIELDS = Arrays.asList("lastStatus", "group", "environment[space_slug]");
+
+    @Test
+    public void testObjectsWithoutTheField() throws Exception {
+        // Every object but the first has a group, and the first doesn't match
+        AmazonEcsRecordStore store = store(
+            task("t1", "RUNNING", null, null),
+            task("t2", "RUNNING", "service:web", "acme"),
+            task("t3", "PENDING", "service:api", null));
+        assertParity(store, "group=service:web");
+        assertParity(store, "group=[service:web,service:api]");
+        assertParity(store, "group=service:web&lastStatus=RUNNING");
+        assertEquals(Arrays.asList("t2"), select(store, "group=service:web"));
+
+        // Only the first object has a group, so the objects without one don't match
+        store = store(
+            task("t1", "RUNNING", "service:web", null),
+            task("t2", "RUNNING", null, "acme"),
+            task("t3", "PENDING", null, null));
+        assertParity(store, "group=service:web");
+        assertParity(store, "lastStatus=RUNNING&group=service:web");
+        assertEquals(Arrays.asList("t1"), select(store, "group=service:web"));
+
+        // Nested fields are always checked, so objects without the value don't match
+        assertParity(store, "environment[space_slug]=acme");
+        assertEquals(Arrays.asList("t2"), select(store, "environment[space_slug]=acme"));
+    }
+
+    @Test
+    public void testUpdatedStore() throws Exception {
+        AmazonEcsRecordStore store = store(
+            task("t1", "RUNNING", "service:web", null),
+            task("t2", "PENDING", "service:web", null));
+        Map<String,Map> objects = new LinkedHashMap<String,Map>();
+        objects.put("t2", task("t2", "RUNNING", "service:web", null));
+        objects.put("t3", task("t3", "RUNNING", "service:api", null));
+        AmazonEcsRecordStore updated = store.update(objects);
+        assertEquals(Arrays.asList("t1"), select(store, "lastStatus=RUNNING"));
+        assertEquals(Arrays.asList("t2", "t3"), select(updated, "lastStatus=RUNNING"));
+        assertParity(updated, "lastStatus=RUNNING&group=service:web");
+    }
+
+    private static void assertParity(AmazonEcsRecordStore store, String query) throws Exception {
+        List<AmazonEcsQueryPlan.Predicate> predicates = predicates(query);
+        List<Record> expected = AmazonEcsRecordFilter.filter(records(store.values()), predicates);
+        assertEquals(query, arns(expected), select(store, query));
+    }
+
+    private static List<String> select(AmazonEcsRecordStore store, String query) throws Exception {
+        AmazonEcsRecordStore.Selection selection = store.select(predicates(query));
+        return arns(AmazonEcsRecordFilter.filter(records(selection.getObjects()), selection.getUnindexedPredicates()));
+    }
+
+    private static List<AmazonEcsQueryPlan.Predicate> predicates(String query) throws Exception {
+        return AmazonEcsQueryPlan.compile("Tasks", "cluster=default&"+query, false)
+            .bind(new AmazonEcsQualificationParser(), new HashMap<String,String>())
+            .getLocalPredicates();
+    }
+
+    private static AmazonEcsRecordStore store(Map... tasks) {
+        Map<String,Map> objects = new LinkedHashMap<String,Map>();
+        for (Map task : tasks) {
+            objects.put((String)task.get("taskArn"), task);
+        }
+        return new AmazonEcsRecordStore(INDEXED_FIELDS).update(objects);
+    }
+
+    private static List<Record> records(List<Map> objects) {
+        List<Record> records = new ArrayList<Record>();
+        for (Map object : objects) {
+            records.add(new Record(new LinkedHashMap(object)));
+        }
+        return records;
+    }
+
+    private static List<String> arns(List<Record> records) {
+        List<String> arns = new ArrayList<String>();
+        for (Record record : records) {
+            arns.add((String)record.getValue("taskArn"));
+        }
+        return arns;
+    }
+
+    private static Map task(String arn, String lastStatus, String group, String spaceSlug) {
+        Map task = new LinkedHashMap();
+        task.put("taskArn", arn);
+        task.put("lastStatus", lastStatus);
+        if (group != null) task.put("group", group);
+        if (spaceSlug != null) {
+            Map variable = new LinkedHashMap();
+            variable.put("name", "space_slug");
+            variable.put("value", spaceSlug);
+            Map override = new LinkedHashMap();
+            override.put("name", "app");
+            override.put("environment", Arrays.asList(variable));
+            task.put("overrides", new LinkedHashMap(Collections.singletonMap("containerOverrides", Arrays.asList(override))));
+        }
+        return task;
+    }
+
+}
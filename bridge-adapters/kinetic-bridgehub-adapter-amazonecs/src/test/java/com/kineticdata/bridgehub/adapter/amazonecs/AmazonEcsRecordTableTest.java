@@ -0,0 +1,83 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class AmazonEcsRecordTableTest {
+
+    @Test
+    public void testProjectsTheColumns() {
+        Map first = map("taskArn", "arn:1", "lastStatus", new String("RUNNING"), "group", null,
+            "containers", list(map("name", "app")), "cpu", "256");
+        Map second = map("taskArn", "arn:2", "lastStatus", new String("RUNNING"),
+            "containers", list(map("name", "app")));
+        List<Record> records = new ArrayList<Record>(Arrays.asList(new Record(first), new Record(second)));
+
+        List<Record> rows = AmazonEcsRecordTable.project(records,
+            Arrays.asList("taskArn", "containers[name]", "lastStatus", "group", "missing"));
+        assertSame(records, rows);
+
+        // Nested columns hold the value of their path, and the other fields are dropped
+        AmazonEcsFieldPath path = AmazonEcsFieldPath.compile("containers[name]");
+        assertEquals(path.value(first), rows.get(0).getValue("containers[name]"));
+        assertEquals("app", rows.get(1).getValue("containers[name]"));
+        assertNull(rows.get(0).getValue("cpu"));
+        assertNull(rows.get(0).getValue("containers"));
+
+        // Fields that a record doesn't have aren't in its row, while null values are
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("taskArn", "containers[name]", "lastStatus", "group")),
+            rows.get(0).getRecord().keySet());
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("taskArn", "containers[name]", "lastStatus")),
+            rows.get(1).getRecord().keySet());
+        assertTrue(rows.get(0).getRecord().containsKey("group"));
+        assertFalse(rows.get(1).getRecord().containsKey("group"));
+
+        // Repeated strings are shared, and the described objects are left as they were
+        assertNotSame(first.get("lastStatus"), second.get("lastStatus"));
+        assertSame(rows.get(0).getValue("lastStatus"), rows.get(1).getValue("lastStatus"));
+        assertFalse(first.containsKey("containers[name]"));
+    }
+
+    @Test
+    public void testPutValues() {
+        List<Record> rows = AmazonEcsRecordTable.project(new ArrayList<Record>(Arrays.asList(
+            new Record(map("taskArn", "arn:1")), new Record(map("taskArn", "arn:2")))),
+            Arrays.asList("taskArn", "cluster"));
+
+        // A value put for a column the row didn't have is added to the row (and only that row)
+        assertNull(rows.get(0).getRecord().put("cluster", "default"));
+        assertEquals("default", rows.get(0).getValue("cluster"));
+        assertFalse(rows.get(1).getRecord().containsKey("cluster"));
+        assertEquals("default", rows.get(0).getRecord().put("cluster", "other"));
+
+        // Other fields are kept with the row
+        rows.get(1).getRecord().put("extra", "x");
+        assertEquals("x", rows.get(1).getValue("extra"));
+        assertEquals(map("taskArn", "arn:2", "extra", "x"), rows.get(1).getRecord());
+    }
+
+    private static Map map(Object... keysAndValues) {
+        Map map = new LinkedHashMap();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i+1]);
+        }
+        return map;
+    }
+
+    private static List list(Object... values) {
+        return new ArrayList(Arrays.asList(values));
+    }
+
+}
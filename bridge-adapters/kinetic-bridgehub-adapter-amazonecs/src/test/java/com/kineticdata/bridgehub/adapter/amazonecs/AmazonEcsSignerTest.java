@@ -0,0 +1,123 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.commons.codec.binary.Hex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Checks the signer against the AWS Signature Version 4 test suite (the example credentials, the
+ * 20150830T123600Z timestamp and the us-east-1/service scope used by every test in the suite) and
+ * the signing key example from the AWS documentation.
+ */
+public class AmazonEcsSignerTest {
+
+    private static final String ACCESS_KEY = "AKIDEXAMPLE";
+    private static final String SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+    private static final String DATETIME = "20150830T123600Z";
+    private static final String CREDENTIAL = "AWS4-HMAC-SHA256 Credential=AKIDEXAMPLE/20150830/us-east-1/service/aws4_request";
+
+    @Test
+    public void testGetVanilla() throws Exception {
+        assertEquals(
+            CREDENTIAL+", SignedHeaders=host;x-amz-date, "
+                +"Signature=5fa00fa31553b73ebf1942676e86291e8372ff2a2260956d9b8aae1d763fbf31",
+            new AmazonEcsSigner(ACCESS_KEY, SECRET_KEY).authorization("GET", "/", "", headers(), "",
+                DATETIME, "us-east-1", "service"));
+    }
+
+    @Test
+    public void testGetVanillaQueryOrderKeyCase() throws Exception {
+        assertEquals(
+            CREDENTIAL+", SignedHeaders=host;x-amz-date, "
+                +"Signature=b97d918cfa904a5beff61c982a1b6f458b799221646efd99d3219ec94cdf2500",
+            new AmazonEcsSigner(ACCESS_KEY, SECRET_KEY).authorization("GET", "/", "Param1=value1&Param2=value2",
+                headers(), "", DATETIME, "us-east-1", "service"));
+    }
+
+    @Test
+    public void testPostVanilla() throws Exception {
+        assertEquals(
+            CREDENTIAL+", SignedHeaders=host;x-amz-date, "
+                +"Signature=5da7c1a2acd57cee7505fc6676e4e544621c30862966e37dddb68e92efbe5d6b",
+            new AmazonEcsSigner(ACCESS_KEY, SECRET_KEY).authorization("POST", "/", "", headers(), "",
+                DATETIME, "us-east-1", "service"));
+    }
+
+    @Test
+    public void testPostXWwwFormUrlencoded() throws Exception {
+        SortedMap<String,String> headers = headers();
+        headers.put("content-type", "application/x-www-form-urlencoded");
+        assertEquals(
+            CREDENTIAL+", SignedHeaders=content-type;host;x-amz-date, "
+                +"Signature=ff11897932ad3f4e8b18135d722051e5ac45fc38421b1da7b9d196a0fe09473a",
+            new AmazonEcsSigner(ACCESS_KEY, SECRET_KEY).authorization("POST", "/", "", headers, "Param1=value1",
+                DATETIME, "us-east-1", "service"));
+    }
+
+    @Test
+    public void testSignatureKey() throws Exception {
+        // http://docs.aws.amazon.com/general/latest/gr/signature-v4-examples.html
+        assertEquals("f4780e2d9f65fa895f9c67b32ce1baf0b0d8a43505a000a1a9e090d414db404d",
+            Hex.encodeHexString(new AmazonEcsSigner(ACCESS_KEY, SECRET_KEY).getSignatureKey("20120215", "us-east-1", "iam")));
+    }
+
+    @Test
+    public void testJsonTarget() throws Exception {
+        AmazonEcsSigner signer = new AmazonEcsSigner(ACCESS_KEY, SECRET_KEY);
+        AmazonEcsSigner.JsonTarget target = new AmazonEcsSigner.JsonTarget(signer, "ecs.us-east-1.amazonaws.com", "/",
+            "AmazonEC2ContainerServiceV20141113", "us-east-1", "ecs");
+        String payload = "{\"cluster\":\"default\"}";
+
+        // The prebuilt canonical request must sign the same as the general purpose path
+        SortedMap<String,String> headers = new TreeMap<String,String>();
+        headers.put("content-type", AmazonEcsSigner.JsonTarget.CONTENT_TYPE);
+        headers.put("host", "ecs.us-east-1.amazonaws.com");
+        headers.put("x-amz-date", DATETIME);
+        headers.put("x-amz-target", "AmazonEC2ContainerServiceV20141113.ListTasks");
+        String expected = signer.authorization("POST", "/", "", headers, payload, DATETIME, "us-east-1", "ecs");
+        assertEquals(expected, target.authorization("ListTasks", payload, DATETIME));
+        assertEquals(
+            "AWS4-HMAC-SHA256 Credential=AKIDEXAMPLE/20150830/us-east-1/ecs/aws4_request, "
+                +"SignedHeaders=content-type;host;x-amz-date;x-amz-target, "
+                +"Signature=7bfcd94dc12695a86f20841ca6dc950fa8808d54b57a8026aa6f8e9e39234215",
+            target.authorization("ListTasks", payload, DATETIME));
+    }
+
+    @Test
+    public void testSignatureKeyDateRollover() throws Exception {
+        AmazonEcsSigner signer = new AmazonEcsSigner(ACCESS_KEY, SECRET_KEY);
+        AmazonEcsSigner reference = new AmazonEcsSigner(ACCESS_KEY, SECRET_KEY);
+
+        byte[] firstDay = signer.getSignatureKey("20150830", "us-east-1", "service");
+        assertSame(firstDay, signer.getSignatureKey("20150830", "us-east-1", "service"));
+
+        // The key is re-derived when the date rolls over
+        byte[] nextDay = signer.getSignatureKey("20150831", "us-east-1", "service");
+        assertNotSame(firstDay, nextDay);
+        assertEquals(Hex.encodeHexString(reference.getSignatureKey("20150831", "us-east-1", "service")),
+            Hex.encodeHexString(nextDay));
+
+        // A request dated the previous day (started just before midnight) still gets the right key,
+        // but doesn't roll the cached key back
+        assertEquals(Hex.encodeHexString(firstDay),
+            Hex.encodeHexString(signer.getSignatureKey("20150830", "us-east-1", "service")));
+        assertSame(nextDay, signer.getSignatureKey("20150831", "us-east-1", "service"));
+
+        // Each scope is cached separately
+        assertEquals(Hex.encodeHexString(reference.getSignatureKey("20150830", "us-west-2", "service")),
+            Hex.encodeHexString(signer.getSignatureKey("20150830", "us-west-2", "service")));
+        assertSame(nextDay, signer.getSignatureKey("20150831", "us-east-1", "service"));
+    }
+
+    private static SortedMap<String,String> headers() {
+        SortedMap<String,String> headers = new TreeMap<String,String>();
+        headers.put("host", "example.amazonaws.com");
+        headers.put("x-amz-date", DATETIME);
+        return headers;
+    }
+
+}
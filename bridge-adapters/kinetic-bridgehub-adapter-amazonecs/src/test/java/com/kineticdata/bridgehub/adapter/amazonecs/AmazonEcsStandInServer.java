@@ -0,0 +1,483 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * A local stand-in for the ECS JSON API (the AmazonEC2ContainerServiceV20141113.* targets that the
+ * adapter calls), serving synthetic clusters built from AmazonEcsFixtures. Point the adapter's
+ * Endpoint property at getEndpoint() to run it without AWS.
+ *
+ * The List and Describe calls for clusters, container instances, tasks and task definitions are
+ * supported, with the filters the adapter passes through, paging (maxResults/nextToken), Describe
+ * failures for unknown Arns and the tags (only returned when the Describe call includes TAGS). Each call can be delayed by a fixed latency (plus jitter), and calls
+ * over the throttle rate (per action) get the same ThrottlingException that ECS returns. Requests
+ * must be signed, but the signatures aren't checked.
+ */
+public class AmazonEcsStandInServer {
+
+    public static final String TARGET_PREFIX = "AmazonEC2ContainerServiceV20141113.";
+    public static final String CONTENT_TYPE = "application/x-amz-json-1.1";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_MAX_RESULTS = 100;
+
+    private final AmazonEcsFixtures fixtures;
+    private final int latencyMillis;
+    private final int latencyJitterMillis;
+    private final int throttleRate;
+    private final Random random = new Random();
+
+    /** The objects in the order they are listed, with their serialized JSON (keyed by Arn) */
+    private final List<JSONObject> clusters = new ArrayList<JSONObject>();
+    private final List<JSONObject> containerInstances = new ArrayList<JSONObject>();
+    private final List<JSONObject> tasks = new ArrayList<JSONObject>();
+    private final List<JSONObject> taskDefinitions = new ArrayList<JSONObject>();
+    private final Map<String,String> json = new HashMap<String,String>();
+    private final Map<String,String> taggedJson = new HashMap<String,String>();
+
+    private final ConcurrentMap<String,Bucket> throttles = new ConcurrentHashMap<String,Bucket>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param fixtures The fixtures the clusters are built from
+     * @param taskCount The number of tasks (spread over the clusters)
+     * @param latencyMillis How long each call takes
+     * @param latencyJitterMillis The most random time that is added to each call
+     * @param throttleRate The most calls per second for each action (0 to never throttle)
+     */
+    public AmazonEcsStandInServer(AmazonEcsFixtures fixtures, int taskCount, int latencyMillis,
+        int latencyJitterMillis, int throttleRate
+    ) {
+        this.fixtures = fixtures;
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.throttleRate = throttleRate;
+
+        int[] running = new int[fixtures.getClusters()];
+        int[] pending = new int[fixtures.getClusters()];
+        for (int i = 0; i < taskCount; i++) {
+            JSONObject task = fixtures.task(i);
+            add(tasks, "taskArn", task);
+            if ("RUNNING".equals(task.get("lastStatus"))) running[fixtures.clusterOf(i)]++;
+            if ("PENDING".equals(task.get("lastStatus"))) pending[fixtures.clusterOf(i)]++;
+        }
+        for (int i = 0; i < fixtures.getClusters(); i++) {
+            add(clusters, "clusterArn", fixtures.cluster(i, running[i], pending[i]));
+        }
+        for (int i = 0; i < fixtures.getContainerInstances(); i++) {
+            add(containerInstances, "containerInstanceArn", fixtures.containerInstance(i));
+        }
+        for (int i = 0; i < fixtures.getTaskDefinitions(); i++) {
+            add(taskDefinitions, "taskDefinitionArn", fixtures.taskDefinition(i, 1 + i % 4, 20));
+        }
+    }
+
+    private void add(List<JSONObject> objects, String arnField, JSONObject object) {
+        objects.add(object);
+        taggedJson.put((String)object.get(arnField), object.toJSONString());
+        JSONObject untagged = new JSONObject(object);
+        untagged.remove("tags");
+        json.put((String)object.get(arnField), untagged.toJSONString());
+    }
+
+    /**
+     * Starts the server on the port (0 picks a free port).
+     */
+    public synchronized AmazonEcsStandInServer start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleExchange(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /** The URL to use as the adapter Endpoint property */
+    public String getEndpoint() {
+        return "http://127.0.0.1:"+server.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    private void handleExchange(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+        String body = read(exchange.getRequestBody());
+        if (!"POST".equals(exchange.getRequestMethod()) || exchange.getRequestHeaders().getFirst("Authorization") == null) {
+            respond(exchange, 403, error("MissingAuthenticationTokenException", "Missing Authentication Token"));
+            return;
+        }
+        if (target == null || !target.startsWith(TARGET_PREFIX)) {
+            respond(exchange, 400, error("UnknownOperationException", null));
+            return;
+        }
+        String action = target.substring(TARGET_PREFIX.length());
+
+        sleep(latencyMillis + (latencyJitterMillis > 0 ? random.nextInt(latencyJitterMillis + 1) : 0));
+        if (throttleRate > 0 && !bucket(action).tryAcquire()) {
+            throttled.incrementAndGet();
+            respond(exchange, 400, error("ThrottlingException", "Rate exceeded"));
+            return;
+        }
+
+        Object parsed = JSONValue.parse(body);
+        Map parameters = parsed instanceof Map ? (Map)parsed : new HashMap();
+        String response;
+        try {
+            response = handle(action, parameters);
+        } catch (EcsException e) {
+            respond(exchange, 400, error(e.type, e.getMessage()));
+            return;
+        }
+        if (response == null) {
+            respond(exchange, 400, error("UnknownOperationException", null));
+        } else {
+            respond(exchange, 200, response);
+        }
+    }
+
+    private String handle(String action, Map parameters) throws EcsException {
+        if (action.equals("ListClusters")) {
+            return list("clusterArns", clusters, "clusterArn", parameters);
+        } else if (action.equals("DescribeClusters")) {
+            List<String> names = strings(parameters.get("clusters"));
+            if (names.isEmpty()) names = Collections.singletonList("default");
+            List<String> arns = new ArrayList<String>();
+            for (String name : names) {
+                int cluster = findCluster(name);
+                arns.add(cluster < 0 ? name : AmazonEcsFixtures.clusterArn(cluster));
+            }
+            return describe("clusters", arns, parameters);
+        } else if (action.equals("ListContainerInstances")) {
+            int cluster = cluster(parameters);
+            String status = (String)parameters.get("status");
+            List<JSONObject> matches = new ArrayList<JSONObject>();
+            for (int i = 0; i < containerInstances.size(); i++) {
+                JSONObject containerInstance = containerInstances.get(i);
+                if (fixtures.clusterOf(i) == cluster && (status == null || status.equals(containerInstance.get("status")))) {
+                    matches.add(containerInstance);
+                }
+            }
+            return list("containerInstanceArns", matches, "containerInstanceArn", parameters);
+        } else if (action.equals("DescribeContainerInstances")) {
+            cluster(parameters);
+            return describe("containerInstances", arns("container-instance/", strings(parameters.get("containerInstances"))), parameters);
+        } else if (action.equals("ListTasks")) {
+            return list("taskArns", listTasks(parameters), "taskArn", parameters);
+        } else if (action.equals("DescribeTasks")) {
+            cluster(parameters);
+            return describe("tasks", arns("task/", strings(parameters.get("tasks"))), parameters);
+        } else if (action.equals("ListTaskDefinitions")) {
+            String familyPrefix = (String)parameters.get("familyPrefix");
+            String status = (String)parameters.get("status");
+            List<JSONObject> matches = new ArrayList<JSONObject>();
+            for (JSONObject taskDefinition : taskDefinitions) {
+                if ((familyPrefix == null || ((String)taskDefinition.get("family")).startsWith(familyPrefix))
+                    && (status == null || status.equals(taskDefinition.get("status")))
+                ) {
+                    matches.add(taskDefinition);
+                }
+            }
+            if ("DESC".equals(parameters.get("sort"))) Collections.reverse(matches);
+            return list("taskDefinitionArns", matches, "taskDefinitionArn", parameters);
+        } else if (action.equals("DescribeTaskDefinition")) {
+            String taskDefinition = (String)parameters.get("taskDefinition");
+            JSONObject found = findTaskDefinition(taskDefinition);
+            if (found == null) {
+                throw new EcsException("ClientException", "Unable to describe task definition.");
+            }
+            // The tags of a task definition are returned next to it rather than in it
+            return "{\"taskDefinition\":"+json.get((String)found.get("taskDefinitionArn"))
+                + (includesTags(parameters) ? ",\"tags\":[]}" : "}");
+        }
+        return null;
+    }
+
+    private List<JSONObject> listTasks(Map parameters) throws EcsException {
+        int cluster = cluster(parameters);
+        String desiredStatus = parameters.containsKey("desiredStatus") ? (String)parameters.get("desiredStatus") : "RUNNING";
+        String launchType = (String)parameters.get("launchType");
+        String startedBy = (String)parameters.get("startedBy");
+        String family = (String)parameters.get("family");
+        String serviceName = (String)parameters.get("serviceName");
+        String containerInstance = (String)parameters.get("containerInstance");
+        List<JSONObject> matches = new ArrayList<JSONObject>();
+        for (int i = 0; i < tasks.size(); i++) {
+            JSONObject task = tasks.get(i);
+            if (fixtures.clusterOf(i) == cluster
+                && desiredStatus.equals(task.get("desiredStatus"))
+                && (launchType == null || launchType.equals(task.get("launchType")))
+                && (startedBy == null || startedBy.equals(task.get("startedBy")))
+                && (family == null || ((String)task.get("taskDefinitionArn")).contains("/"+family+":"))
+                && (serviceName == null || ((String)task.get("group")).startsWith("service:"+serviceName))
+                && (containerInstance == null || ((String)task.get("containerInstanceArn")).endsWith(containerInstance))
+            ) {
+                matches.add(task);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Builds a List response with a page of the Arns of the objects.
+     */
+    private String list(String arnsField, List<JSONObject> objects, String arnField, Map parameters) throws EcsException {
+        int maxResults = parameters.get("maxResults") == null
+            ? DEFAULT_MAX_RESULTS
+            : ((Number)parameters.get("maxResults")).intValue();
+        int offset = 0;
+        if (parameters.get("nextToken") != null) {
+            try {
+                offset = Integer.parseInt((String)parameters.get("nextToken"));
+            } catch (NumberFormatException e) {
+                throw new EcsException("InvalidParameterException", "Invalid nextToken");
+            }
+        }
+        JSONArray arns = new JSONArray();
+        for (int i = offset; i < Math.min(offset + maxResults, objects.size()); i++) {
+            arns.add(objects.get(i).get(arnField));
+        }
+        JSONObject response = new JSONObject();
+        response.put(arnsField, arns);
+        if (offset + maxResults < objects.size()) response.put("nextToken", String.valueOf(offset + maxResults));
+        return response.toJSONString();
+    }
+
+    /**
+     * Builds a Describe response from the serialized objects, with a failure for each unknown Arn.
+     */
+    private String describe(String objectsField, List<String> arns, Map parameters) {
+        Map<String,String> objects = includesTags(parameters) ? taggedJson : json;
+        StringBuilder response = new StringBuilder("{\"").append(objectsField).append("\":[");
+        JSONArray failures = new JSONArray();
+        boolean first = true;
+        for (String arn : arns) {
+            String object = objects.get(arn);
+            if (object == null) {
+                JSONObject failure = new JSONObject();
+                failure.put("arn", arn);
+                failure.put("reason", "MISSING");
+                failures.add(failure);
+            } else {
+                if (!first) response.append(',');
+                response.append(object);
+                first = false;
+            }
+        }
+        return response.append("],\"failures\":").append(failures.toJSONString()).append('}').toString();
+    }
+
+    /** True if the Describe call includes the tags */
+    private static boolean includesTags(Map parameters) {
+        return strings(parameters.get("include")).contains("TAGS");
+    }
+
+    /** Expands ids (the part of the Arn after the resource type) to full Arns */
+    private List<String> arns(String resource, List<String> ids) {
+        List<String> arns = new ArrayList<String>();
+        for (String id : ids) {
+            arns.add(id.startsWith("arn:") ? id : "arn:aws:ecs:"+AmazonEcsFixtures.REGION+":"+AmazonEcsFixtures.ACCOUNT+":"+resource+id);
+        }
+        return arns;
+    }
+
+    private int cluster(Map parameters) throws EcsException {
+        String name = parameters.get("cluster") == null ? "default" : (String)parameters.get("cluster");
+        int cluster = findCluster(name);
+        if (cluster < 0) throw new EcsException("ClusterNotFoundException", "Cluster not found.");
+        return cluster;
+    }
+
+    private int findCluster(String name) {
+        for (int i = 0; i < fixtures.getClusters(); i++) {
+            if (name.equals(AmazonEcsFixtures.clusterName(i)) || name.equals(AmazonEcsFixtures.clusterArn(i))) return i;
+        }
+        return -1;
+    }
+
+    private JSONObject findTaskDefinition(String taskDefinition) {
+        if (taskDefinition == null) return null;
+        JSONObject latest = null;
+        for (JSONObject candidate : taskDefinitions) {
+            String arn = (String)candidate.get("taskDefinitionArn");
+            if (arn.equals(taskDefinition) || arn.endsWith("/"+taskDefinition)) return candidate;
+            if (taskDefinition.equals(candidate.get("family"))
+                && (latest == null || ((Number)candidate.get("revision")).intValue() > ((Number)latest.get("revision")).intValue())
+            ) {
+                latest = candidate;
+            }
+        }
+        return latest;
+    }
+
+    private static List<String> strings(Object value) {
+        List<String> strings = new ArrayList<String>();
+        if (value instanceof List) {
+            for (Object o : (List)value) {
+                strings.add(String.valueOf(o));
+            }
+        }
+        return strings;
+    }
+
+    private static String error(String type, String message) {
+        Map<String,String> error = new LinkedHashMap<String,String>();
+        error.put("__type", type);
+        if (message != null) error.put("message", message);
+        return JSONValue.toJSONString(error);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), UTF8);
+    }
+
+    private static void sleep(int millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Bucket bucket(String action) {
+        Bucket bucket = throttles.get(action);
+        if (bucket == null) {
+            Bucket created = new Bucket(throttleRate);
+            bucket = throttles.putIfAbsent(action, created);
+            if (bucket == null) bucket = created;
+        }
+        return bucket;
+    }
+
+    /** A token bucket that refills at the rate, holding at most a second of calls */
+    private static class Bucket {
+        private final double rate;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private Bucket(double rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        private synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - refilledAt) / 1e9 * rate);
+            refilledAt = now;
+            if (tokens < 1) return false;
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    private static class EcsException extends Exception {
+        private final String type;
+
+        private EcsException(String type, String message) {
+            super(message);
+            this.type = type;
+        }
+    }
+
+    /**
+     * Runs the stand-in server until it is killed. Options (as name=value):
+     *   port (8080), clusters (3), tasks (1000), taskDefinitions (24), containerInstances (4 per
+     *   cluster), latency (5 ms), jitter (5 ms) and throttle (0 calls per second per action)
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String,String> options = options(args);
+        AmazonEcsStandInServer server = fromOptions(options).start(intOption(options, "port", 8080));
+        System.out.println("ECS stand-in server listening on "+server.getEndpoint());
+        Thread.sleep(TimeUnit.DAYS.toMillis(365));
+    }
+
+    /**
+     * Builds a server from name=value options (see main).
+     */
+    static AmazonEcsStandInServer fromOptions(Map<String,String> options) {
+        AmazonEcsFixtures fixtures = new AmazonEcsFixtures(intOption(options, "clusters", 3),
+            intOption(options, "taskDefinitions", 24), intOption(options, "containerInstances", 4));
+        return new AmazonEcsStandInServer(fixtures, intOption(options, "tasks", 1000),
+            intOption(options, "latency", 5), intOption(options, "jitter", 5), intOption(options, "throttle", 0));
+    }
+
+    static Map<String,String> options(String[] args) {
+        Map<String,String> options = new LinkedHashMap<String,String>();
+        for (String arg : args) {
+            int equalsIndex = arg.indexOf('=');
+            if (equalsIndex < 0) throw new IllegalArgumentException("Options are name=value pairs: "+arg);
+            options.put(arg.substring(0, equalsIndex), arg.substring(equalsIndex + 1));
+        }
+        return options;
+    }
+
+    static int intOption(Map<String,String> options, String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import com.kineticdata.bridgehub.adapter.Record;
+import com.kineticdata.bridgehub.adapter.RecordList;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.json.simple.JSONValue;
+
+/**
+ * Checks that a single adapter instance gives the same results when it is shared by many threads
+ * at once, and how the throughput scales with the number of threads.
+ *
+ * The expected result of each operation in a mix of searches, counts and retrieves (including
+ * joined, client side filtered, paged and fanned out queries) is first taken from calls made one
+ * at a time. The same calls are then made concurrently at each of the thread counts, and every
+ * result is compared with the expected one. Each operation reuses a single BridgeRequest across
+ * all of the threads, so the requests are also checked for changes made by the adapter. The
+ * driver exits with a non-zero status if any call failed, returned a different result or changed
+ * its request (AmazonEcsStressTest runs a short version of it with the unit tests).
+ *
+ * Options (as name=value): calls (1000 per thread count), threads (1,4,16,64), any of the
+ * AmazonEcsStandInServer options for the embedded stand-in server, and property.NAME=VALUE to set
+ * adapter properties (for example "property.Mirror Mode=true").
+ */
+public class AmazonEcsStressDriver {
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = stress(AmazonEcsStandInServer.options(args), System.out);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) System.exit(1);
+    }
+
+    /**
+     * Runs the mix at each of the thread counts against an embedded stand-in server, printing the
+     * throughput and problems for each thread count. Returns true if every call succeeded, returned
+     * the expected result and left its request unchanged.
+     */
+    static boolean stress(Map<String,String> options, PrintStream out) throws Exception {
+        int calls = AmazonEcsStandInServer.intOption(options, "calls", 1000);
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (String threads : (options.containsKey("threads") ? options.get("threads") : "1,4,16,64").split(",")) {
+            threadCounts.add(Integer.valueOf(threads.trim()));
+        }
+
+        AmazonEcsStandInServer server = AmazonEcsStandInServer.fromOptions(options).start(0);
+
+        Map<String,String> properties = new LinkedHashMap<String,String>();
+        properties.put(AmazonEcsAdapter.Properties.ACCESS_KEY, "AKIDEXAMPLE");
+        properties.put(AmazonEcsAdapter.Properties.SECRET_KEY, "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+        properties.put(AmazonEcsAdapter.Properties.REGION, AmazonEcsFixtures.REGION);
+        properties.put(AmazonEcsAdapter.Properties.ENDPOINT, server.getEndpoint());
+        for (Map.Entry<String,String> option : options.entrySet()) {
+            if (option.getKey().startsWith("property.")) {
+                properties.put(option.getKey().substring("property.".length()), option.getValue());
+            }
+        }
+        AmazonEcsAdapter adapter = new AmazonEcsAdapter();
+        adapter.setProperties(properties);
+        adapter.initialize();
+
+        boolean passed = true;
+        try {
+            List<Operation> mix = mix(adapter);
+            for (Operation operation : mix) {
+                operation.expected = operation.run(adapter);
+            }
+            out.println("Stress testing "+mix.size()+" operations with "+calls+" calls per thread count");
+            out.println();
+            out.println(String.format("%8s %10s %10s %10s %10s %10s", "threads", "calls/s", "scaling", "errors", "mismatches", "mutated"));
+            double baseline = 0;
+            for (int threads : threadCounts) {
+                Result result = run(adapter, mix, threads, calls);
+                if (baseline == 0) baseline = result.callsPerSecond;
+                out.println(String.format("%8d %10.1f %9.2fx %10d %10d %10d", threads, result.callsPerSecond,
+                    result.callsPerSecond / baseline, result.errors, result.mismatches, result.mutated));
+                if (result.firstProblem != null) {
+                    out.println("    first problem: "+result.firstProblem);
+                }
+                passed &= result.errors == 0 && result.mismatches == 0 && result.mutated == 0;
+            }
+            out.println();
+            out.println("Stand-in server: "+server.getRequests()+" requests, "+server.getThrottled()+" throttled");
+        } finally {
+            adapter.destroy();
+            server.stop();
+        }
+        return passed;
+    }
+
+    /**
+     * The operations that are run concurrently. The retrieve is of a task found by an initial
+     * search, so that it matches exactly one task.
+     */
+    private static List<Operation> mix(AmazonEcsAdapter adapter) throws BridgeError {
+        String defaultCluster = AmazonEcsFixtures.clusterName(0);
+        String otherCluster = AmazonEcsFixtures.clusterName(1);
+        Operation arns = new Operation("search", "Tasks", "cluster="+defaultCluster, "taskArn", null);
+        RecordList tasks = (RecordList)arns.run(adapter);
+        String taskArn = tasks.getRecords().isEmpty()
+            ? "missing"
+            : (String)tasks.getRecords().get(tasks.getRecords().size() / 2).getValue("taskArn");
+
+        return Arrays.asList(
+            arns,
+            new Operation("search", "Tasks", "cluster="+defaultCluster+"&desiredStatus=RUNNING",
+                "taskArn,lastStatus,group,createdAt", null),
+            new Operation("search", "Tasks", "cluster="+otherCluster+"&lastStatus=RUNNING&environment[space_slug]=acme",
+                "taskArn,lastStatus,environment[space_slug]", null),
+            new Operation("search", "Tasks", "cluster="+defaultCluster+"&launchType=EC2",
+                "taskArn,taskDefinition.family,taskDefinition.revision", "<%=field[\"taskArn\"]%>:DESC"),
+            new Operation("search", "Tasks", "cluster=*&desiredStatus=RUNNING", "taskArn,lastStatus", null),
+            new Operation("search", "ContainerInstances", "cluster="+defaultCluster,
+                "containerInstanceArn,ec2InstanceId,runningTasksCount", null),
+            new Operation("search", "Clusters", "", "clusterName,runningTasksCount,pendingTasksCount", null),
+            new Operation("search", "TaskDefinitions", "", "taskDefinitionArn", null),
+            new Operation("count", "Tasks", "cluster="+defaultCluster+"&desiredStatus=RUNNING", null, null),
+            new Operation("count", "Tasks", "cluster="+otherCluster+"&group^=service:core", null, null),
+            new Operation("count", "Tasks", "cluster=*", null, null),
+            new Operation("retrieve", "Tasks", "cluster="+defaultCluster+"&taskArn="+taskArn,
+                "taskArn,lastStatus,taskDefinition.family", null)
+        );
+    }
+
+    /**
+     * Makes the calls (stepping through the mix in turn) on the number of threads and compares
+     * each result with the expected result of the operation.
+     */
+    private static Result run(final AmazonEcsAdapter adapter, final List<Operation> mix, int threads, final int calls) throws Exception {
+        final Result result = new Result();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger mismatches = new AtomicInteger();
+        final AtomicReference<String> firstProblem = new AtomicReference<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = next.getAndIncrement(); i < calls; i = next.getAndIncrement()) {
+                            Operation operation = mix.get(i % mix.size());
+                            try {
+                                Object actual = operation.run(adapter);
+                                if (!operation.fingerprint(operation.expected).equals(operation.fingerprint(actual))) {
+                                    mismatches.incrementAndGet();
+                                    firstProblem.compareAndSet(null, operation+" returned a different result");
+                                }
+                            } catch (BridgeError e) {
+                                errors.incrementAndGet();
+                                firstProblem.compareAndSet(null, operation+" failed: "+e.getMessage());
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - started;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        result.callsPerSecond = calls / (elapsed / 1e9);
+        result.errors = errors.get();
+        result.mismatches = mismatches.get();
+        for (Operation operation : mix) {
+            if (operation.isMutated()) {
+                result.mutated++;
+                firstProblem.compareAndSet(null, operation+" had its request changed");
+            }
+        }
+        result.firstProblem = firstProblem.get();
+        return result;
+    }
+
+    private static class Result {
+        private double callsPerSecond;
+        private int errors;
+        private int mismatches;
+        private int mutated;
+        private String firstProblem;
+    }
+
+    /**
+     * A search, count or retrieve of a structure. The request is built once and shared by every
+     * call of the operation.
+     */
+    private static class Operation {
+        private final String method;
+        private final BridgeRequest request = new BridgeRequest();
+        private final String query;
+        private final List<String> fields;
+        private final Map<String,String> metadata;
+        private Object expected;
+
+        private Operation(String method, String structure, String query, String fields, String order) {
+            this.method = method;
+            this.query = query;
+            this.fields = fields == null ? null : Collections.unmodifiableList(Arrays.asList(fields.split(",")));
+            Map<String,String> metadata = new HashMap<String,String>();
+            if (order != null) metadata.put("order", order);
+            this.metadata = Collections.unmodifiableMap(metadata);
+            request.setStructure(structure);
+            request.setQuery(query);
+            request.setFields(this.fields == null ? null : new ArrayList<String>(this.fields));
+            request.setParameters(new HashMap<String,String>());
+            request.setMetadata(new HashMap<String,String>(this.metadata));
+        }
+
+        private Object run(AmazonEcsAdapter adapter) throws BridgeError {
+            if (method.equals("count")) {
+                return adapter.count(request).getValue();
+            } else if (method.equals("retrieve")) {
+                return adapter.retrieve(request);
+            } else {
+                return adapter.search(request);
+            }
+        }
+
+        /** Returns true if the request no longer has the query, fields and metadata it started with */
+        private boolean isMutated() {
+            return !query.equals(request.getQuery())
+                || (fields == null ? request.getFields() != null : !fields.equals(request.getFields()))
+                || !metadata.equals(request.getMetadata())
+                || !request.getParameters().isEmpty();
+        }
+
+        /**
+         * Reduces a result to a string that is equal for equal results (the values of the fields
+         * of each record, in order). Described objects can come from the Describe cache with more
+         * fields than were asked for, so only the result fields are compared, and the age of the
+         * mirror changes from call to call, so it isn't compared.
+         */
+        private String fingerprint(Object result) {
+            if (result instanceof RecordList) {
+                RecordList recordList = (RecordList)result;
+                List<Object> records = new ArrayList<Object>();
+                for (Record record : recordList.getRecords()) {
+                    records.add(values(record, recordList.getFields()));
+                }
+                Map<String,String> metadata = new LinkedHashMap<String,String>(recordList.getMetadata());
+                metadata.remove("mirrorStaleness");
+                return JSONValue.toJSONString(recordList.getFields())+JSONValue.toJSONString(records)
+                    +JSONValue.toJSONString(metadata);
+            } else if (result instanceof Record) {
+                Record record = (Record)result;
+                return record.getRecord() == null ? "null" : JSONValue.toJSONString(values(record, fields));
+            }
+            return String.valueOf(result);
+        }
+
+        private static List<Object> values(Record record, List<String> fields) {
+            List<Object> values = new ArrayList<Object>(fields.size());
+            for (String field : fields) {
+                values.add(record.getValue(field));
+            }
+            return values;
+        }
+
+        @Override
+        public String toString() {
+            return method+" "+request.getStructure()+" ("+query+")";
+        }
+    }
+
+}
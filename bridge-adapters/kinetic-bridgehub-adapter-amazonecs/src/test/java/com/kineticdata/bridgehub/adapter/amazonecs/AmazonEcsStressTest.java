@@ -0,0 +1,30 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Runs a short version of the stress driver against the embedded stand-in server, failing if any
+ * concurrent call fails, returns a different result or changes its request.
+ */
+public class AmazonEcsStressTest {
+
+    @Test
+    public void testSharedAdapter() throws Exception {
+        assertStress("calls=240", "threads=8", "tasks=120", "latency=1", "jitter=1");
+    }
+
+    @Test
+    public void testSharedAdapterWithMirror() throws Exception {
+        assertStress("calls=240", "threads=8", "tasks=120", "latency=1", "jitter=1", "property.Mirror Mode=true");
+    }
+
+    private static void assertStress(String... args) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        boolean passed = AmazonEcsStressDriver.stress(AmazonEcsStandInServer.options(args), new PrintStream(output, true, "UTF-8"));
+        assertTrue(output.toString("UTF-8"), passed);
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.kineticdata.bridgehub.adapter.amazonecs;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class AmazonEcsWorkerPoolTest {
+
+    @Test
+    public void testBoundedKeepsAtMostConcurrencyCallsInFlight() throws Exception {
+        final List<CompletableFuture<Integer>> started = new ArrayList<CompletableFuture<Integer>>();
+        List<Supplier<CompletableFuture<Integer>>> calls = new ArrayList<Supplier<CompletableFuture<Integer>>>();
+        for (int i = 0; i < 5; i++) {
+            calls.add(() -> {
+                CompletableFuture<Integer> call = new CompletableFuture<Integer>();
+                started.add(call);
+                return call;
+            });
+        }
+        CompletableFuture<List<Integer>> all = AmazonEcsWorkerPool.bounded(calls, 2);
+        assertEquals(2, started.size());
+
+        // Each completed call starts the next one, and the results keep the order of the calls
+        started.get(1).complete(1);
+        assertEquals(3, started.size());
+        started.get(0).complete(0);
+        started.get(2).complete(2);
+        assertEquals(5, started.size());
+        started.get(4).complete(4);
+        started.get(3).complete(3);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), all.get());
+    }
+
+    @Test
+    public void testBoundedFailsFast() throws Exception {
+        final AtomicInteger startedCount = new AtomicInteger();
+        final List<CompletableFuture<Integer>> started = new ArrayList<CompletableFuture<Integer>>();
+        List<Supplier<CompletableFuture<Integer>>> calls = new ArrayList<Supplier<CompletableFuture<Integer>>>();
+        for (int i = 0; i < 4; i++) {
+            calls.add(() -> {
+                startedCount.incrementAndGet();
+                CompletableFuture<Integer> call = new CompletableFuture<Integer>();
+                started.add(call);
+                return call;
+            });
+        }
+        CompletableFuture<List<Integer>> all = AmazonEcsWorkerPool.bounded(calls, 2);
+        started.get(0).completeExceptionally(new BridgeError("Describe failed"));
+        assertTrue(all.isCompletedExceptionally());
+        try {
+            AmazonEcsWorkerPool.await(all);
+            fail("Expected the first failure");
+        } catch (BridgeError e) {
+            assertEquals("Describe failed", e.getMessage());
+        }
+
+        // The call still in flight is cancelled, and the calls that hadn't been started never are
+        assertTrue(started.get(1).isCancelled());
+        assertEquals(2, startedCount.get());
+    }
+
+    @Test
+    public void testBoundedStartsCallsThatAreAlreadyCompleteWithoutRecursing() throws Exception {
+        // Each call completes as it is started, which would overflow the stack if every completion
+        // started the next call from inside the one before it
+        List<Supplier<CompletableFuture<Integer>>> calls = new ArrayList<Supplier<CompletableFuture<Integer>>>();
+        for (int i = 0; i < 100000; i++) {
+            final int result = i;
+            calls.add(() -> CompletableFuture.completedFuture(result));
+        }
+        List<Integer> results = AmazonEcsWorkerPool.bounded(calls, 2).get();
+        assertEquals(100000, results.size());
+        assertEquals(Integer.valueOf(99999), results.get(99999));
+    }
+
+    @Test
+    public void testSupplyBlockingRunsOnAJoinThreadAndCompletesOnAWorker() throws Exception {
+        AmazonEcsWorkerPool pool = new AmazonEcsWorkerPool("Test", 1);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<String> call = pool.supplyBlocking(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Thread.currentThread().getName();
+            });
+            CompletableFuture<String> completedOn = call.thenApply(ignored -> Thread.currentThread().getName());
+            release.countDown();
+            assertTrue(call.get().contains("-join-"));
+            assertFalse(completedOn.get().contains("-join-"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}